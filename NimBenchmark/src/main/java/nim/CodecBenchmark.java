@@ -0,0 +1,179 @@
+//******************************************************************************
+//
+// File:    CodecBenchmark.java
+// Package: nim
+// Unit:    Class nim.CodecBenchmark
+//
+//******************************************************************************
+
+package nim;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class CodecBenchmark measures encoding the server's outbound messages with
+ * MessageCodec and decoding a client's inbound messages through
+ * ViewProxy.process(). The decoded messages go to a view listener that does
+ * nothing, so only the parsing is measured.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+@State (Scope.Thread)
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class CodecBenchmark
+	{
+
+// Hidden data members
+
+	private ByteBuffer out = ByteBuffer.allocate (MessageCodec.MAX_DATAGRAM);
+	private int[] scores = {3, 2};
+	private int[] smallBoard = {3, 4, 5};
+	private int[] largeBoard = new int [1000];
+
+	private ByteBuffer take = ByteBuffer.allocate (MessageCodec.MAX_DATAGRAM);
+	private ByteBuffer takeWide = ByteBuffer.allocate (MessageCodec.MAX_DATAGRAM);
+	private ByteBuffer join = ByteBuffer.allocate (MessageCodec.MAX_DATAGRAM);
+	private ViewProxy proxy;
+
+// Exported operations
+
+	/**
+	 * Encode the inbound messages once, and set up a proxy to decode them
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Setup
+	public void setup()
+		throws IOException
+		{
+		for (int i = 0; i < largeBoard.length; i++) {
+			largeBoard[i] = 2000 + i;
+		}
+		MessageCodec.putTake (take, 2, 3);
+		take.flip();
+		MessageCodec.putTake (takeWide, 700, 1500);
+		takeWide.flip();
+		MessageCodec.putJoin (join, "Player1");
+		join.flip();
+		proxy = new ViewProxy
+			(new NullMailbox(), new InetSocketAddress ("localhost", 6056));
+		proxy.setViewListener (new IdleViewListener());
+	}
+
+	/**
+	 * Encode the whole state of a game on the default board
+	 *
+	 * @return  Encoded length
+	 */
+	@Benchmark
+	public int encodeState() {
+		out.clear();
+		MessageCodec.putState (out, 1, 7, 0, MessageCodec.NO_WINNER,
+			scores, smallBoard);
+		return out.position();
+	}
+
+	/**
+	 * Encode as much of a 1000-heap board as fits in one datagram
+	 *
+	 * @return  Encoded length
+	 */
+	@Benchmark
+	public int encodeStateRange() {
+		out.clear();
+		int count = (out.remaining() - MessageCodec.STATE_RANGE_HEADER) / 2;
+		MessageCodec.putStateRange (out, 1, 7, 0, MessageCodec.NO_WINNER,
+			scores, largeBoard, 0, count);
+		return out.position();
+	}
+
+	/**
+	 * Encode the composite datagram a player gets when a game is paired
+	 *
+	 * @return  Encoded length
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Benchmark
+	public int encodeComposite()
+		throws IOException
+		{
+		out.clear();
+		int countPosition = MessageCodec.beginComposite (out);
+		MessageCodec.putName (out, 1, "Player2");
+		MessageCodec.putId (out, 1);
+		MessageCodec.putName (out, 0, "Player1");
+		MessageCodec.putState (out, 1, 0, 0, MessageCodec.NO_WINNER,
+			scores, smallBoard);
+		MessageCodec.endComposite (out, countPosition, 4);
+		return out.position();
+	}
+
+	/**
+	 * Decode a move
+	 *
+	 * @return  Whether the proxy asked to be discarded
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Benchmark
+	public boolean decodeTake()
+		throws IOException
+		{
+		take.rewind();
+		return proxy.process (take);
+	}
+
+	/**
+	 * Decode a move on a large board
+	 *
+	 * @return  Whether the proxy asked to be discarded
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Benchmark
+	public boolean decodeTakeWide()
+		throws IOException
+		{
+		takeWide.rewind();
+		return proxy.process (takeWide);
+	}
+
+	/**
+	 * Decode a join, which includes decoding the player's name
+	 *
+	 * @return  Whether the proxy asked to be discarded
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Benchmark
+	public boolean decodeJoin()
+		throws IOException
+		{
+		join.rewind();
+		return proxy.process (join);
+	}
+}
@@ -0,0 +1,127 @@
+//******************************************************************************
+//
+// File:    DispatchBenchmark.java
+// Package: nim
+// Unit:    Class nim.DispatchBenchmark
+//
+//******************************************************************************
+
+package nim;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class DispatchBenchmark measures what MailboxManager.receiveMessage() does
+ * with a datagram once the socket has handed it over: look up the sender's
+ * view proxy in the client table and have the proxy process the datagram.
+ * Senders are picked at random from the given number of connected clients, so
+ * the table lookups miss the cache as they would on a busy server.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+@State (Scope.Thread)
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class DispatchBenchmark
+	{
+
+// Hidden constants
+
+	private static final int SENDERS = 1 << 16; // power of two
+
+// Exported data members
+
+	/** Number of clients in the table */
+	@Param ({"10", "1000", "100000"})
+	public int clients;
+
+// Hidden data members
+
+	private ClientTable proxyMap;
+	private InetAddress[] hosts = new InetAddress [SENDERS];
+	private int[] ports = new int [SENDERS];
+	private int next;
+	private ByteBuffer take = ByteBuffer.allocate (MessageCodec.MAX_DATAGRAM);
+
+// Exported operations
+
+	/**
+	 * Fill the client table, and pick the senders of the datagrams
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Setup
+	public void setup()
+		throws IOException
+		{
+		Mailbox mailbox = new NullMailbox();
+		ViewListener listener = new IdleViewListener();
+		proxyMap = new ClientTable();
+		InetSocketAddress[] addresses = new InetSocketAddress [clients];
+		for (int i = 0; i < clients; i++) {
+			byte[] ip = {10, (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+			addresses[i] = new InetSocketAddress
+				(InetAddress.getByAddress (ip), 6056 + (i & 0xFF));
+			ViewProxy proxy = new ViewProxy (mailbox, addresses[i]);
+			proxy.setViewListener (listener);
+			proxyMap.put (addresses[i], proxy);
+		}
+		Random random = new Random (42);
+		for (int i = 0; i < SENDERS; i++) {
+			InetSocketAddress sender = addresses[random.nextInt (clients)];
+			hosts[i] = sender.getAddress();
+			ports[i] = sender.getPort();
+		}
+		MessageCodec.putTake (take, 2, 3);
+		take.flip();
+	}
+
+	/**
+	 * Look up the view proxy for a datagram's sender
+	 *
+	 * @return  The view proxy
+	 */
+	@Benchmark
+	public ViewProxy lookup() {
+		int i = next++ & (SENDERS - 1);
+		return proxyMap.get (hosts[i], ports[i]);
+	}
+
+	/**
+	 * Look up the view proxy for a datagram's sender and process the datagram
+	 *
+	 * @return  Whether the proxy asked to be discarded
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Benchmark
+	public boolean dispatch()
+		throws IOException
+		{
+		int i = next++ & (SENDERS - 1);
+		take.rewind();
+		return proxyMap.get (hosts[i], ports[i]).process (take);
+	}
+}
@@ -0,0 +1,26 @@
+//******************************************************************************
+//
+// File:    IdleViewListener.java
+// Package: nim
+// Unit:    Class nim.IdleViewListener
+//
+//******************************************************************************
+
+package nim;
+
+/**
+ * Class IdleViewListener is a view listener that ignores everything, so a
+ * benchmark of a view proxy measures only the proxy's own work.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class IdleViewListener
+	implements ViewListener
+	{
+	public void join (ViewProxy proxy, String playerName) { }
+	public void watch (ViewProxy proxy, int sessionId) { }
+	public void removeMarker (int h, int m) { }
+	public void newGame() { }
+	public void quit() { }
+}
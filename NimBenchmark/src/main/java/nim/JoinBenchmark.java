@@ -0,0 +1,113 @@
+//******************************************************************************
+//
+// File:    JoinBenchmark.java
+// Package: nim
+// Unit:    Class nim.JoinBenchmark
+//
+//******************************************************************************
+
+package nim;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class JoinBenchmark measures matchmaking in SessionManager.join() with the
+ * given number of games already running. Each operation leaves the number of
+ * sessions as it found it: a player joins and waits, or is joined by an
+ * opponent, and then quits, closing the session. Comparing the two
+ * benchmarks gives the cost of pairing.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+@State (Scope.Thread)
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class JoinBenchmark
+	{
+
+// Exported data members
+
+	/** Number of full sessions running before the benchmark starts */
+	@Param ({"10", "1000", "100000"})
+	public int sessions;
+
+// Hidden data members
+
+	private SessionManager sessionManager;
+	private ViewProxy first;
+	private ViewProxy second;
+
+// Exported operations
+
+	/**
+	 * Start the given number of games
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Setup
+	public void setup()
+		throws IOException
+		{
+		Mailbox mailbox = new NullMailbox();
+		sessionManager = new SessionManager();
+		first = new ViewProxy (mailbox, new InetSocketAddress ("localhost", 6056));
+		second = new ViewProxy (mailbox, new InetSocketAddress ("localhost", 6057));
+		for (int i = 0; i < sessions; i++) {
+			sessionManager.join (first, "Player1");
+			sessionManager.join (second, "Player2");
+		}
+	}
+
+	/**
+	 * A player joins, waits for an opponent, and gives up
+	 *
+	 * @return  Number of sessions
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Benchmark
+	public int joinAndQuit()
+		throws IOException
+		{
+		sessionManager.join (first, "Player1");
+		first.reap();
+		return sessionManager.getSessionCount();
+	}
+
+	/**
+	 * A player joins, an opponent joins and is paired, and the game is quit
+	 *
+	 * @return  Number of sessions
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Benchmark
+	public int joinPairAndQuit()
+		throws IOException
+		{
+		sessionManager.join (first, "Player1");
+		sessionManager.join (second, "Player2");
+		first.reap();
+		return sessionManager.getSessionCount();
+	}
+}
@@ -0,0 +1,115 @@
+//******************************************************************************
+//
+// File:    MoveBenchmark.java
+// Package: nim
+// Unit:    Class nim.MoveBenchmark
+//
+//******************************************************************************
+
+package nim;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class MoveBenchmark measures NimModel.removeMarker(): validating a move,
+ * updating the heaps and running totals, and encoding the new state to every
+ * listening view proxy. Moves take one marker at a time, round the heaps, and
+ * a new game starts when the board is empty.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+@State (Scope.Thread)
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class MoveBenchmark
+	{
+
+// Exported data members
+
+	/** The default 3,4,5 board, or 1000 heaps of 1000 markers */
+	@Param ({"default", "large"})
+	public String board;
+
+	/** Number of view proxies listening to the model */
+	@Param ({"2", "8"})
+	public int listeners;
+
+// Hidden data members
+
+	private NimModel model;
+	private int[] start;
+	private int[] heaps;
+	private int h;
+
+// Exported operations
+
+	/**
+	 * Set up a model on the given board with the given number of listeners
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Setup
+	public void setup()
+		throws IOException
+		{
+		if (board.equals ("large")) {
+			start = new int [1000];
+			Arrays.fill (start, 1000);
+		} else {
+			start = NimModel.DEFAULT_BOARD.clone();
+		}
+		heaps = start.clone();
+		model = new NimModel (start, NimModel.DEFAULT_RULES);
+		Mailbox mailbox = new NullMailbox();
+		for (int i = 0; i < listeners; i++) {
+			ViewProxy proxy = new ViewProxy
+				(mailbox, new InetSocketAddress ("localhost", 6056 + i));
+			proxy.setViewListener (model);
+			model.addModelListener (proxy);
+		}
+	}
+
+	/**
+	 * Make the next move, starting a new game first if the last one is over
+	 *
+	 * @return  Markers left on the board
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	@Benchmark
+	public long move()
+		throws IOException
+		{
+		if (model.getMarkersLeft() == 0) {
+			model.newGame();
+			System.arraycopy (start, 0, heaps, 0, start.length);
+		}
+		while (heaps[h] == 0) {
+			h = (h + 1) % heaps.length;
+		}
+		heaps[h]--;
+		model.removeMarker (h, 1);
+		h = (h + 1) % heaps.length;
+		return model.getMarkersLeft();
+	}
+}
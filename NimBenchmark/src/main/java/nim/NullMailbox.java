@@ -0,0 +1,63 @@
+//******************************************************************************
+//
+// File:    NullMailbox.java
+// Package: nim
+// Unit:    Class nim.NullMailbox
+//
+//******************************************************************************
+
+package nim;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Class NullMailbox is a mailbox that sends nothing and schedules nothing, so
+ * a benchmark measures the server code above the socket. It counts the bytes
+ * it is given, which keeps the encoding from being optimized away.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class NullMailbox
+	implements Mailbox
+	{
+
+// Hidden data members
+
+	private long bytes;
+
+// Exported operations
+
+	/**
+	 * Count a datagram's bytes and drop it
+	 *
+	 * @param  payload  Datagram contents
+	 * @param  address  Destination address
+	 */
+	public void send
+		(ByteBuffer payload,
+		 SocketAddress address)
+		{
+		bytes += payload.remaining();
+	}
+
+	/**
+	 * Drop a timeout
+	 *
+	 * @param  timeout   Timeout to schedule
+	 * @param  deadline  Time to expire it
+	 */
+	public void schedule
+		(TimingWheel.Timeout timeout,
+		 long deadline)
+		{
+	}
+
+	/**
+	 * Returns the number of bytes sent so far
+	 *
+	 * @return  Byte count
+	 */
+	public long getBytes() { return bytes; }
+}
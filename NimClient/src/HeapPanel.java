@@ -47,10 +47,12 @@ import javax.swing.JPanel;
 		{
 		private static final int W = 50;
 		private static final int H = 30;
+		private static final int MAX_HEIGHT = 600; // tallest a heap is drawn
 		private static final Color FC = Color.RED;
 		private static final Color OC = Color.BLACK;
 
 		private int maxCount;
+		private int markerHeight; // H, or less on a large board
 		private int count;
 		private boolean isEnabled;
 		private HeapListener listener;
@@ -61,9 +63,10 @@ import javax.swing.JPanel;
 			 int maxCount) // Maximum number of markers
 			{
 			this.maxCount = maxCount;
+			this.markerHeight = Math.max (1, Math.min (H, MAX_HEIGHT/maxCount));
 			this.count = maxCount;
 			this.isEnabled = true;
-			Dimension dim = new Dimension (W, maxCount*H);
+			Dimension dim = new Dimension (W, maxCount*markerHeight);
 			setMinimumSize (dim);
 			setMaximumSize (dim);
 			setPreferredSize (dim);
@@ -73,7 +76,7 @@ import javax.swing.JPanel;
 					{
 					if (isEnabled && listener != null)
 						{
-						int objClicked = maxCount - 1 - e.getY()/H;
+						int objClicked = maxCount - 1 - e.getY()/markerHeight;
 						int numRemoved = count - objClicked;
 						if (numRemoved > 0)
 							doRemoveObjects(id, numRemoved);
@@ -117,6 +120,12 @@ import javax.swing.JPanel;
 				return count;
 			}
 
+		// Get the most markers this heap panel can hold.
+		public int getMaxCount()
+			{
+				return maxCount;
+			}
+
 		// Enable or disable this heap panel.
 		public void setEnabled
 			(boolean enabled) // True to enable, false to disable
@@ -145,7 +154,7 @@ import javax.swing.JPanel;
 			// For drawing markers.
 			Ellipse2D.Double ellipse = new Ellipse2D.Double();
 			ellipse.width = W - 2;
-			ellipse.height = H - 2;
+			ellipse.height = Math.max (1, markerHeight - 2);
 			ellipse.x = 1;
 
 			// If enabled, draw filled markers.
@@ -154,7 +163,7 @@ import javax.swing.JPanel;
 				g2d.setColor (FC);
 				for (int i = 0; i < count; ++ i)
 					{
-					ellipse.y = (maxCount - 1 - i)*H + 1;
+					ellipse.y = (maxCount - 1 - i)*markerHeight + 1;
 					g2d.fill (ellipse);
 					}
 				}
@@ -165,7 +174,7 @@ import javax.swing.JPanel;
 				g2d.setColor (OC);
 				for (int i = 0; i < count; ++ i)
 					{
-					ellipse.y = (maxCount - 1 - i)*H + 1;
+					ellipse.y = (maxCount - 1 - i)*markerHeight + 1;
 					g2d.draw (ellipse);
 					}
 				}
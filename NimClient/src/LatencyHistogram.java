@@ -0,0 +1,156 @@
+//******************************************************************************
+//
+// File:    LatencyHistogram.java
+// Package: ---
+// Unit:    Class LatencyHistogram.java
+//
+//******************************************************************************
+
+import java.util.Arrays;
+
+/**
+ * Class LatencyHistogram counts latencies in log-linear buckets: exact below
+ * 32 microseconds, and above that 16 buckets per power of two, so every value
+ * is reported to within about 6% however large it is. Recording is a shift
+ * and an increment and never allocates, so it does not disturb what it
+ * measures.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class LatencyHistogram
+	{
+
+// Hidden constants
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int HALF = SUB / 2;
+	private static final int BUCKETS = SUB + (64 - SUB_BITS) * HALF;
+
+// Hidden data members
+
+	private long[] counts = new long [BUCKETS];
+	private long total;
+	private long max;
+
+// Exported operations
+
+	/**
+	 * Record one latency
+	 *
+	 * @param  micros  Latency in microseconds
+	 */
+	public synchronized void record
+		(long micros)
+		{
+		if (micros < 0) {
+			micros = 0;
+		}
+		++counts[index (micros)];
+		++total;
+		max = Math.max (max, micros);
+	}
+
+	/**
+	 * Move everything recorded here into another histogram, leaving this one
+	 * empty
+	 *
+	 * @param  into  Histogram to add to
+	 */
+	public synchronized void drainInto
+		(LatencyHistogram into)
+		{
+		into.add (this);
+		Arrays.fill (counts, 0L);
+		total = 0;
+		max = 0;
+	}
+
+	/**
+	 * Add another histogram's counts to this one
+	 *
+	 * @param  other  Histogram to add
+	 */
+	public synchronized void add
+		(LatencyHistogram other)
+		{
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		total += other.total;
+		max = Math.max (max, other.max);
+	}
+
+	/**
+	 * Returns the number of latencies recorded
+	 *
+	 * @return  Count
+	 */
+	public synchronized long getCount() { return total; }
+
+	/**
+	 * Returns the latency below which the given fraction of the recorded
+	 * latencies fall, rounded up to the top of its bucket
+	 *
+	 * @param  fraction  Fraction, from 0 to 1
+	 *
+	 * @return  Latency in microseconds, or 0 if nothing was recorded
+	 */
+	public synchronized long percentile
+		(double fraction)
+		{
+		long rank = (long) Math.ceil (fraction * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && seen > 0) {
+				return Math.min (highest (i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Summarize the histogram on one line
+	 *
+	 * @return  Count and percentiles in microseconds
+	 */
+	public synchronized String toString() {
+		return "n " + total +
+			"  p50 " + percentile (0.50) +
+			"  p90 " + percentile (0.90) +
+			"  p99 " + percentile (0.99) +
+			"  p99.9 " + percentile (0.999) +
+			"  max " + max + " us";
+	}
+
+// Hidden operations
+
+	/**
+	 * Bucket a value falls in
+	 */
+	private static int index
+		(long value)
+		{
+		if (value < SUB) {
+			return (int) value;
+		}
+		int shift = 64 - Long.numberOfLeadingZeros (value) - SUB_BITS;
+		return SUB + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+	}
+
+	/**
+	 * Largest value that falls in a bucket
+	 */
+	private static long highest
+		(int index)
+		{
+		if (index < SUB) {
+			return index;
+		}
+		int shift = (index - SUB) / HALF + 1;
+		long sub = (index - SUB) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,348 @@
+//******************************************************************************
+//
+// File:    LoadGenerator.java
+// Package: ---
+// Unit:    Class LoadGenerator.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class LoadGenerator is a headless client that plays many simulated players
+ * against a Nim server on this machine, to see how the server holds up.
+ * <P>
+ * Each player has its own datagram channel, since the server tells clients
+ * apart by address, but the channels are shared out among a few selector
+ * threads, so thousands of players need only a handful of threads. Players
+ * decode the server's messages with ModelProxy, as the Nim client does.
+ * <P>
+ * A run has three phases. During ramp-up players join at an even rate;
+ * during steady state every player is playing and move latencies are
+ * measured; during the optional soak play goes on, with a report every
+ * REPORT_INTERVAL, to show whether the server slows down over time.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class LoadGenerator {
+
+// Hidden constants
+
+	private static final int TICK_MILLIS = 10;
+	private static final long REPORT_INTERVAL = 10000L;
+
+// Exported helper classes
+
+	/**
+	 * Class Stats holds what one selector thread's players have counted.
+	 * Written by that thread only.
+	 */
+	public static class Stats
+		{
+		public volatile long joins;
+		public volatile long moves;
+		public volatile long timeouts;
+		public volatile long games;
+		public LatencyHistogram latencies = new LatencyHistogram();
+	}
+
+// Hidden data members
+
+	private static ArrayList<Driver> drivers = new ArrayList<Driver>();
+
+// Exported operations
+
+	/**
+	 * Main program.
+	 *
+	 * @param  args  Command line arguments
+	 *
+	 * @exception  Exception
+	 *     Thrown if an exception occurs
+	 */
+	public static void main
+		(String[] args)
+		throws Exception
+		{
+		int serverport = 0;
+		int players = 0;
+		int threads = 4;
+		long ramp = 10;
+		long steady = 30;
+		long soak = 0;
+		long think = 0;
+		boolean scripted = false;
+		int[] moves = null;
+
+		// read in parameters
+		if (args.length < 2 || args.length % 2 != 0) usage();
+		try {
+			serverport = Integer.parseInt (args[0]);
+			players = Integer.parseInt (args[1]);
+			for (int i = 2; i < args.length; i += 2) {
+				String value = args[i + 1];
+				if (args[i].equals ("threads")) {
+					threads = Integer.parseInt (value);
+				} else if (args[i].equals ("ramp")) {
+					ramp = Long.parseLong (value);
+				} else if (args[i].equals ("steady")) {
+					steady = Long.parseLong (value);
+				} else if (args[i].equals ("soak")) {
+					soak = Long.parseLong (value);
+				} else if (args[i].equals ("think")) {
+					think = Long.parseLong (value);
+				} else if (args[i].equals ("moves") && value.equals ("random")) {
+					scripted = false;
+				} else if (args[i].equals ("moves") && value.equals ("first")) {
+					scripted = true;
+				} else if (args[i].equals ("rules")) {
+					moves = parseRules (value);
+				} else {
+					usage();
+				}
+			}
+		} catch (NumberFormatException exc) {
+			usage();
+		}
+		if (players < 1 || threads < 1 || ramp < 0 || steady < 0 || soak < 0 ||
+				think < 0) {
+			usage();
+		}
+
+		// only ever load a server on this machine
+		InetSocketAddress server = new InetSocketAddress
+			(InetAddress.getLoopbackAddress(), serverport);
+
+		// share the players out among the selector threads
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			drivers.add (new Driver (t));
+		}
+		for (int i = 0; i < players; i++) {
+			long joinAt = start + ramp * 1000000000L * i / players;
+			drivers.get (i % threads).add
+				("Load" + i, server, moves, scripted, think * 1000000L, joinAt);
+		}
+		Runtime.getRuntime().addShutdownHook (new Thread()
+			{
+			public void run()
+				{
+				stopDrivers();
+				}
+			});
+		for (Driver driver : drivers) {
+			driver.start();
+		}
+
+		// ramp-up: latencies while players are still joining are discarded
+		Thread.sleep (ramp * 1000L);
+		LatencyHistogram phase = new LatencyHistogram();
+		drain (phase);
+		report ("ramp-up", phase);
+
+		// steady state
+		phase = new LatencyHistogram();
+		Thread.sleep (steady * 1000L);
+		drain (phase);
+		report ("steady", phase);
+
+		// soak, reporting each interval and the whole phase at the end
+		if (soak > 0) {
+			phase = new LatencyHistogram();
+			long end = System.currentTimeMillis() + soak * 1000L;
+			for (;;) {
+				long left = end - System.currentTimeMillis();
+				if (left <= 0) {
+					break;
+				}
+				Thread.sleep (Math.min (left, REPORT_INTERVAL));
+				LatencyHistogram interval = new LatencyHistogram();
+				drain (interval);
+				report ("soak interval", interval);
+				phase.add (interval);
+			}
+			report ("soak", phase);
+		}
+		System.exit (0); // the shutdown hook quits every player
+	}
+
+// Hidden operations
+
+	/**
+	 * Move every driver's latencies into a histogram
+	 */
+	private static void drain
+		(LatencyHistogram into)
+		{
+		for (Driver driver : drivers) {
+			driver.stats.latencies.drainInto (into);
+		}
+	}
+
+	/**
+	 * Print a phase's latencies along with the running totals
+	 */
+	private static void report
+		(String phase,
+		 LatencyHistogram latencies)
+		{
+		long joins = 0, moves = 0, timeouts = 0, games = 0;
+		for (Driver driver : drivers) {
+			joins += driver.stats.joins;
+			moves += driver.stats.moves;
+			timeouts += driver.stats.timeouts;
+			games += driver.stats.games;
+		}
+		System.out.println (phase + ": " + latencies);
+		System.out.println ("    totals: joins " + joins + "  moves " + moves +
+			"  timeouts " + timeouts + "  games " + games);
+	}
+
+	/**
+	 * Stop the selector threads, each quitting its players on the way out
+	 */
+	private static void stopDrivers() {
+		for (Driver driver : drivers) {
+			driver.running = false;
+			driver.selector.wakeup();
+		}
+		for (Driver driver : drivers) {
+			try {
+				driver.join (5000L);
+			} catch (InterruptedException exc) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Parse the server's ruleset into the numbers of markers a move may take.
+	 * Misere play changes who wins, not which moves are legal.
+	 *
+	 * @return  The subtraction set, sorted, or null for plain Nim
+	 *
+	 * @exception  NumberFormatException
+	 *     Thrown if the ruleset cannot be parsed
+	 */
+	private static int[] parseRules
+		(String spec)
+		{
+		if (spec.startsWith ("misere:")) {
+			spec = spec.substring ("misere:".length());
+		}
+		if (spec.equals ("nim")) {
+			return null;
+		}
+		String[] parts = spec.split (",");
+		int[] set = new int [parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			set[i] = Integer.parseInt (parts[i]);
+			if (set[i] < 1) {
+				throw new NumberFormatException (spec);
+			}
+		}
+		Arrays.sort (set);
+		return set;
+	}
+
+	/**
+	 * Print a usage message and exit.
+	 */
+	private static void usage() {
+		System.err.println ("Usage: java LoadGenerator <serverport> <players> [threads <n>] [ramp <seconds>] [steady <seconds>] [soak <seconds>] [think <millis>] [moves random|first] [rules <rules>]");
+		System.err.println ("<rules> must match the server's: nim or a subtraction set such as 1,2,3, optionally preceded by misere:");
+		System.exit (1);
+	}
+
+// Hidden helper classes
+
+	/**
+	 * Class Driver is a selector thread that runs some of the players
+	 */
+	private static class Driver
+		extends Thread
+		{
+		public Stats stats = new Stats();
+		public Selector selector;
+		public volatile boolean running = true;
+
+		private ArrayList<SimulatedPlayer> players =
+			new ArrayList<SimulatedPlayer>();
+		private Random random;
+
+		public Driver
+			(int index)
+			throws IOException
+			{
+			super ("LoadGenerator-" + index);
+			setDaemon (true);
+			selector = Selector.open();
+			random = new Random (index);
+		}
+
+		// set up one player; called before the thread starts
+		public void add
+			(String name,
+			 InetSocketAddress server,
+			 int[] moves,
+			 boolean scripted,
+			 long think,
+			 long joinAt)
+			throws IOException
+			{
+			players.add (new SimulatedPlayer
+				(name, server, selector, stats, random, moves, scripted,
+				 think, joinAt));
+		}
+
+		// main thread function
+		public void run()
+			{
+			ByteBuffer in = ByteBuffer.allocate (MessageCodec.MAX_DATAGRAM);
+			try {
+				while (running) {
+					selector.select (TICK_MILLIS);
+					for (SelectionKey key : selector.selectedKeys()) {
+						SimulatedPlayer player =
+							(SimulatedPlayer) key.attachment();
+						try {
+							in.clear();
+							while (player.getChannel().receive (in) != null) {
+								in.flip();
+								player.getProxy().process (in);
+								in.clear();
+							}
+						} catch (PortUnreachableException exc) {
+							// server not up; the player's move will time out
+						}
+					}
+					selector.selectedKeys().clear();
+					long now = System.nanoTime();
+					for (int i = 0; i < players.size(); i++) {
+						try {
+							players.get (i).tick (now);
+						} catch (PortUnreachableException exc) {
+						}
+					}
+				}
+			} catch (IOException exc) {
+				System.err.println (exc.getMessage());
+			} finally {
+				for (SimulatedPlayer player : players) {
+					try { player.quit(); }
+						catch (IOException exc) {}
+				}
+			}
+		} /* end run */
+	} /* end Driver */
+} /* end class LoadGenerator */
@@ -7,6 +7,7 @@
 //******************************************************************************
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -24,7 +25,18 @@ public class ModelClone
 	private int myId;
 	private HashMap<Integer, String> players = 
 			new HashMap<Integer, String>();
+	private HashMap<Integer, String> records = 
+			new HashMap<Integer, String>();
 	private boolean newGame = false;
+	private boolean spectator = false; // watching, not playing
+	
+	// last game state applied; older states are ignored
+	private int epoch = 0;
+	private int version = -1;
+	
+	// heap counts shown, -1 where not yet known
+	private int[] heaps = new int [0];
+	private int maxCount = 0;
 	
 	private ModelListener modelListener;
 
@@ -49,6 +61,14 @@ public class ModelClone
 		this.modelListener = view;
 	}
 	
+	/**
+	 * Make this the model clone of a spectator, who never plays: the heaps
+	 * and the New Game button stay disabled, and player 0 is shown first
+	 */
+	public void setSpectator() {
+		this.spectator = true;
+	}
+	
 	/**
 	 * Disables the heaps on initial join and
 	 * reports id has been set
@@ -80,6 +100,24 @@ public class ModelClone
 		modelListener.nameSet(pid, playerName);
 	}
 
+	/**
+	 * Report a player's win/loss record, shown after the player's name
+	 * 
+	 * @param  pid     The player's id
+	 * @param  wins    Games the player has won
+	 * @param  losses  Games the player has lost
+	 * @throws IOException 
+	 */
+	public void recordSet
+		(int pid,
+		 int wins,
+		 int losses) 
+		throws IOException 
+		{
+		records.put(pid, " (" + wins + "-" + losses + ")");
+		modelListener.recordSet(pid, wins, losses);
+	}
+
 	/**
 	 * Set initial player scores
 	 * 
@@ -95,7 +133,7 @@ public class ModelClone
 		 String playerName) 
 		throws IOException 
 		{
-		modelListener.scoreSet(pid == myId, s, pid, players.get(pid));
+		modelListener.scoreSet(pid == myId, s, pid, label(pid));
 	}
 
 	/**
@@ -123,7 +161,7 @@ public class ModelClone
 	public void turnSet
 		(int pid) 
 		{
-		if(pid == myId) {
+		if(pid == myId && !spectator) {
 			modelListener.enableHeaps();
 		} else {
 			modelListener.disableHeaps();
@@ -149,6 +187,100 @@ public class ModelClone
 		modelListener.setWinner(players.get(pid));
 	}
 
+	/**
+	 * Apply a game state. Turn, scores and winner are applied only if the
+	 * state is newer than the last one applied; heap counts also if it is
+	 * the same age, since a large board arrives in several parts. Repeated,
+	 * late or reordered states are therefore harmless.
+	 * 
+	 * @param  epoch    Number of the game
+	 * @param  version  Number of moves made in this game
+	 * @param  turn     Id of the player whose turn it is
+	 * @param  winner   Id of the winner, or MessageCodec.NO_WINNER
+	 * @param  scores   Both players' scores
+	 * @param  heaps    Number of markers left in each heap
+	 * @param  first    Id of the first heap reported
+	 * @param  count    Number of heaps reported
+	 * @throws IOException 
+	 */
+	public void stateSet
+		(int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 int first,
+		 int count) 
+		throws IOException 
+		{
+		if(epoch < this.epoch ||
+				(epoch == this.epoch && version < this.version)) {
+			return; // stale
+		}
+		
+		// lay the board out again if it has a new shape
+		int max = maxCount;
+		for(int h = first; h < first + count; h++) {
+			max = Math.max(max, heaps[h]);
+		}
+		if(heaps.length != this.heaps.length || max > maxCount) {
+			this.heaps = new int [heaps.length];
+			Arrays.fill(this.heaps, -1);
+			maxCount = Math.max(max, 1);
+			modelListener.boardSet(heaps.length, maxCount);
+		}
+		for(int h = first; h < first + count; h++) {
+			if(this.heaps[h] != heaps[h]) {
+				this.heaps[h] = heaps[h];
+				modelListener.heapCountSet(h, heaps[h]);
+			}
+		}
+		if(epoch == this.epoch && version == this.version) {
+			return; // already applied
+		}
+		this.epoch = epoch;
+		this.version = version;
+		
+		if(turn == myId && !spectator) {
+			modelListener.enableHeaps();
+		} else {
+			modelListener.disableHeaps();
+		}
+		for(int pid = 0; pid < scores.length; pid++) {
+			if(players.containsKey(pid)) {
+				modelListener.scoreSet(pid == myId, scores[pid], pid,
+					label(pid));
+			}
+		}
+		if(winner == MessageCodec.NO_WINNER) {
+			modelListener.clearWinner();
+		} else {
+			modelListener.setWinner(players.get(winner));
+		}
+		newGame = false;
+	}
+
+	/**
+	 * Lay out a board
+	 * 
+	 * @param  heapCount  The number of heaps
+	 * @param  maxCount   The most markers any heap holds
+	 */
+	public void boardSet
+		(int heapCount,
+		 int maxCount) {}
+
+	/**
+	 * Set the number of markers in a heap
+	 * 
+	 * @param  h      Id of the heap
+	 * @param  count  The number of markers left in it
+	 */
+	public void heapCountSet
+		(int h,
+		 int count) {}
+
 	/**
 	 * Removes the winner text from the UI
 	 */
@@ -159,7 +291,9 @@ public class ModelClone
 	 * Reports a session is full and a new game can be started
 	 */
 	public void enableNewGame() {
-		modelListener.enableNewGame();
+		if(!spectator) {
+			modelListener.enableNewGame();
+		}
 	}
 
 	/**
@@ -186,11 +320,26 @@ public class ModelClone
 		(String playerName) {}
 
 	/**
-	 * Tell clients to quit the session
+	 * The session was quit, so close the client
 	 *
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred.
 	 */
 	public void gameQuit() 
-		throws IOException {}
+		throws IOException
+		{
+		System.exit(0);
+	}
+
+// Hidden operations
+
+	/**
+	 * A player's name, with the player's record if known
+	 */
+	private String label
+		(int pid)
+		{
+		String record = records.get(pid);
+		return record == null ? players.get(pid) : players.get(pid) + record;
+	}
 }
@@ -36,6 +36,19 @@ public interface ModelListener {
 	public void nameSet
 		(int pid, String playerName)
 		throws IOException;
+
+	/**
+	 * Report a player's win/loss record from earlier games
+	 *
+	 * @param  pid     The player's id
+	 * @param  wins    Games the player has won
+	 * @param  losses  Games the player has lost
+	 */
+	public void recordSet
+		(int pid,
+		 int wins,
+		 int losses)
+		throws IOException;
 	
 	/**
 	 * Set initial player scores
@@ -78,6 +91,50 @@ public interface ModelListener {
 	public void winnerSet
 		(int pid)
 		throws IOException;
+
+	/**
+	 * Report the game state, sent after every change and periodically. On a
+	 * large board only the heaps in the given range are reported.
+	 * 
+	 * @param  epoch    Number of the game, starting at 1
+	 * @param  version  Number of moves made in this game
+	 * @param  turn     Id of the player whose turn it is
+	 * @param  winner   Id of the winner, or MessageCodec.NO_WINNER
+	 * @param  scores   Both players' scores
+	 * @param  heaps    Number of markers left in each heap
+	 * @param  first    Id of the first heap reported
+	 * @param  count    Number of heaps reported
+	 */
+	public void stateSet
+		(int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 int first,
+		 int count)
+		throws IOException;
+
+	/**
+	 * Lay out a board
+	 * 
+	 * @param  heapCount  The number of heaps
+	 * @param  maxCount   The most markers any heap holds
+	 */
+	public void boardSet
+		(int heapCount,
+		 int maxCount);
+
+	/**
+	 * Set the number of markers in a heap
+	 * 
+	 * @param  h      Id of the heap
+	 * @param  count  The number of markers left in it
+	 */
+	public void heapCountSet
+		(int h,
+		 int count);
 	
 	/**
 	 * Removes the winner text from the UI
@@ -6,17 +6,21 @@
 //
 //******************************************************************************
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 /**
  * Class ModelProxy performs all application logic of the Nim game
+ * <P>
+ * A model proxy built on a datagram socket reads it with its own thread. One
+ * built on a non-blocking datagram channel leaves reading to its owner, which
+ * hands each datagram to process(); that lets one thread serve many proxies.
  *
  * @author  Kyle Blyth
  * @version 02-Dec-2015
@@ -28,9 +32,24 @@ public class ModelProxy
 // Hidden data members
 
 	private DatagramSocket mailbox;
+	private DatagramChannel channel;
 	private SocketAddress destination;
 	private ModelListener modelListener;
 
+	private byte[] outPayload =
+		new byte [MessageCodec.MAX_DATAGRAM - ReliableChannel.HEADER_SIZE];
+	private ByteBuffer out = ByteBuffer.wrap (outPayload);
+	private DatagramPacket outPacket = new DatagramPacket (outPayload, 0);
+
+	// optional reliable delivery, polled by the reader thread every tick
+	private static final int TICK_MILLIS = 20;
+	private ReliableChannel reliable;
+	private DatagramPacket framePacket = new DatagramPacket (new byte [0], 0);
+
+	// decoded state messages, reused by the thread processing datagrams
+	private int[] stateScores = new int [2];
+	private int[] stateHeaps = new int [0];
+
 // Exported constructors
 
 	/**
@@ -46,15 +65,65 @@ public class ModelProxy
 		(DatagramSocket mailbox,
 		 SocketAddress destination)
 		throws IOException
+		{
+			this (mailbox, destination, false);
+	}
+
+	/**
+	 * Construct a new model proxy
+	 *
+	 * @param  mailbox  Mailbox
+	 * @param  destination  Destination mailbox address
+	 * @param  reliable  True to send and receive through a reliable channel
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public ModelProxy
+		(DatagramSocket mailbox,
+		 SocketAddress destination,
+		 boolean reliable)
+		throws IOException
 		{
 			this.mailbox = mailbox;
 			this.destination = destination;
+			if (reliable) {
+				this.reliable = new ReliableChannel
+					(new ReliableChannel.Output() {
+					public void transmit (ByteBuffer frame) throws IOException {
+						framePacket.setData
+							(frame.array(), frame.arrayOffset() + frame.position(),
+							 frame.remaining());
+						framePacket.setSocketAddress (ModelProxy.this.destination);
+						ModelProxy.this.mailbox.send (framePacket);
+					}
+				});
+				mailbox.setSoTimeout (TICK_MILLIS);
+			}
+	}
+
+	/**
+	 * Construct a new model proxy on a connected datagram channel. The
+	 * channel's owner reads it and passes each datagram to process().
+	 *
+	 * @param  channel  Channel connected to the server
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public ModelProxy
+		(DatagramChannel channel)
+		throws IOException
+		{
+			this.channel = channel;
+			this.destination = channel.getRemoteAddress();
 	}
 
 // Exported operations.
 
 	/**
-	 * Set the model listener object for this model proxy.
+	 * Set the model listener object for this model proxy. On a socket this
+	 * starts the thread that reads it.
 	 *
 	 * @param  modelListener  Model listener.
 	 */
@@ -62,7 +131,9 @@ public class ModelProxy
 		(ModelListener modelListener)
 		{
 		this.modelListener = modelListener;
-		new ReaderThread().start();
+		if (mailbox != null) {
+			new ReaderThread().start();
+		}
 	}
 	
 	/**
@@ -73,19 +144,34 @@ public class ModelProxy
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred
 	 */
-	public void join
+	public synchronized void join
 		(ViewProxy viewProxy,
 		 String playerName)
 		throws IOException
 		{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream (baos);
-		out.writeByte ('J');
-		out.writeUTF (playerName);
-		out.close();
-		byte[] payload = baos.toByteArray();
-		mailbox.send
-			(new DatagramPacket (payload, payload.length, destination));
+		out.clear();
+		MessageCodec.putJoin (out, playerName);
+		send();
+	}
+
+	/**
+	 * Watch the given session as a spectator. Sent again now and then, it
+	 * keeps the server from taking the spectator for gone.
+	 *
+	 * @param  viewProxy  Not used
+	 * @param  sessionId  Id of the session to watch
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized void watch
+		(ViewProxy viewProxy,
+		 int sessionId)
+		throws IOException
+		{
+		out.clear();
+		MessageCodec.putWatch (out, sessionId);
+		send();
 	}
 
 	/**
@@ -97,20 +183,14 @@ public class ModelProxy
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred
 	 */
-	public void removeMarker
+	public synchronized void removeMarker
 		(int h,
 		 int m)
 		throws IOException 
 		{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream (baos);
-		out.writeByte ('T');
-		out.writeByte (h);
-		out.writeByte (m);
-		out.close();
-		byte[] payload = baos.toByteArray();
-		mailbox.send
-			(new DatagramPacket (payload, payload.length, destination));
+		out.clear();
+		MessageCodec.putTake (out, h, m);
+		send();
 	}
 
 	/**
@@ -119,16 +199,12 @@ public class ModelProxy
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred.
 	 */
-	public void newGame()
+	public synchronized void newGame()
 		throws IOException
 		{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream (baos);
-		out.writeByte ('N');
-		out.close();
-		byte[] payload = baos.toByteArray();
-		mailbox.send
-			(new DatagramPacket (payload, payload.length, destination));
+		out.clear();
+		MessageCodec.putOpcode (out, MessageCodec.NEW_GAME);
+		send();
 	}
 
 	/**
@@ -137,16 +213,186 @@ public class ModelProxy
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred
 	 */
-	public void quit()
+	public synchronized void quit()
 		throws IOException
 		{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream (baos);
-		out.writeByte ('Q');
-		out.close();
-		byte[] payload = baos.toByteArray();
-		mailbox.send
-			(new DatagramPacket (payload, payload.length, destination));
+		out.clear();
+		MessageCodec.putOpcode (out, MessageCodec.QUIT);
+		send();
+	}
+
+	/**
+	 * Process one datagram from the server
+	 *
+	 * @param  datagram  Datagram contents, from position to limit
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void process
+		(ByteBuffer datagram)
+		throws IOException
+		{
+		try {
+			if (reliable != null && datagram.hasRemaining() &&
+					ReliableChannel.isFrame (datagram.get (datagram.position()))) {
+				reliable.receive (datagram, now());
+				ByteBuffer message;
+				while ((message = reliable.nextMessage()) != null) {
+					dispatch (message);
+				}
+			} else {
+				dispatch (datagram);
+			}
+		} catch (BufferUnderflowException exc) {
+			System.err.println ("Bad message"); // Truncated datagram
+		}
+	}
+
+// Hidden operations
+
+	/**
+	 * Send the message encoded in the outbound buffer to the server
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void send()
+		throws IOException
+		{
+		if (reliable != null) {
+			out.flip();
+			reliable.send (out, now());
+			return;
+		}
+		if (channel != null) {
+			out.flip();
+			channel.write (out); // dropped if the send buffer is full
+			return;
+		}
+		outPacket.setData (outPayload, 0, out.position());
+		outPacket.setSocketAddress (destination);
+		mailbox.send (outPacket);
+	}
+
+	/**
+	 * Decode one message and invoke the model listener for it
+	 */
+	private void dispatch
+		(ByteBuffer in)
+		throws IOException
+		{
+		int h, m, n, pid, s, count, epoch, version, winner, first, wins, losses;
+		String playerName;
+		byte b = in.get();
+		switch (b) {
+			case MessageCodec.COMPOSITE:
+				// several messages in one datagram, applied in order
+				count = in.get() & 0xFF;
+				for(int i = 0; i < count; i++) {
+					dispatch (in);
+				}
+				break;
+			case MessageCodec.ID:
+				pid = in.get();
+				modelListener.idSet(pid);
+				break;
+			case MessageCodec.NAME:
+				pid = in.get();
+				playerName = MessageCodec.getUTF (in);
+				modelListener.nameSet(pid, playerName);
+				if(pid == 1) {
+					modelListener.enableNewGame();
+				}
+				break;
+			case MessageCodec.RECORD:
+				pid = in.get();
+				wins = in.getInt();
+				losses = in.getInt();
+				modelListener.recordSet(pid, wins, losses);
+				break;
+			case MessageCodec.SCORE:
+				pid = in.get();
+				s = in.get();
+				modelListener.scoreSet(false, s, pid, "");
+				break;
+			case MessageCodec.HEAP:
+				h = in.get();
+				m = in.get();
+				modelListener.heapSet (h, m);
+				break;
+			case MessageCodec.HEAP_WIDE:
+				h = in.getShort() & 0xFFFF;
+				m = in.getShort() & 0xFFFF;
+				modelListener.heapSet (h, m);
+				break;
+			case MessageCodec.TURN:
+				pid = in.get();
+				modelListener.turnSet (pid);
+				break;
+			case MessageCodec.WINNER:
+				pid = in.get();
+				modelListener.winnerSet(pid);
+				break;
+			case MessageCodec.STATE:
+				epoch = in.getInt();
+				version = in.getShort() & 0xFFFF;
+				pid = in.get();
+				winner = in.get();
+				stateScores[0] = in.get() & 0xFF;
+				stateScores[1] = in.get() & 0xFF;
+				count = in.get() & 0xFF;
+				if(stateHeaps.length != count) {
+					stateHeaps = new int [count];
+				}
+				for(int i = 0; i < count; i++) {
+					stateHeaps[i] = in.get() & 0xFF;
+				}
+				modelListener.stateSet
+					(epoch, version, pid, winner, stateScores, stateHeaps,
+					 0, count);
+				break;
+			case MessageCodec.STATE_RANGE:
+				// part of a large board, in wide fields
+				epoch = in.getInt();
+				version = in.getShort() & 0xFFFF;
+				pid = in.get();
+				winner = in.get();
+				stateScores[0] = in.getShort() & 0xFFFF;
+				stateScores[1] = in.getShort() & 0xFFFF;
+				count = in.getShort() & 0xFFFF;
+				first = in.getShort() & 0xFFFF;
+				n = in.getShort() & 0xFFFF;
+				if(first + n > count) {
+					System.err.println ("Bad message"); // Range off the board
+					break;
+				}
+				if(stateHeaps.length != count) {
+					stateHeaps = new int [count];
+				}
+				for(int i = first; i < first + n; i++) {
+					stateHeaps[i] = in.getShort() & 0xFFFF;
+				}
+				modelListener.stateSet
+					(epoch, version, pid, winner, stateScores, stateHeaps,
+					 first, n);
+				break;
+			case MessageCodec.GAME_QUIT:
+				modelListener.gameQuit();
+				break;
+			default:
+				System.err.println ("Bad message"); // Shouldn't happen
+				break;
+		}
+	}
+
+	/**
+	 * Returns the clock the reliable channel runs on
+	 *
+	 * @return  Milliseconds from an arbitrary origin
+	 */
+	private static long now() {
+		return System.nanoTime() / 1000000L;
 	}
 
 // Hidden helper classes
@@ -165,56 +411,22 @@ public class ModelProxy
 		// main thread function
 		public void run()
 			{
-			byte[] payload = new byte [128]; /* CAREFUL OF BUFFER SIZE! */
+			byte[] payload = new byte [MessageCodec.MAX_DATAGRAM];
+			DatagramPacket packet =
+				new DatagramPacket (payload, payload.length);
+			ByteBuffer in = ByteBuffer.wrap (payload);
 			try {
 				for (;;) {
-					DatagramPacket packet =
-						new DatagramPacket (payload, payload.length);
-					mailbox.receive (packet);
-					DataInputStream in =
-						new DataInputStream
-							(new ByteArrayInputStream
-								(payload, 0, packet.getLength()));
-					int h, m, pid, s;
-					String playerName;
-					byte b = in.readByte();
-					switch (b) {
-						case 'I':
-							pid = in.readByte();
-							modelListener.idSet(pid);
-							break;
-						case 'N':
-							pid = in.readByte();
-							playerName = in.readUTF();
-							modelListener.nameSet(pid, playerName);
-							if(pid == 1) {
-								modelListener.enableNewGame();
-							}
-							break;
-						case 'S':
-							pid = in.readByte();
-							s = in.readByte();
-							modelListener.scoreSet(false, s, pid, "");
-							break;
-						case 'H':
-							h = in.readByte();
-							m = in.readByte();
-							modelListener.heapSet (h, m);
-							break;
-						case 'T':
-							pid = in.readByte();
-							modelListener.turnSet (pid);
-							break;
-						case 'W':
-							pid = in.readByte();
-							modelListener.winnerSet(pid);
-							break;
-						case 'Q':
-							System.exit(0);
-							break;
-						default:
-							System.err.println ("Bad message"); // Shouldn't happen
-							break;
+					packet.setLength (payload.length);
+					try {
+						mailbox.receive (packet);
+						in.clear().limit (packet.getLength());
+						process (in);
+					} catch (SocketTimeoutException exc) {
+						// time to poll the reliable channel
+					}
+					if (reliable != null) {
+						reliable.poll (now());
 					}
 				}
 			} catch (IOException exc) {
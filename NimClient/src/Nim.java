@@ -19,6 +19,9 @@ import java.net.DatagramSocket;
  */
 public class Nim {
 
+	// Milliseconds between a spectator's watch messages
+	private static final long WATCH_INTERVAL = 60000L;
+
 	/**
 	 * Main program.
 	 * 
@@ -37,15 +40,33 @@ public class Nim {
 		String clienthost = "";
 		int clientport= 0;
 		String playerName = "";
+		boolean reliable = false;
+		int watched = -1; // session watched, or -1 to play
 
 		// read in parameters
-		if (args.length != 5) usage();
+		if (args.length < 5 || args.length > 8) usage();
 		try {
 			serverhost = args[0];
 			serverport = Integer.parseInt (args[1]);
 			clienthost = args[2];
 			clientport = Integer.parseInt (args[3]);
 		 	playerName = args[4];
+		 	if (!MessageCodec.fitsName (playerName)) {
+		 		System.err.println ("Player name longer than " +
+		 			MessageCodec.MAX_NAME + " bytes");
+		 		System.exit (1);
+		 	}
+		 	int i = 5;
+		 	if (i < args.length && args[i].equals ("reliable")) {
+		 		reliable = true;
+		 		i++;
+		 	}
+		 	if (i + 2 == args.length && args[i].equals ("watch")) {
+		 		watched = Integer.parseInt (args[i + 1]);
+		 		if (watched < 0) usage();
+		 		i += 2;
+		 	}
+		 	if (i != args.length) usage();
 		} catch(Exception e) {
 			System.err.println(e.getMessage());
 			System.exit(1);
@@ -68,7 +89,8 @@ public class Nim {
 		final ModelProxy proxy =
 			new ModelProxy
 				(mailbox,
-				 serverAddress);
+				 serverAddress,
+				 reliable);
 		
 		ModelClone model = new ModelClone();
 		// set Listeners
@@ -87,14 +109,39 @@ public class Nim {
 			});
 
 		// connect to the server
-		proxy.join (null, playerName);
+		if (watched < 0) {
+			proxy.join (null, playerName);
+			return;
+		}
+
+		// or watch a game, saying so again now and then so as not to be
+		// taken for gone
+		model.setSpectator();
+		final int sessionId = watched;
+		Thread keepAlive = new Thread ("Nim-watch")
+			{
+			public void run()
+				{
+				try {
+					for (;;) {
+						proxy.watch (null, sessionId);
+						Thread.sleep (WATCH_INTERVAL);
+					}
+				} catch (InterruptedException exc) {
+				} catch (IOException exc) {
+					System.err.println (exc.getMessage());
+				}
+				}
+			};
+		keepAlive.setDaemon (true);
+		keepAlive.start();
 	} /* end main */
 
 	/**
 	 * Print a usage message and exit.
 	 */
 	private static void usage() {
-		System.err.println ("Usage: java Nim <serverhost> <serverport> <clienthost> <clientport> <playername>");
+		System.err.println ("Usage: java Nim <serverhost> <serverport> <clienthost> <clientport> <playername> [reliable] [watch <sessionid>]");
 		System.exit (1);
 	}
 } /* end class Nim */
\ No newline at end of file
@@ -23,6 +23,7 @@
 //
 //******************************************************************************
 
+import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
@@ -33,6 +34,7 @@ import javax.swing.BoxLayout;
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
 
@@ -51,9 +53,13 @@ public class NimUI implements ModelListener {
 	private static final int NUMOBJECTS = 5;
 	private static final int GAP = 10;
 	private static final int COL = 10;
+	private static final int MAX_VIEW_WIDTH = 900;
+	private static final int MAX_VIEW_HEIGHT = 600;
 
 	private JFrame frame;
-	private HeapPanel[] heapPanel;
+	private JPanel heapRow;
+	private JScrollPane heapScroll;
+	private HeapPanel[] heapPanel = new HeapPanel [0];
 	private JTextField myNameField;
 	private JTextField theirNameField;
 	private JTextField whoWonField;
@@ -75,23 +81,13 @@ public class NimUI implements ModelListener {
 		frame.add (panel);
 		panel.setBorder (BorderFactory.createEmptyBorder (GAP, GAP, GAP, GAP));
 
-		heapPanel = new HeapPanel [NUMHEAPS];
-		for (int h = 0; h < NUMHEAPS; ++ h)
-			{
-			panel.add (heapPanel[h] = new HeapPanel (h, NUMOBJECTS));
-			panel.add (Box.createHorizontalStrut (GAP));
-			}
-
-		// set Listeners
-		for(int h = 0; h < NUMHEAPS; h++) {
-			heapPanel[h].setListener(new HeapListener() {
-				public void removeObjects(int id, int numRemoved) {
-					try {
-						doTake(id, numRemoved);
-					} catch (IOException e) {}
-				}
-			});
-		}
+		// heaps scroll when the board is too large for the window
+		heapRow = new JPanel();
+		heapRow.setLayout (new BoxLayout (heapRow, BoxLayout.X_AXIS));
+		heapScroll = new JScrollPane (heapRow);
+		heapScroll.setBorder (BorderFactory.createEmptyBorder());
+		panel.add (heapScroll);
+		layoutHeaps (NUMHEAPS, NUMOBJECTS);
 		
 		// set initial heap counts
 		heapPanel[0].setCount(3);
@@ -216,6 +212,16 @@ public class NimUI implements ModelListener {
 		});
 	}
 	
+	/**
+	 * Report a player's win/loss record. The model clone shows it with the
+	 * player's name when the scores are next set.
+	 * 
+	 * @param pid     The player's id
+	 * @param wins    Games the player has won
+	 * @param losses  Games the player has lost
+	 */
+	public void recordSet(int pid, int wins, int losses) {}
+	
 	/**
 	 * Set initial player scores
 	 * 
@@ -251,6 +257,36 @@ public class NimUI implements ModelListener {
 		
 	}
 	
+	/**
+	 * Lay out a board with the given number of heaps
+	 *
+	 * @param  heapCount  The number of heaps
+	 * @param  maxCount   The most markers any heap holds
+	 */
+	public synchronized  void boardSet (int heapCount, int maxCount) {
+		onSwingThreadDo (new Runnable() {
+			public void run() {
+				layoutHeaps(heapCount, maxCount);
+				frame.pack();
+				}
+		});
+	}
+	
+	/**
+	 * Set the number of markers in a heap
+	 *
+	 * @param  h      Id of the heap
+	 * @param  count  The number of markers left in it
+	 */
+	public synchronized  void heapCountSet (int h, int count) {
+		onSwingThreadDo (new Runnable() {
+			public void run() {
+				heapPanel[h].setCount(count);
+				heapPanel[h].repaint();
+				}
+		});
+	}
+	
 	/**
 	 * Enables or disables the heaps based on who's turn it is
 	 * 
@@ -258,6 +294,13 @@ public class NimUI implements ModelListener {
 	 */
 	public synchronized  void turnSet(int pid) {}
 	
+	/**
+	 * Reports the whole game state
+	 */
+	public synchronized  void stateSet
+		(int epoch, int version, int turn, int winner, int[] scores, int[] heaps,
+		 int first, int count) {}
+	
 	/**
 	 * enables all heaps
 	 */
@@ -333,8 +376,8 @@ public class NimUI implements ModelListener {
 		// reset heaps
 		onSwingThreadDo (new Runnable() {
 			public void run() {
-				for(int i = 0; i < 3; i++) {
-					heapPanel[i].setCount(i + 3);
+				for(int i = 0; i < heapPanel.length; i++) {
+					heapPanel[i].setCount(Math.min(i + 3, heapPanel[i].getMaxCount()));
 				}
 				for(HeapPanel heap : heapPanel) heap.repaint();
 			}
@@ -352,6 +395,43 @@ public class NimUI implements ModelListener {
 	
 // Hidden operations
 	
+	/**
+	 * Replace the heap panels with a new set, all holding up to the same
+	 * number of markers. Must run on the Swing thread.
+	 * 
+	 * @param heapCount  The number of heaps
+	 * @param maxCount   The most markers any heap holds
+	 */
+	private void layoutHeaps(int heapCount, int maxCount) {
+		heapRow.removeAll();
+		heapPanel = new HeapPanel [heapCount];
+		for (int h = 0; h < heapCount; ++ h)
+			{
+			heapRow.add (heapPanel[h] = new HeapPanel (h, maxCount));
+			heapRow.add (Box.createHorizontalStrut (GAP));
+			heapPanel[h].setListener(new HeapListener() {
+				public void removeObjects(int id, int numRemoved) {
+					try {
+						doTake(id, numRemoved);
+					} catch (IOException e) {}
+				}
+			});
+			}
+		
+		// show the whole board if it fits, else a window onto it
+		Dimension size = heapRow.getPreferredSize();
+		Dimension view = new Dimension
+			(Math.min (size.width, MAX_VIEW_WIDTH),
+			 Math.min (size.height, MAX_VIEW_HEIGHT));
+		if (view.width < size.width)
+			view.height += heapScroll.getHorizontalScrollBar().getPreferredSize().height;
+		if (view.height < size.height)
+			view.width += heapScroll.getVerticalScrollBar().getPreferredSize().width;
+		heapScroll.setPreferredSize (view);
+		heapRow.revalidate();
+		heapRow.repaint();
+	}
+	
 	/**
 	 * Handle heap panels
 	 * 
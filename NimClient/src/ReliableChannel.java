@@ -0,0 +1,524 @@
+//******************************************************************************
+//
+// File:    ReliableChannel.java
+// Package: ---
+// Unit:    Class ReliableChannel.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Class ReliableChannel adds optional reliable, in-order delivery to the Nim
+ * protocol between one client and the server. Each message goes out in an
+ * 'R' frame carrying the message's sequence number and, piggybacked, the
+ * sender's cumulative ack and a 32-bit selective ack bitmap for the messages
+ * past it. An 'A' frame carries just the acks, when there is nothing to send
+ * them with.
+ * <P>
+ * Unacked frames are retransmitted after a timeout computed from measured
+ * round-trip times (RFC 6298, with Karn's rule), or at once when a selective
+ * ack shows a hole, so a single loss is usually repaired within one round
+ * trip. Out-of-order frames are held until the gap fills. Each channel serves
+ * one peer, so a loss only delays that peer.
+ * <P>
+ * A frame is retransmitted until it is acked, backing off to MAX_RTO, for
+ * as long as the channel is open; giving up on one frame would leave the
+ * peer's cumulative ack stuck behind it for good. A peer that is gone is
+ * dealt with by whoever owns the channel, which closes it. Messages sent
+ * while the window is full wait in a backlog and are sequenced in order as
+ * the window opens. If the backlog grows past MAX_BACKLOG it is dropped
+ * before any of it is sequenced, so the sequence has no gaps, and the owner
+ * is told to resynchronize the peer with a full state instead.
+ * <P>
+ * A peer that restarts from the same address starts again at sequence
+ * number 1. A frame with that number is taken as a restart if it carries
+ * no ack although the peer has acked data before, or if its message differs
+ * from the peer's first; the channel then starts over on both sides and the
+ * owner is told to resynchronize the peer.
+ * <P>
+ * The same file is kept in the client and the server.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class ReliableChannel
+	{
+
+// Exported constants
+
+	public static final byte DATA = 'R';
+	public static final byte ACK = 'A';
+
+	/** Bytes an 'R' frame adds in front of the message */
+	public static final int HEADER_SIZE = 13;
+
+	/** Returned by poll() when no timer is needed */
+	public static final long NONE = Long.MAX_VALUE;
+
+// Exported helper interfaces
+
+	/**
+	 * Interface for the transport a reliable channel sends frames on
+	 */
+	public static interface Output
+		{
+		/**
+		 * Send one frame to the peer
+		 *
+		 * @param  frame  Frame contents, from position to limit
+		 *
+		 * @exception  IOException
+		 *     Thrown if an I/O error occurred
+		 */
+		public void transmit
+			(ByteBuffer frame)
+			throws IOException;
+	}
+
+// Hidden constants
+
+	private static final int WINDOW = 64; // power of two, at least 33
+	private static final int MAX_BACKLOG = 256;
+	private static final long INITIAL_RTO = 250;
+	private static final long MIN_RTO = 40;
+	private static final long MAX_RTO = 4000;
+	private static final long ACK_DELAY = 20;
+
+// Hidden data members
+
+	private Output output;
+
+	// sending side, one slot per unacked sequence number
+	private ByteBuffer[] sendFrames = new ByteBuffer [WINDOW];
+	private long[] sendSeq = new long [WINDOW];
+	private long[] sentAt = new long [WINDOW];
+	private long[] retransmitAt = new long [WINDOW];
+	private int[] transmissions = new int [WINDOW];
+	private boolean[] fastRetransmitted = new boolean [WINDOW];
+	private long nextSeq = 1;
+	private long oldestUnacked = 1;
+	private ArrayDeque<ByteBuffer> backlog = new ArrayDeque<ByteBuffer>();
+	private boolean resync; // backlog dropped, or the peer restarted
+	private long peerAcked;  // highest cumulative ack the peer has sent
+
+	// round-trip estimate
+	private long srtt = -1;
+	private long rttvar;
+	private long rto = INITIAL_RTO;
+
+	// receiving side
+	private ByteBuffer[] recvFrames = new ByteBuffer [WINDOW];
+	private long[] recvSeq = new long [WINDOW];
+	private long cumulative = 0;    // every seq up to here has arrived
+	private long delivered = 0;     // every seq up to here was handed out
+	private int firstHash;          // hash of the peer's first message
+	private boolean ackPending;
+	private long ackDeadline;
+
+	private ByteBuffer ackFrame = ByteBuffer.allocate (9);
+	private boolean timerArmed;
+
+// Exported constructors
+
+	/**
+	 * Construct a new reliable channel
+	 *
+	 * @param  output  Transport to send frames on
+	 */
+	public ReliableChannel
+		(Output output)
+		{
+		this.output = output;
+	}
+
+// Exported operations
+
+	/**
+	 * Returns whether an opcode starts a reliable channel frame
+	 *
+	 * @param  opcode  First byte of a datagram
+	 *
+	 * @return  true for 'R' and 'A' frames, else false
+	 */
+	public static boolean isFrame
+		(byte opcode)
+		{
+		return opcode == DATA || opcode == ACK;
+	}
+
+	/**
+	 * Send a message reliably. The message is copied, so the caller may reuse
+	 * its buffer. If the window is full the message waits in the backlog.
+	 *
+	 * @param  message  Message contents, from position to limit
+	 * @param  now      Current time in milliseconds
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized void send
+		(ByteBuffer message,
+		 long now)
+		throws IOException
+		{
+		if (nextSeq - oldestUnacked >= WINDOW || !backlog.isEmpty()) {
+			if (backlog.size() >= MAX_BACKLOG) {
+				backlog.clear();
+				resync = true;
+			}
+			ByteBuffer copy = ByteBuffer.allocate (message.remaining());
+			copy.put (message.duplicate()).flip();
+			backlog.addLast (copy);
+			return;
+		}
+		sequence (message, now);
+	}
+
+	/**
+	 * Returns whether the backlog was dropped or the peer restarted since the
+	 * last call, so the peer should be sent a full state
+	 *
+	 * @return  true if the peer needs resynchronizing, else false
+	 */
+	public synchronized boolean takeResync() {
+		boolean needed = resync;
+		resync = false;
+		return needed;
+	}
+
+	/**
+	 * Close the channel: stop retransmitting and forget the backlog, for a
+	 * peer that is gone
+	 */
+	public synchronized void close() {
+		for (int slot = 0; slot < WINDOW; slot++) {
+			sendSeq[slot] = 0;
+		}
+		oldestUnacked = nextSeq;
+		backlog.clear();
+		ackPending = false;
+	}
+
+	/**
+	 * Take in a frame from the peer. Call nextMessage() afterwards to collect
+	 * the messages it made deliverable.
+	 *
+	 * @param  frame  Frame contents, positioned at the opcode
+	 * @param  now    Current time in milliseconds
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized void receive
+		(ByteBuffer frame,
+		 long now)
+		throws IOException
+		{
+		byte opcode = frame.get();
+		long seq = 0;
+		if (opcode == DATA) {
+			seq = frame.getInt() & 0xFFFFFFFFL;
+		}
+		long ack = frame.getInt() & 0xFFFFFFFFL;
+		int sack = frame.getInt();
+		if (seq == 1 && cumulative > 0 &&
+				((ack == 0 && peerAcked > 0) || frame.hashCode() != firstHash)) {
+			restart(); // the peer started over
+		}
+		processAcks (ack, sack, now);
+		if (opcode != DATA) {
+			return;
+		}
+
+		// Always ack data, even duplicates, in case our last ack was lost
+		if (!ackPending) {
+			ackPending = true;
+			ackDeadline = now + ACK_DELAY;
+		}
+		if (seq <= cumulative || seq > delivered + WINDOW) {
+			return;
+		}
+		int slot = (int) (seq & (WINDOW - 1));
+		if (recvSeq[slot] == seq) {
+			return; // already held
+		}
+		ByteBuffer held = recvFrames[slot];
+		if (held == null || held.capacity() < frame.remaining()) {
+			held = ByteBuffer.allocate
+				(Math.max (MessageCodec.MAX_DATAGRAM, frame.remaining()));
+			recvFrames[slot] = held;
+		}
+		if (seq == 1) {
+			firstHash = frame.hashCode(); // of the message's contents
+		}
+		held.clear();
+		held.put (frame);
+		held.flip();
+		recvSeq[slot] = seq;
+		while (recvSeq[(int) ((cumulative + 1) & (WINDOW - 1))] == cumulative + 1) {
+			++cumulative;
+		}
+	}
+
+	/**
+	 * Take the next message that can be handed out in order. The buffer stays
+	 * valid until the next call to receive().
+	 *
+	 * @return  Next message, or null if the next one has not arrived yet
+	 */
+	public synchronized ByteBuffer nextMessage() {
+		if (delivered == cumulative) {
+			return null;
+		}
+		++delivered;
+		return recvFrames[(int) (delivered & (WINDOW - 1))];
+	}
+
+	/**
+	 * Retransmit frames whose timeout has passed, and send a bare ack if one
+	 * is due and no data went out to carry it
+	 *
+	 * @param  now  Current time in milliseconds
+	 *
+	 * @return  When poll() next needs to run, or NONE if nothing is pending
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized long poll
+		(long now)
+		throws IOException
+		{
+		boolean backedOff = false;
+		for (long seq = oldestUnacked; seq < nextSeq; seq++) {
+			int slot = (int) (seq & (WINDOW - 1));
+			if (sendSeq[slot] == seq && retransmitAt[slot] <= now) {
+				// Back off once per expiry, not once per frame
+				if (!backedOff) {
+					rto = Math.min (rto * 2, MAX_RTO);
+					backedOff = true;
+				}
+				transmit (slot, now);
+			}
+		}
+		advanceOldest (now);
+		if (ackPending && ackDeadline <= now) {
+			sendAck();
+		}
+		long next = nextDeadline();
+		timerArmed = (next != NONE);
+		return next;
+	}
+
+	/**
+	 * Claim the retransmission timer. Returns a deadline exactly once for each
+	 * stretch of pending work, so the caller schedules at most one timer.
+	 *
+	 * @return  When the caller should call poll(), or NONE if a timer is
+	 *     already armed or nothing is pending
+	 */
+	public synchronized long arm() {
+		if (timerArmed) {
+			return NONE;
+		}
+		long next = nextDeadline();
+		timerArmed = (next != NONE);
+		return next;
+	}
+
+// Hidden operations
+
+	/**
+	 * Give a message the next sequence number and send it. The message is
+	 * copied into the slot's frame.
+	 */
+	private void sequence
+		(ByteBuffer message,
+		 long now)
+		throws IOException
+		{
+		long seq = nextSeq++;
+		int slot = (int) (seq & (WINDOW - 1));
+		ByteBuffer frame = sendFrames[slot];
+		if (frame == null || frame.capacity() < HEADER_SIZE + message.remaining()) {
+			frame = ByteBuffer.allocate
+				(Math.max (MessageCodec.MAX_DATAGRAM, HEADER_SIZE + message.remaining()));
+			sendFrames[slot] = frame;
+		}
+		frame.clear();
+		frame.put (DATA).putInt ((int) seq);
+		frame.putInt (0).putInt (0); // acks, filled in on each transmission
+		int position = message.position();
+		frame.put (message);
+		message.position (position);
+		frame.flip();
+
+		sendSeq[slot] = seq;
+		transmissions[slot] = 0;
+		fastRetransmitted[slot] = false;
+		transmit (slot, now);
+	}
+
+	/**
+	 * Stamp the current acks into a frame and send it
+	 */
+	private void transmit
+		(int slot,
+		 long now)
+		throws IOException
+		{
+		ByteBuffer frame = sendFrames[slot];
+		frame.putInt (5, (int) cumulative);
+		frame.putInt (9, sackBits());
+		sentAt[slot] = now;
+		retransmitAt[slot] = now + rto;
+		++transmissions[slot];
+		ackPending = false;
+		output.transmit (frame);
+		frame.rewind();
+	}
+
+	/**
+	 * Send a bare ack frame
+	 */
+	private void sendAck()
+		throws IOException
+		{
+		ackFrame.clear();
+		ackFrame.put (ACK).putInt ((int) cumulative).putInt (sackBits());
+		ackFrame.flip();
+		ackPending = false;
+		output.transmit (ackFrame);
+	}
+
+	/**
+	 * Bitmap of held frames past the cumulative ack; bit i is seq
+	 * cumulative + 2 + i
+	 */
+	private int sackBits() {
+		int bits = 0;
+		for (int i = 0; i < 32; i++) {
+			long seq = cumulative + 2 + i;
+			if (recvSeq[(int) (seq & (WINDOW - 1))] == seq) {
+				bits |= 1 << i;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Retire frames the peer has acked, sample the round-trip time, and
+	 * retransmit at once any frame a selective ack shows was skipped
+	 */
+	private void processAcks
+		(long ack,
+		 int sack,
+		 long now)
+		throws IOException
+		{
+		peerAcked = Math.max (peerAcked, ack);
+		long highest = ack;
+		for (long seq = oldestUnacked; seq <= ack && seq < nextSeq; seq++) {
+			acked (seq, now);
+		}
+		for (int i = 0; i < 32; i++) {
+			if ((sack & (1 << i)) != 0) {
+				long seq = ack + 2 + i;
+				if (seq < nextSeq) {
+					acked (seq, now);
+					highest = seq;
+				}
+			}
+		}
+		for (long seq = oldestUnacked; seq < highest; seq++) {
+			int slot = (int) (seq & (WINDOW - 1));
+			if (sendSeq[slot] == seq && !fastRetransmitted[slot]) {
+				fastRetransmitted[slot] = true;
+				transmit (slot, now);
+			}
+		}
+		advanceOldest (now);
+	}
+
+	/**
+	 * Retire one frame, taking an RTT sample if it was sent only once
+	 */
+	private void acked
+		(long seq,
+		 long now)
+		{
+		int slot = (int) (seq & (WINDOW - 1));
+		if (sendSeq[slot] != seq) {
+			return;
+		}
+		if (transmissions[slot] == 1) {
+			long sample = now - sentAt[slot];
+			if (srtt < 0) {
+				srtt = sample;
+				rttvar = sample / 2;
+			} else {
+				rttvar = (3 * rttvar + Math.abs (srtt - sample)) / 4;
+				srtt = (7 * srtt + sample) / 8;
+			}
+			rto = Math.max (MIN_RTO, Math.min (MAX_RTO, srtt + 4 * rttvar));
+		}
+		sendSeq[slot] = 0;
+	}
+
+	/**
+	 * Move the send window past retired frames, and send as much of the
+	 * backlog as now fits in it
+	 */
+	private void advanceOldest
+		(long now)
+		throws IOException
+		{
+		while (oldestUnacked < nextSeq &&
+				sendSeq[(int) (oldestUnacked & (WINDOW - 1))] != oldestUnacked) {
+			++oldestUnacked;
+		}
+		while (!backlog.isEmpty() && nextSeq - oldestUnacked < WINDOW) {
+			sequence (backlog.pollFirst(), now);
+		}
+	}
+
+	/**
+	 * Forget both directions' sequence numbers, the backlog and the round-trip
+	 * estimate for a peer that restarted, and flag it for resynchronizing. A
+	 * timer already armed stays armed.
+	 */
+	private void restart() {
+		for (int slot = 0; slot < WINDOW; slot++) {
+			sendSeq[slot] = 0;
+			recvSeq[slot] = 0;
+		}
+		nextSeq = 1;
+		oldestUnacked = 1;
+		backlog.clear();
+		peerAcked = 0;
+		srtt = -1;
+		rttvar = 0;
+		rto = INITIAL_RTO;
+		cumulative = 0;
+		delivered = 0;
+		ackPending = false;
+		resync = true;
+	}
+
+	/**
+	 * Earliest retransmission or ack deadline
+	 */
+	private long nextDeadline() {
+		long next = ackPending ? ackDeadline : NONE;
+		for (long seq = oldestUnacked; seq < nextSeq; seq++) {
+			int slot = (int) (seq & (WINDOW - 1));
+			if (sendSeq[slot] == seq) {
+				next = Math.min (next, retransmitAt[slot]);
+			}
+		}
+		return next;
+	}
+}
@@ -0,0 +1,364 @@
+//******************************************************************************
+//
+// File:    SimulatedPlayer.java
+// Package: ---
+// Unit:    Class SimulatedPlayer.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Random;
+
+/**
+ * Class SimulatedPlayer is one player of the load generator. It talks to the
+ * server through a ModelProxy on its own datagram channel, since the server
+ * tells clients apart by address, and plays whenever a game state says it is
+ * its turn. Player 0 of a session starts the next game when one ends.
+ * Moves are chosen from the server's ruleset, so none is refused as illegal.
+ * <P>
+ * The time from sending a move to receiving the first state that includes it
+ * is recorded as the move's latency; starting a new game is not counted. A
+ * move with no answer within MOVE_TIMEOUT, because a datagram was lost or
+ * the server refused it, is counted as timed out and made again.
+ * <P>
+ * All of a player's methods run on the thread of the selector its channel is
+ * registered with.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class SimulatedPlayer
+	implements ModelListener
+	{
+
+// Exported constants
+
+	/** Nanoseconds to wait for a move to show up in a state */
+	public static final long MOVE_TIMEOUT = 1000000000L;
+
+// Hidden data members
+
+	private String name;
+	private DatagramChannel channel;
+	private ModelProxy proxy;
+	private LoadGenerator.Stats stats;
+	private Random random;
+	private int[] moves;        // subtraction set, or null for any number
+	private int minMove;
+	private boolean scripted;
+	private long think;
+
+	private long joinAt;            // when to join, or -1 once joined
+	private long actAt = -1;        // when to move or start a game, or -1
+	private long movedAt = -1;      // when the last move was sent, or -1
+	private boolean movedNewGame;   // the last move was a new game request
+	private int movedEpoch;
+	private int movedVersion;
+
+	// last game state seen
+	private int myId = -1;
+	private int epoch = 0;
+	private int version = -1;
+	private int turn;
+	private int winner = MessageCodec.NO_WINNER;
+	private int[] heaps = new int [0];
+
+// Exported constructors
+
+	/**
+	 * Construct a new simulated player on a fresh channel connected to the
+	 * server, registered for reading with the given selector
+	 *
+	 * @param  name      Player name
+	 * @param  server    Server's address
+	 * @param  selector  Selector of the thread that runs this player
+	 * @param  stats     Counters and latencies of that thread
+	 * @param  random    Source of random moves
+	 * @param  moves     Numbers of markers a move may take, sorted, or null
+	 *     for any number, as the server's ruleset allows
+	 * @param  scripted  True to always take the fewest markers allowed from
+	 *     the first heap with enough, false to make random moves
+	 * @param  think     Nanoseconds to wait before each move
+	 * @param  joinAt    When to join, on the System.nanoTime() clock
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public SimulatedPlayer
+		(String name,
+		 InetSocketAddress server,
+		 Selector selector,
+		 LoadGenerator.Stats stats,
+		 Random random,
+		 int[] moves,
+		 boolean scripted,
+		 long think,
+		 long joinAt)
+		throws IOException
+		{
+		this.name = name;
+		this.stats = stats;
+		this.random = random;
+		this.moves = moves;
+		this.minMove = (moves == null) ? 1 : moves[0];
+		this.scripted = scripted;
+		this.think = think;
+		this.joinAt = joinAt;
+		channel = DatagramChannel.open();
+		channel.bind (new InetSocketAddress (InetAddress.getLoopbackAddress(), 0));
+		channel.connect (server);
+		channel.configureBlocking (false);
+		channel.register (selector, SelectionKey.OP_READ, this);
+		proxy = new ModelProxy (channel);
+		proxy.setModelListener (this);
+	}
+
+// Exported operations
+
+	/**
+	 * Returns this player's channel
+	 *
+	 * @return  channel  Channel connected to the server
+	 */
+	public DatagramChannel getChannel() { return channel; }
+
+	/**
+	 * Returns this player's model proxy
+	 *
+	 * @return  proxy  Proxy to hand datagrams from the server to
+	 */
+	public ModelProxy getProxy() { return proxy; }
+
+	/**
+	 * Do whatever is due: join, move, start a new game, or give up waiting
+	 * for a move
+	 *
+	 * @param  now  Current time, on the System.nanoTime() clock
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void tick
+		(long now)
+		throws IOException
+		{
+		if (joinAt >= 0) {
+			if (now - joinAt >= 0) {
+				joinAt = -1;
+				proxy.join (null, name);
+				stats.joins++;
+			}
+			return;
+		}
+		if (movedAt >= 0 && now - movedAt >= MOVE_TIMEOUT) {
+			movedAt = -1;
+			stats.timeouts++;
+			decide (now);
+		}
+		if (actAt >= 0 && now - actAt >= 0) {
+			actAt = -1;
+			act (now);
+		}
+	}
+
+	/**
+	 * Leave the server
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void quit()
+		throws IOException
+		{
+		if (joinAt < 0) {
+			proxy.quit();
+		}
+		channel.close();
+	}
+
+	/**
+	 * Record this player's id
+	 *
+	 * @param  pid  the player's id
+	 */
+	public void idSet
+		(int pid)
+		{
+		myId = pid;
+	}
+
+	/**
+	 * Apply a game state, note the latency of a move it answers, and decide
+	 * what to do next
+	 *
+	 * @param  epoch    Number of the game
+	 * @param  version  Number of moves made in this game
+	 * @param  turn     Id of the player whose turn it is
+	 * @param  winner   Id of the winner, or MessageCodec.NO_WINNER
+	 * @param  scores   Both players' scores
+	 * @param  heaps    Number of markers left in each heap
+	 * @param  first    Id of the first heap reported
+	 * @param  count    Number of heaps reported
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void stateSet
+		(int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 int first,
+		 int count)
+		throws IOException
+		{
+		if (epoch < this.epoch ||
+				(epoch == this.epoch && version < this.version)) {
+			return; // stale
+		}
+		long now = System.nanoTime();
+		if (movedAt >= 0 &&
+				(epoch != movedEpoch || version > movedVersion)) {
+			if (!movedNewGame) {
+				stats.latencies.record ((now - movedAt) / 1000L);
+				stats.moves++;
+			}
+			movedAt = -1;
+		}
+		if (epoch != this.epoch && myId == 0) {
+			stats.games++;
+		}
+		if (this.heaps.length != heaps.length) {
+			this.heaps = new int [heaps.length];
+		}
+		System.arraycopy (heaps, first, this.heaps, first, count);
+		this.epoch = epoch;
+		this.version = version;
+		this.turn = turn;
+		this.winner = winner;
+		decide (now);
+	}
+
+	/**
+	 * The opponent left, so join a new session
+	 */
+	public void gameQuit() {
+		myId = -1;
+		epoch = 0;
+		version = -1;
+		actAt = -1;
+		movedAt = -1;
+		joinAt = System.nanoTime();
+	}
+
+	// The rest of the model listener interface has nothing to show
+	public void nameSet (int pid, String playerName) { }
+	public void recordSet (int pid, int wins, int losses) { }
+	public void scoreSet (boolean isMe, int s, int pid, String playerName) { }
+	public void heapSet (int h, int m) { }
+	public void turnSet (int pid) { }
+	public void winnerSet (int pid) { }
+	public void boardSet (int heapCount, int maxCount) { }
+	public void heapCountSet (int h, int count) { }
+	public void clearWinner() { }
+	public void enableNewGame() { }
+	public void newGameClicked() { }
+	public void enableHeaps() { }
+	public void disableHeaps() { }
+	public void setWinner (String playerName) { }
+
+// Hidden operations
+
+	/**
+	 * Plan the next move or new game, if it is up to this player and nothing
+	 * is planned or awaiting an answer
+	 */
+	private void decide
+		(long now)
+		{
+		if (actAt >= 0 || movedAt >= 0 || myId < 0) {
+			return;
+		}
+		boolean over = (winner != MessageCodec.NO_WINNER);
+		if ((over && myId == 0) || (!over && turn == myId)) {
+			actAt = now + think;
+		}
+	}
+
+	/**
+	 * Make the planned move, or start the next game
+	 */
+	private void act
+		(long now)
+		throws IOException
+		{
+		if (winner != MessageCodec.NO_WINNER) {
+			proxy.newGame();
+			movedNewGame = true;
+			movedAt = now;
+			movedEpoch = epoch;
+			movedVersion = version;
+			return;
+		}
+		if (turn != myId) {
+			return;
+		}
+		int h = pickHeap();
+		if (h < 0) {
+			return; // board not seen yet
+		}
+		proxy.removeMarker (h, pickMove (heaps[h]));
+		movedNewGame = false;
+		movedAt = now;
+		movedEpoch = epoch;
+		movedVersion = version;
+	}
+
+	/**
+	 * Choose a heap with a move left, the first one if scripted
+	 *
+	 * @return  Heap id, or -1 if no heap seen has a move left
+	 */
+	private int pickHeap() {
+		int n = heaps.length;
+		int start = scripted || n == 0 ? 0 : random.nextInt (n);
+		for (int i = 0; i < n; i++) {
+			int h = (start + i) % n;
+			if (heaps[h] >= minMove) {
+				return h;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Choose how many markers to take from a heap, the fewest allowed if
+	 * scripted
+	 *
+	 * @param  heap  Number of markers in the heap, at least minMove
+	 *
+	 * @return  Number of markers to take
+	 */
+	private int pickMove
+		(int heap)
+		{
+		if (scripted) {
+			return minMove;
+		}
+		if (moves == null) {
+			return 1 + random.nextInt (heap);
+		}
+		int n = 0;
+		while (n < moves.length && moves[n] <= heap) {
+			++n;
+		}
+		return moves[random.nextInt (n)];
+	}
+}
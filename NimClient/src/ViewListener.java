@@ -30,6 +30,20 @@ public interface ViewListener
 		 String playerName)
 		throws IOException;
 
+	/**
+	 * Watch the given session as a spectator
+	 *
+	 * @param  viewProxy  The spectator's view proxy
+	 * @param  sessionId  Id of the session to watch
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void watch
+		(ViewProxy viewProxy,
+		 int sessionId)
+		throws IOException;
+
 	/**
 	 * Remove markers from a heap
 	 *
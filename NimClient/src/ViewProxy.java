@@ -101,6 +101,29 @@ public class ViewProxy
 			(new DatagramPacket (payload, payload.length, clientAddress));
 	}
 	
+	/**
+	 * Report a player's win/loss record
+	 *
+	 * @param  playerId  Id of the player
+	 * @param  wins      Games the player has won
+	 * @param  losses    Games the player has lost
+	 * 
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void recordSet(int playerId, int wins, int losses) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream (baos);
+		out.writeByte ('P');
+		out.writeByte (playerId);
+		out.writeInt (wins);
+		out.writeInt (losses);
+		out.close();
+		byte[] payload = baos.toByteArray();
+		mailbox.send
+			(new DatagramPacket (payload, payload.length, clientAddress));
+	}
+	
 	/**
 	 * Report that a player scored
 	 *
@@ -194,6 +217,53 @@ public class ViewProxy
 			(new DatagramPacket (payload, payload.length, clientAddress));
 	}
 	
+	/**
+	 * Report the whole game state
+	 *
+	 * @param  epoch    Number of the game
+	 * @param  version  Number of moves made in this game
+	 * @param  turn     Id of the player whose turn it is
+	 * @param  winner   Id of the winner, or MessageCodec.NO_WINNER
+	 * @param  scores   Both players' scores
+	 * @param  heaps    Number of markers left in each heap
+	 * @param  first    Id of the first heap to report
+	 * @param  count    Number of heaps to report
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred.
+	 */
+	public void stateSet
+		(int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 int first,
+		 int count)
+		throws IOException 
+		{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream (baos);
+		out.writeByte ('g');
+		out.writeInt(epoch);
+		out.writeShort(version);
+		out.writeByte(turn);
+		out.writeByte(winner);
+		out.writeShort(scores[0]);
+		out.writeShort(scores[1]);
+		out.writeShort(heaps.length);
+		out.writeShort(first);
+		out.writeShort(count);
+		for(int i = first; i < first + count; i++) {
+			out.writeShort(heaps[i]);
+		}
+		out.close();
+		byte[] payload = baos.toByteArray();
+		mailbox.send
+			(new DatagramPacket (payload, payload.length, clientAddress));
+	}
+	
 	/**
 	 * Tell clients to quit the session
 	 *
@@ -259,6 +329,20 @@ public class ViewProxy
 		return discard;
 		}
 
+	/**
+	 * Set the number of markers in a heap
+	 * @param h      Id of the heap
+	 * @param count  The number of markers left in it
+	 */
+	public void heapCountSet(int h, int count) { }
+
+	/**
+	 * Lay out a board
+	 * @param heapCount  The number of heaps
+	 * @param maxCount   The most markers any heap holds
+	 */
+	public void boardSet(int heapCount, int maxCount) { }
+
 	/**
 	 * Removes the winner text from the UI
 	 */
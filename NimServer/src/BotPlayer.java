@@ -0,0 +1,192 @@
+//******************************************************************************
+//
+// File:    BotPlayer.java
+// Package: ---
+// Unit:    Class BotPlayer.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+
+/**
+ * Class BotPlayer is a computer opponent that plays inside the server. It
+ * listens to a NimModel like a view proxy does, but instead of sending the
+ * model's reports over the network it answers them: whenever the state shows
+ * it is the bot's turn, it picks the optimal move.
+ * <P>
+ * The optimal move comes from the model's ruleset. In plain Nim it leaves a
+ * nim-sum of zero: take markers from a heap whose count has the highest set
+ * bit of the nim-sum set, leaving that count exclusive or the nim-sum. From a
+ * zero nim-sum no such move exists, and the bot takes as little as it may to
+ * drag the game out. Picking a move is one pass over the heaps and allocates
+ * nothing.
+ * <P>
+ * The move is made a moment later from the timing wheel of the shard hosting
+ * the session, not from inside the report, so the model is never re-entered
+ * and the human sees the bot "think". The move only goes through if the game
+ * has not changed since.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class BotPlayer
+	extends TimingWheel.Timeout
+	implements ModelListener
+	{
+
+// Exported constants
+
+	/** The name the bot plays under */
+	public static final String NAME = "Computer";
+
+	/** Milliseconds between the bot's turn starting and its move */
+	public static final long MOVE_DELAY = 500L;
+
+// Hidden data members
+
+	private Mailbox host;
+	private NimModel model;
+	private int playerId;
+
+	// the move decided on, and the state it was decided for
+	private boolean hasMove;
+	private int moveEpoch;
+	private int moveVersion;
+	private int moveHeap;
+	private int moveCount;
+
+	private boolean moveScheduled;
+	private boolean quit;
+
+// Exported constructors
+
+	/**
+	 * Construct a new bot player
+	 *
+	 * @param  host      Mailbox of the shard hosting the session
+	 * @param  model     Model of the game the bot plays in
+	 * @param  playerId  The bot's player id
+	 */
+	public BotPlayer
+		(Mailbox host,
+		 NimModel model,
+		 int playerId)
+		{
+		this.host = host;
+		this.model = model;
+		this.playerId = playerId;
+	}
+
+// Exported operations
+
+	/**
+	 * Decide on a move if the state shows it is the bot's turn, and schedule
+	 * it. Called by the model with the model locked.
+	 *
+	 * @param  epoch    Number of the game
+	 * @param  version  Number of moves made in this game
+	 * @param  turn     Id of the player whose turn it is
+	 * @param  winner   Id of the winner, or MessageCodec.NO_WINNER
+	 * @param  scores   Both players' scores
+	 * @param  heaps    Number of markers left in each heap
+	 * @param  first    Id of the first heap reported
+	 * @param  count    Number of heaps reported
+	 */
+	public synchronized void stateSet
+		(int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 int first,
+		 int count)
+		{
+		hasMove = false;
+		if (quit || turn != playerId || winner != MessageCodec.NO_WINNER) {
+			return;
+		}
+
+		// heaps is the whole board, whatever range was reported
+		long move = model.getRules().bestMove
+			(heaps, model.getGrundySum(), model.getBigHeaps());
+		if (move == Ruleset.NO_MOVE) {
+			return; // no legal move left
+		}
+		moveEpoch = epoch;
+		moveVersion = version;
+		moveHeap = (int) (move >>> 32);
+		moveCount = (int) move;
+		hasMove = true;
+		if (!moveScheduled) {
+			moveScheduled = true;
+			host.schedule (this, TimingWheel.now() + MOVE_DELAY);
+		}
+	}
+
+	/**
+	 * Make the move decided on, if the game is still where it was
+	 *
+	 * @param  now  Current time in milliseconds
+	 */
+	public void expire
+		(long now)
+		{
+		int epoch, version, h, m;
+		synchronized (this) {
+			moveScheduled = false;
+			if (!hasMove || quit) {
+				return;
+			}
+			hasMove = false;
+			epoch = moveEpoch;
+			version = moveVersion;
+			h = moveHeap;
+			m = moveCount;
+		}
+		try {
+			model.removeMarkerAt (epoch, version, h, m);
+		} catch (IOException exc) {
+			System.err.println ("Bot move failed: " + exc.getMessage());
+		}
+	}
+
+	/**
+	 * Stop playing; the session is over
+	 */
+	public synchronized void gameQuit() {
+		quit = true;
+	}
+
+	// The bot has no view, so every other report is ignored.
+
+	public void beginUpdate() { }
+
+	public void endUpdate() { }
+
+	public void idSet(int pid) { }
+
+	public void nameSet(int pid, String playerName) { }
+
+	public void recordSet(int pid, int wins, int losses) { }
+
+	public void scoreSet(boolean isMe, int s, int pid, String playerName) { }
+
+	public void heapSet(int h, int m) { }
+
+	public void turnSet(int pid) { }
+
+	public void winnerSet(int pid) { }
+
+	public void clearWinner() { }
+
+	public void enableNewGame() { }
+
+	public void newGameClicked() { }
+
+	public void enableHeaps() { }
+
+	public void disableHeaps() { }
+
+	public void setWinner(String playerName) { }
+}
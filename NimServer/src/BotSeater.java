@@ -0,0 +1,62 @@
+//******************************************************************************
+//
+// File:    BotSeater.java
+// Package: ---
+// Unit:    Class BotSeater.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+
+/**
+ * Class BotSeater is the wait for an opponent in one session. It sits on the
+ * timing wheel of the shard hosting the session. If the session is still
+ * waiting when it expires, the session manager seats a bot in it; a session
+ * that was filled or removed meanwhile is dropped.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class BotSeater
+	extends TimingWheel.Timeout
+	{
+
+// Hidden data members
+
+	private SessionManager sessionManager;
+	private Session session;
+
+// Exported constructors
+
+	/**
+	 * Construct a new bot seater
+	 *
+	 * @param  sessionManager  Session manager that owns the session
+	 * @param  session         Session waiting for an opponent
+	 */
+	public BotSeater
+		(SessionManager sessionManager,
+		 Session session)
+		{
+		this.sessionManager = sessionManager;
+		this.session = session;
+	}
+
+// Exported operations
+
+	/**
+	 * Seat a bot if the session is still waiting
+	 *
+	 * @param  now  Current time in milliseconds
+	 */
+	public void expire
+		(long now)
+		{
+		try {
+			sessionManager.seatBot (session);
+		} catch (IOException exc) {
+			System.err.println ("Seating bot in session " + session.getId() +
+				" failed: " + exc.getMessage());
+		}
+	}
+}
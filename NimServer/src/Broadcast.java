@@ -0,0 +1,221 @@
+//******************************************************************************
+//
+// File:    Broadcast.java
+// Package: ---
+// Unit:    Class Broadcast.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Class Broadcast sends one session's updates to every client in it: the
+ * players' view proxies and any spectators'. The model reports to it as to
+ * any other listener, and it encodes each message once and hands the same
+ * bytes to every client, so the cost of encoding an update does not grow
+ * with the number of clients. A client in the middle of a batch gets the
+ * bytes appended to its batch; any other sends them straight away, through
+ * its reliable channel if it has one. Neither changes the buffer.
+ * <P>
+ * Players and spectators are sent the same state and quit messages. A
+ * player's failed send is passed on to the model, as it always was; a
+ * spectator whose send fails is dropped.
+ * <P>
+ * The model calls its listeners from one thread at a time, under its lock
+ * or while it holds the right to publish, so the encoding buffer needs no
+ * further locking. Spectators come and go from their own shards'
+ * threads, so the lists are copied on write, and an update already going
+ * out finishes with the clients it started with.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class Broadcast
+	implements ModelListener
+	{
+
+// Hidden constants
+
+	// Longest message, so it fits a datagram with a reliable channel's
+	// header and a composite frame's two-byte header in front
+	private static final int MAX_MESSAGE =
+		MessageCodec.MAX_DATAGRAM - ReliableChannel.HEADER_SIZE - 2;
+
+// Hidden data members
+
+	private CopyOnWriteArrayList<ViewProxy> players =
+		new CopyOnWriteArrayList<ViewProxy>();
+	private CopyOnWriteArrayList<ViewProxy> spectators =
+		new CopyOnWriteArrayList<ViewProxy>();
+	private ByteBuffer message = ByteBuffer.allocate (MAX_MESSAGE);
+
+// Exported operations
+
+	/**
+	 * Add a player's client
+	 *
+	 * @param  proxy  The player's view proxy
+	 */
+	public void addPlayer
+		(ViewProxy proxy)
+		{
+		players.addIfAbsent (proxy);
+	}
+
+	/**
+	 * Add a spectator
+	 *
+	 * @param  proxy  The spectator's view proxy
+	 */
+	public void addSpectator
+		(ViewProxy proxy)
+		{
+		spectators.addIfAbsent (proxy);
+	}
+
+	/**
+	 * Remove a spectator
+	 *
+	 * @param  proxy  The spectator's view proxy
+	 */
+	public void removeSpectator
+		(ViewProxy proxy)
+		{
+		spectators.remove (proxy);
+	}
+
+	/**
+	 * Returns the number of clients, players and spectators
+	 *
+	 * @return  the number of clients
+	 */
+	public int size() { return players.size() + spectators.size(); }
+
+	/**
+	 * Report the game state to every client. A small board goes out whole
+	 * in one state message; otherwise the range is split over as many state
+	 * range messages as it needs, each encoded once.
+	 *
+	 * @param  epoch    Number of the game
+	 * @param  version  Number of moves made in this game
+	 * @param  turn     Id of the player whose turn it is
+	 * @param  winner   Id of the winner, or MessageCodec.NO_WINNER
+	 * @param  scores   Both players' scores
+	 * @param  heaps    Number of markers left in each heap
+	 * @param  first    Id of the first heap to report
+	 * @param  count    Number of heaps to report
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred.
+	 */
+	public void stateSet
+		(int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 int first,
+		 int count)
+		throws IOException
+		{
+		if (first == 0 && count == heaps.length &&
+				MessageCodec.fitsState (scores, heaps)) {
+			message.clear();
+			MessageCodec.putState
+				(message, epoch, version, turn, winner, scores, heaps);
+			send();
+			return;
+		}
+		int end = first + count;
+		while (first < end) {
+			message.clear();
+			int n = Math.min (end - first,
+				(message.remaining() - MessageCodec.STATE_RANGE_HEADER) / 2);
+			MessageCodec.putStateRange
+				(message, epoch, version, turn, winner, scores, heaps, first, n);
+			send();
+			first += n;
+		}
+	}
+
+	/**
+	 * Tell every client the session is over. Every client is told, even if
+	 * telling one fails.
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred.
+	 */
+	public void gameQuit()
+		throws IOException
+		{
+		message.clear();
+		MessageCodec.putOpcode (message, MessageCodec.GAME_QUIT);
+		send();
+	}
+
+	/**
+	 * Send the encoded message to every client. Every player is sent it
+	 * before the first failure, if any, is thrown.
+	 */
+	private void send()
+		throws IOException
+		{
+		message.flip();
+		IOException failure = null;
+		for (ViewProxy proxy : players) {
+			try {
+				proxy.forward (message);
+			} catch (IOException exc) {
+				if (failure == null) {
+					failure = exc;
+				}
+			}
+		}
+		for (ViewProxy proxy : spectators) {
+			try {
+				proxy.forward (message);
+			} catch (IOException exc) {
+				spectators.remove (proxy);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	// Clients are sent only the state and the quit through here; the
+	// session manager and model tell each player its id, names and records.
+
+	public void beginUpdate() { }
+
+	public void endUpdate() { }
+
+	public void idSet(int pid) { }
+
+	public void nameSet(int pid, String playerName) { }
+
+	public void recordSet(int pid, int wins, int losses) { }
+
+	public void scoreSet(boolean isMe, int s, int pid, String playerName) { }
+
+	public void heapSet(int h, int m) { }
+
+	public void turnSet(int pid) { }
+
+	public void winnerSet(int pid) { }
+
+	public void clearWinner() { }
+
+	public void enableNewGame() { }
+
+	public void newGameClicked() { }
+
+	public void enableHeaps() { }
+
+	public void disableHeaps() { }
+
+	public void setWinner(String playerName) { }
+}
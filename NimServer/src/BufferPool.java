@@ -0,0 +1,72 @@
+//******************************************************************************
+//
+// File:    BufferPool.java
+// Package: ---
+// Unit:    Class BufferPool.java
+//
+//******************************************************************************
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Class BufferPool recycles fixed-size direct byte buffers so the channel
+ * event loop does not allocate a buffer for every datagram it reads or sends
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class BufferPool
+	{
+
+// Hidden data members
+
+	private int bufferSize;
+	private int maxPooled;
+	private ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+
+// Exported constructors
+
+	/**
+	 * Construct a new buffer pool
+	 *
+	 * @param  bufferSize  Capacity of each buffer in bytes
+	 * @param  maxPooled   Most idle buffers the pool will hold on to
+	 */
+	public BufferPool
+		(int bufferSize,
+		 int maxPooled)
+		{
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+// Exported operations
+
+	/**
+	 * Take a cleared buffer from the pool, allocating one if the pool is empty
+	 *
+	 * @return  A buffer ready to be written into
+	 */
+	public synchronized ByteBuffer acquire() {
+		ByteBuffer buffer = free.pollFirst();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect (bufferSize);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Return a buffer to the pool
+	 *
+	 * @param  buffer  Buffer previously obtained from acquire()
+	 */
+	public synchronized void release
+		(ByteBuffer buffer)
+		{
+		if (free.size() < maxPooled) {
+			buffer.clear();
+			free.addFirst (buffer);
+		}
+	}
+}
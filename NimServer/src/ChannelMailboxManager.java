@@ -0,0 +1,383 @@
+//******************************************************************************
+//
+// File:    ChannelMailboxManager.java
+// Package: ---
+// Unit:    Class ChannelMailboxManager.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Class ChannelMailboxManager is the non-blocking counterpart of
+ * MailboxManager. It runs a selector loop over a datagram channel, reading
+ * datagrams into pooled direct buffers when the channel is readable and
+ * draining queued outbound datagrams when the channel is writable. Sends never
+ * touch the channel directly, so a slow send cannot hold up the next receive.
+ * <P>
+ * Several channel mailbox managers may run as shards, each on its own thread
+ * and its own channel bound to the same port with SO_REUSEPORT. The kernel
+ * always delivers a given client's datagrams to the same shard. A client's
+ * view proxy is processed by the shard that is its mailbox; when matchmaking
+ * moves a player onto its opponent's shard, the receiving shard forwards that
+ * player's datagrams to the owning shard's task queue.
+ * <P>
+ * Each manager also has a timing wheel, advanced once per loop and at least
+ * once per tick, which reaps idle clients and sessions.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class ChannelMailboxManager
+	implements Mailbox
+	{
+
+// Hidden constants
+
+	private static final int MAX_POOLED = 1024;
+	private static final int READ_BATCH = 64;
+	private static final int TICK_MILLIS = 20;
+	private static final int WHEEL_SLOTS = 4096;
+
+// Hidden data members
+
+	private DatagramChannel channel;
+	private Selector selector;
+	private SelectionKey key;
+	private BufferPool pool =
+		new BufferPool (MessageCodec.MAX_DATAGRAM, MAX_POOLED);
+
+	private ConcurrentLinkedQueue<Outbound> outbox =
+		new ConcurrentLinkedQueue<Outbound>();
+
+	private ConcurrentLinkedQueue<Runnable> tasks =
+		new ConcurrentLinkedQueue<Runnable>();
+
+	private ClientTable proxyMap = new ClientTable();
+
+	private SessionManager sessionManager;
+	private volatile Thread loopThread;
+	private TimingWheel timers =
+		new TimingWheel (WHEEL_SLOTS, TICK_MILLIS, TimingWheel.now());
+
+// Hidden helper classes
+
+	/**
+	 * A datagram waiting for the channel to become writable
+	 */
+	private static class Outbound
+		{
+		public ByteBuffer buffer;
+		public SocketAddress address;
+
+		public Outbound
+			(ByteBuffer buffer,
+			 SocketAddress address)
+			{
+			this.buffer = buffer;
+			this.address = address;
+		}
+	}
+
+// Exported constructors
+
+	/**
+	 * Construct a new channel mailbox manager. The channel is switched to
+	 * non-blocking mode and registered with a fresh selector.
+	 *
+	 * @param  channel         Bound datagram channel to serve
+	 * @param  sessionManager  Session manager for new clients
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public ChannelMailboxManager
+		(DatagramChannel channel,
+		 SessionManager sessionManager)
+		throws IOException
+		{
+		this.channel = channel;
+		this.sessionManager = sessionManager;
+		channel.configureBlocking (false);
+		selector = Selector.open();
+		key = channel.register (selector, SelectionKey.OP_READ);
+		ServerMetrics.addClientTable (proxyMap);
+	}
+
+// Exported operations
+
+	/**
+	 * Run the event loop on the calling thread. Never returns normally.
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void run()
+		throws IOException
+		{
+		loopThread = Thread.currentThread();
+		for (;;) {
+			selector.select (TICK_MILLIS);
+			selector.selectedKeys().clear();
+			runTasks();
+			if (key.isReadable()) {
+				readDatagrams();
+			}
+			if (key.isValid() && key.isWritable()) {
+				writeDatagrams();
+			}
+			timers.advance (TimingWheel.now());
+		}
+	}
+
+	/**
+	 * Queue a datagram for sending. The payload is copied into a pooled
+	 * buffer, and the copy goes out the next time the channel is writable.
+	 *
+	 * @param  payload  Datagram contents
+	 * @param  address  Destination address
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void send
+		(ByteBuffer payload,
+		 SocketAddress address)
+		throws IOException
+		{
+		ByteBuffer buffer = pool.acquire();
+		int position = payload.position();
+		buffer.put (payload);
+		payload.position (position);
+		buffer.flip();
+		outbox.add (new Outbound (buffer, address));
+		key.interestOpsOr (SelectionKey.OP_WRITE);
+		if (Thread.currentThread() != loopThread) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Run the given task on this manager's event loop thread
+	 *
+	 * @param  task  Task to run
+	 */
+	public void execute
+		(Runnable task)
+		{
+		tasks.add (task);
+		// before the loop starts, its first select() times out soon enough
+		Thread loop = loopThread;
+		if (loop != null && Thread.currentThread() != loop) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Schedule a timeout on this manager's timing wheel. From another thread
+	 * the timeout is handed to the event loop as a task.
+	 *
+	 * @param  timeout   Timeout to schedule
+	 * @param  deadline  Time to expire it, in milliseconds
+	 */
+	public void schedule
+		(final TimingWheel.Timeout timeout,
+		 final long deadline)
+		{
+		if (Thread.currentThread() == loopThread) {
+			timers.schedule (timeout, deadline);
+		} else {
+			execute (new Runnable() {
+				public void run() {
+					timers.schedule (timeout, deadline);
+				}
+			});
+		}
+	}
+
+// Hidden operations
+
+	/**
+	 * Run the tasks other shards have posted to this one
+	 */
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	/**
+	 * Read and dispatch datagrams until the channel has none left or a batch
+	 * limit is reached, so a flood of reads cannot starve pending writes
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void readDatagrams()
+		throws IOException
+		{
+		for (int i = 0; i < READ_BATCH; i++) {
+			ByteBuffer buffer = pool.acquire();
+			PipelineEvents.Receive event = new PipelineEvents.Receive();
+			event.begin();
+			InetSocketAddress clientAddress =
+				(InetSocketAddress) channel.receive (buffer);
+			if (clientAddress == null) {
+				pool.release (buffer);
+				return;
+			}
+			buffer.flip();
+			event.end();
+			if (event.shouldCommit()) {
+				event.bytes = buffer.remaining();
+				event.commit();
+			}
+			long start = System.nanoTime(); // forwarded: to the hand-off only
+			dispatch (clientAddress, buffer);
+			ServerMetrics.datagramDispatched (System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Hand one datagram to the view proxy for its sender. If the proxy belongs
+	 * to another shard, the datagram is forwarded there and the buffer goes
+	 * with it, to be released back into this shard's pool, which it came
+	 * from; otherwise it is processed here and the buffer released.
+	 *
+	 * @param  clientAddress  Sender's address
+	 * @param  buffer         Datagram contents
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void dispatch
+		(final InetSocketAddress clientAddress,
+		 final ByteBuffer buffer)
+		throws IOException
+		{
+		final PipelineEvents.Dispatch event = new PipelineEvents.Dispatch();
+		event.begin();
+		final byte opcode = buffer.hasRemaining() ? buffer.get (buffer.position()) : 0;
+		final int bytes = buffer.remaining();
+		ViewProxy found = proxyMap.get (clientAddress);
+		if (found == null)
+			{
+			found = sessionManager.claimRestored (clientAddress);
+			if (found == null)
+				{
+				found = new ViewProxy (this, clientAddress);
+				found.setViewListener (sessionManager);
+				}
+			proxyMap.put (clientAddress, found);
+			timers.schedule
+				(new ClientReaper (this, proxyMap, clientAddress, found),
+				 found.getLastActivity() + ViewProxy.IDLE_TIMEOUT);
+			}
+		final ViewProxy proxy = found;
+		Mailbox owner = proxy.getMailbox();
+		if (owner == this)
+			{
+			try {
+				if (proxy.process (buffer)) // Returns true to discard view proxy
+					{
+					proxyMap.remove (clientAddress);
+					}
+			} finally {
+				pool.release (buffer);
+			}
+			dispatched (event, proxy, opcode, bytes, false);
+			return;
+			}
+
+		// The player was moved to its opponent's shard at matchmaking time.
+		final ChannelMailboxManager home = this;
+		final ChannelMailboxManager shard = (ChannelMailboxManager) owner;
+		shard.execute (new Runnable() {
+			public void run() {
+				boolean discard = false;
+				try {
+					discard = proxy.process (buffer);
+				} catch (IOException exc) {
+					System.err.println (exc.getMessage());
+				} finally {
+					home.pool.release (buffer);
+				}
+				dispatched (event, proxy, opcode, bytes, true);
+				if (discard) {
+					home.execute (new Runnable() {
+						public void run() {
+							home.proxyMap.remove (clientAddress);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * Commit a dispatch event, if it took long enough to be recorded. A
+	 * forwarded datagram's event includes its wait in the owning shard's
+	 * task queue.
+	 */
+	private static void dispatched
+		(PipelineEvents.Dispatch event,
+		 ViewProxy proxy,
+		 byte opcode,
+		 int bytes,
+		 boolean forwarded)
+		{
+		event.end();
+		if (event.shouldCommit()) {
+			event.opcode = (char) opcode;
+			event.sessionId = proxy.getSessionId();
+			event.bytes = bytes;
+			event.forwarded = forwarded;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Send queued datagrams until the queue is empty or the channel's send
+	 * buffer is full
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void writeDatagrams()
+		throws IOException
+		{
+		for (;;) {
+			Outbound next = outbox.peek();
+			if (next == null) {
+				key.interestOpsAnd (~SelectionKey.OP_WRITE);
+				// A sender on another thread may have queued a datagram
+				// after the peek but before write interest was cleared.
+				if (outbox.isEmpty()) {
+					return;
+				}
+				key.interestOpsOr (SelectionKey.OP_WRITE);
+				continue;
+			}
+			try {
+				if (channel.send (next.buffer, next.address) == 0) {
+					return; // Socket buffer full, wait for the next OP_WRITE
+				}
+				ServerMetrics.datagramSent();
+			} catch (IOException exc) {
+				ServerMetrics.sendFailed();
+				System.err.println ("Send to " + next.address + " failed: " +
+					exc.getMessage());
+			}
+			outbox.poll();
+			pool.release (next.buffer);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+//******************************************************************************
+//
+// File:    ClientReaper.java
+// Package: ---
+// Unit:    Class ClientReaper.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Class ClientReaper is the idle timeout for one client. It sits on the timing
+ * wheel of the mailbox manager whose client table holds the client. When it
+ * fires it checks the client's last activity. A client idle longer than
+ * ViewProxy.IDLE_TIMEOUT is removed from the table and treated as if it had
+ * quit, which also ends its session. Otherwise the reaper reschedules itself
+ * for when the client could next become idle.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class ClientReaper
+	extends TimingWheel.Timeout
+	{
+
+// Hidden data members
+
+	private Mailbox home;
+	private ClientTable table;
+	private InetSocketAddress address;
+	private ViewProxy proxy;
+
+// Exported constructors
+
+	/**
+	 * Construct a new client reaper
+	 *
+	 * @param  home     Mailbox of the manager owning the table
+	 * @param  table    Client table holding the client
+	 * @param  address  Client's address
+	 * @param  proxy    Client's view proxy
+	 */
+	public ClientReaper
+		(Mailbox home,
+		 ClientTable table,
+		 InetSocketAddress address,
+		 ViewProxy proxy)
+		{
+		this.home = home;
+		this.table = table;
+		this.address = address;
+		this.proxy = proxy;
+	}
+
+// Exported operations
+
+	/**
+	 * Reap the client if it has been idle too long
+	 *
+	 * @param  now  Current time in milliseconds
+	 */
+	public void expire
+		(long now)
+		{
+		// the client already quit, or the address now belongs to a new client
+		if (table.get (address) != proxy) {
+			return;
+		}
+		long deadline = proxy.getLastActivity() + ViewProxy.IDLE_TIMEOUT;
+		if (now < deadline) {
+			home.schedule (this, deadline);
+			return;
+		}
+		table.remove (address);
+		try {
+			proxy.reap();
+		} catch (IOException exc) {
+			System.err.println ("Reaping " + address + " failed: " +
+				exc.getMessage());
+		}
+	}
+}
@@ -0,0 +1,241 @@
+//******************************************************************************
+//
+// File:    ClientTable.java
+// Package: ---
+// Unit:    Class ClientTable.java
+//
+//******************************************************************************
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Class ClientTable maps client addresses to view proxies for a mailbox
+ * manager. An IPv4 address and port are packed into one long and looked up in
+ * an open-addressing table of primitive keys with linear probing, so routing
+ * a datagram from a known IPv4 client allocates nothing. IPv6 clients fall
+ * back to a HashMap keyed by socket address.
+ * <P>
+ * A client table is not thread safe; each mailbox manager owns its own.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class ClientTable
+	{
+
+// Hidden constants
+
+	private static final long FREE = -1L; // no IPv4 key is negative
+	private static final int INITIAL_CAPACITY = 1024;
+
+// Hidden data members
+
+	private long[] keys;
+	private ViewProxy[] values;
+	private int mask;
+	private int size;
+	private int resizeAt;
+
+	private HashMap<InetSocketAddress,ViewProxy> ipv6Map =
+		new HashMap<InetSocketAddress,ViewProxy>();
+
+// Exported constructors
+
+	/**
+	 * Construct a new, empty client table
+	 */
+	public ClientTable() {
+		allocate (INITIAL_CAPACITY);
+	}
+
+// Exported operations
+
+	/**
+	 * Look up the view proxy for a client
+	 *
+	 * @param  address  Client's IP address
+	 * @param  port     Client's port
+	 *
+	 * @return  The client's view proxy, or null if the client is unknown
+	 */
+	public ViewProxy get
+		(InetAddress address,
+		 int port)
+		{
+		if (!(address instanceof Inet4Address)) {
+			return ipv6Map.get (new InetSocketAddress (address, port));
+		}
+		long key = pack (address, port);
+		for (int i = slot (key); ; i = (i + 1) & mask) {
+			long k = keys[i];
+			if (k == key) {
+				return values[i];
+			}
+			if (k == FREE) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Look up the view proxy for a client
+	 *
+	 * @param  address  Client's socket address
+	 *
+	 * @return  The client's view proxy, or null if the client is unknown
+	 */
+	public ViewProxy get
+		(InetSocketAddress address)
+		{
+		return get (address.getAddress(), address.getPort());
+	}
+
+	/**
+	 * Record the view proxy for a client, replacing any earlier one
+	 *
+	 * @param  address  Client's socket address
+	 * @param  proxy    Client's view proxy
+	 */
+	public void put
+		(InetSocketAddress address,
+		 ViewProxy proxy)
+		{
+		if (!(address.getAddress() instanceof Inet4Address)) {
+			ipv6Map.put (address, proxy);
+			return;
+		}
+		long key = pack (address.getAddress(), address.getPort());
+		int i = slot (key);
+		while (keys[i] != FREE) {
+			if (keys[i] == key) {
+				values[i] = proxy;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = proxy;
+		if (++size >= resizeAt) {
+			allocate (keys.length * 2);
+		}
+	}
+
+	/**
+	 * Forget a client
+	 *
+	 * @param  address  Client's IP address
+	 * @param  port     Client's port
+	 *
+	 * @return  The client's view proxy, or null if the client was unknown
+	 */
+	public ViewProxy remove
+		(InetAddress address,
+		 int port)
+		{
+		if (!(address instanceof Inet4Address)) {
+			return ipv6Map.remove (new InetSocketAddress (address, port));
+		}
+		long key = pack (address, port);
+		int i = slot (key);
+		while (keys[i] != key) {
+			if (keys[i] == FREE) {
+				return null;
+			}
+			i = (i + 1) & mask;
+		}
+		ViewProxy removed = values[i];
+		--size;
+
+		// Shift later entries of the probe run back over the hole, so lookups
+		// never need tombstones.
+		int hole = i;
+		for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+			int home = slot (keys[j]);
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = FREE;
+		values[hole] = null;
+		return removed;
+	}
+
+	/**
+	 * Forget a client
+	 *
+	 * @param  address  Client's socket address
+	 *
+	 * @return  The client's view proxy, or null if the client was unknown
+	 */
+	public ViewProxy remove
+		(InetSocketAddress address)
+		{
+		return remove (address.getAddress(), address.getPort());
+	}
+
+	/**
+	 * Returns the number of clients in the table
+	 *
+	 * @return  the number of clients
+	 */
+	public int size() { return size + ipv6Map.size(); }
+
+// Hidden operations
+
+	/**
+	 * Pack an IPv4 address and port into a key. Inet4Address.hashCode() is the
+	 * address itself, which avoids the array copy getAddress() makes.
+	 */
+	private static long pack
+		(InetAddress address,
+		 int port)
+		{
+		return ((address.hashCode() & 0xFFFFFFFFL) << 16) | (port & 0xFFFF);
+	}
+
+	/**
+	 * Home slot of a key, after mixing its bits so nearby addresses and
+	 * ports spread over the table
+	 */
+	private int slot
+		(long key)
+		{
+		key ^= key >>> 33;
+		key *= 0xFF51AFD7ED558CCDL;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+
+	/**
+	 * Allocate arrays of the given capacity and rehash any entries into them
+	 */
+	private void allocate
+		(int capacity)
+		{
+		long[] oldKeys = keys;
+		ViewProxy[] oldValues = values;
+		keys = new long [capacity];
+		values = new ViewProxy [capacity];
+		Arrays.fill (keys, FREE);
+		mask = capacity - 1;
+		resizeAt = capacity / 2;
+		if (oldKeys != null) {
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != FREE) {
+					int j = slot (oldKeys[i]);
+					while (keys[j] != FREE) {
+						j = (j + 1) & mask;
+					}
+					keys[j] = oldKeys[i];
+					values[j] = oldValues[i];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+//******************************************************************************
+//
+// File:    ConcurrentHistogram.java
+// Package: ---
+// Unit:    Class ConcurrentHistogram.java
+//
+//******************************************************************************
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class ConcurrentHistogram counts durations in log-linear buckets, in the
+ * manner of HdrHistogram: exact below 32 nanoseconds, and above that 16
+ * buckets per power of two, so every value is kept to within about 6%.
+ * <P>
+ * Any number of threads may record at once. Recording is one atomic
+ * increment, plus a compare-and-set in the rare case of a new maximum; it
+ * takes no lock and allocates nothing, so it can stay on in production.
+ * Readers see a weakly consistent view, which is all a monitor needs.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class ConcurrentHistogram
+	{
+
+// Hidden constants
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int HALF = SUB / 2;
+	private static final int BUCKETS = SUB + (64 - SUB_BITS) * HALF;
+
+// Hidden data members
+
+	private AtomicLongArray counts = new AtomicLongArray (BUCKETS);
+	private AtomicLong max = new AtomicLong();
+
+// Exported operations
+
+	/**
+	 * Record one duration
+	 *
+	 * @param  nanos  Duration in nanoseconds
+	 */
+	public void record
+		(long nanos)
+		{
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet (index (nanos));
+		long seen = max.get();
+		while (nanos > seen && !max.compareAndSet (seen, nanos)) {
+			seen = max.get();
+		}
+	}
+
+	/**
+	 * Returns the number of durations recorded
+	 *
+	 * @return  Count
+	 */
+	public long getCount() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get (i);
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the longest duration recorded
+	 *
+	 * @return  Duration in nanoseconds
+	 */
+	public long getMax() { return max.get(); }
+
+	/**
+	 * Returns the durations below which the given fractions of the recorded
+	 * durations fall, each rounded up to the top of its bucket
+	 *
+	 * @param  fractions  Fractions, from 0 to 1, in increasing order
+	 *
+	 * @return  Durations in nanoseconds, all 0 if nothing was recorded
+	 */
+	public long[] percentiles
+		(double... fractions)
+		{
+		long[] copy = new long [BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get (i);
+			total += copy[i];
+		}
+		long[] result = new long [fractions.length];
+		long highestSeen = max.get();
+		long seen = 0;
+		int f = 0;
+		for (int i = 0; i < BUCKETS && f < fractions.length; i++) {
+			seen += copy[i];
+			while (f < fractions.length && seen > 0 &&
+					seen >= (long) Math.ceil (fractions[f] * total)) {
+				result[f++] = Math.min (highest (i), highestSeen);
+			}
+		}
+		return result;
+	}
+
+// Hidden operations
+
+	/**
+	 * Bucket a value falls in
+	 */
+	private static int index
+		(long value)
+		{
+		if (value < SUB) {
+			return (int) value;
+		}
+		int shift = 64 - Long.numberOfLeadingZeros (value) - SUB_BITS;
+		return SUB + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+	}
+
+	/**
+	 * Largest value that falls in a bucket
+	 */
+	private static long highest
+		(int index)
+		{
+		if (index < SUB) {
+			return index;
+		}
+		int shift = (index - SUB) / HALF + 1;
+		long sub = (index - SUB) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+}
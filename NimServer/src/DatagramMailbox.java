@@ -0,0 +1,155 @@
+//******************************************************************************
+//
+// File:    DatagramMailbox.java
+// Package: ---
+// Unit:    Class DatagramMailbox.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Class DatagramMailbox sends datagrams on a blocking datagram socket. It is
+ * the mailbox used by the original single-threaded mailbox manager, and
+ * schedules timeouts straight onto that manager's timing wheel.
+ * <P>
+ * For a staged mailbox manager it is given a packet ring instead, and a
+ * datagram sent is copied into the ring for the manager's send stage, which
+ * puts it on the socket with sendQueued(). A send failure is then counted
+ * and reported there, as the sender has already moved on.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class DatagramMailbox
+	implements Mailbox
+	{
+
+// Hidden data members
+
+	private DatagramSocket socket;
+	private TimingWheel timers;
+	private byte[] scratch = new byte [MessageCodec.MAX_DATAGRAM];
+	private DatagramPacket packet = new DatagramPacket (scratch, 0);
+	private PacketRing outbound; // or null to send straight away
+
+// Exported constructors
+
+	/**
+	 * Construct a new datagram mailbox
+	 *
+	 * @param  socket  Socket to send datagrams on
+	 * @param  timers  Timing wheel of the manager receiving on the socket
+	 */
+	public DatagramMailbox
+		(DatagramSocket socket,
+		 TimingWheel timers)
+		{
+		this.socket = socket;
+		this.timers = timers;
+	}
+
+	/**
+	 * Construct a new datagram mailbox for a staged mailbox manager
+	 *
+	 * @param  socket    Socket to send datagrams on
+	 * @param  timers    Timing wheel of the manager's logic stage
+	 * @param  outbound  Ring to queue datagrams on for the send stage
+	 */
+	public DatagramMailbox
+		(DatagramSocket socket,
+		 TimingWheel timers,
+		 PacketRing outbound)
+		{
+		this (socket, timers);
+		this.outbound = outbound;
+	}
+
+// Exported operations
+
+	/**
+	 * Send a datagram. Heap buffers are sent straight from their backing
+	 * array; direct buffers are first copied into a scratch array. With a
+	 * send stage the datagram is copied into the outbound ring instead,
+	 * waiting if the ring is full. Sends are serialized, so the ring has a
+	 * single producer at a time.
+	 *
+	 * @param  payload  Datagram contents
+	 * @param  address  Destination address
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized void send
+		(ByteBuffer payload,
+		 SocketAddress address)
+		throws IOException
+		{
+		int length = payload.remaining();
+		if (outbound != null) {
+			int slot = outbound.claim();
+			DatagramPacket queued = outbound.packet (slot);
+			int position = payload.position();
+			payload.get (queued.getData(), 0, length);
+			payload.position (position);
+			queued.setLength (length);
+			queued.setSocketAddress (address);
+			outbound.publish();
+			return;
+		}
+		if (payload.hasArray()) {
+			packet.setData
+				(payload.array(), payload.arrayOffset() + payload.position(),
+				 length);
+		} else {
+			int position = payload.position();
+			payload.get (scratch, 0, length);
+			payload.position (position);
+			packet.setData (scratch, 0, length);
+		}
+		packet.setSocketAddress (address);
+		try {
+			socket.send (packet);
+		} catch (IOException exc) {
+			ServerMetrics.sendFailed();
+			throw exc;
+		}
+		ServerMetrics.datagramSent();
+	}
+
+	/**
+	 * Send the datagrams queued on the outbound ring, for ever. Run by the
+	 * send stage's thread.
+	 */
+	public void sendQueued() {
+		for (;;) {
+			int slot = outbound.poll (-1);
+			try {
+				socket.send (outbound.packet (slot));
+				ServerMetrics.datagramSent();
+			} catch (IOException exc) {
+				ServerMetrics.sendFailed();
+				System.err.println ("Send failed: " + exc.getMessage());
+			}
+			outbound.release();
+		}
+	}
+
+	/**
+	 * Schedule a timeout. The blocking manager runs on a single thread, so
+	 * the timeout goes straight onto its wheel.
+	 *
+	 * @param  timeout   Timeout to schedule
+	 * @param  deadline  Time to expire it, in milliseconds
+	 */
+	public void schedule
+		(TimingWheel.Timeout timeout,
+		 long deadline)
+		{
+		timers.schedule (timeout, deadline);
+	}
+}
@@ -0,0 +1,526 @@
+//******************************************************************************
+//
+// File:    JournalReader.java
+// Package: ---
+// Unit:    Class JournalReader.java
+//
+//******************************************************************************
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Class JournalReader reads a MoveJournal. Run as a program it lists the
+ * sessions in a journal, replays one session's games move by move, or
+ * rebuilds the sessions still open into a snapshot the server can be
+ * started from.
+ * <P>
+ * Reading stops at the first batch that fails its checksum, which can only
+ * be the last one, torn by a crash: a MoveJournal cuts such a batch off when
+ * it is next opened. A session still open when a new run starts was lost
+ * with the run before, unless the new run restores it.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class JournalReader
+	{
+
+// Exported helper classes
+
+	/**
+	 * Interface for an object that is handed each journal record in turn
+	 */
+	public static interface Handler
+		{
+		/**
+		 * A session started, or was restored from a snapshot
+		 *
+		 * @param  sessionId  Session id
+		 * @param  seq        Record's sequence number
+		 * @param  time       Time the record was appended, in milliseconds
+		 * @param  game       State of the session at that point
+		 */
+		public void start
+			(int sessionId,
+			 int seq,
+			 long time,
+			 Game game);
+
+		/**
+		 * A move was made
+		 *
+		 * @param  sessionId  Session id
+		 * @param  seq        Record's sequence number
+		 * @param  time       Time the record was appended, in milliseconds
+		 * @param  h          Id of the heap removed from
+		 * @param  m          The number of markers removed
+		 */
+		public void take
+			(int sessionId,
+			 int seq,
+			 long time,
+			 int h,
+			 int m);
+
+		/**
+		 * A new game was started
+		 *
+		 * @param  sessionId  Session id
+		 * @param  seq        Record's sequence number
+		 * @param  time       Time the record was appended, in milliseconds
+		 */
+		public void newGame
+			(int sessionId,
+			 int seq,
+			 long time);
+
+		/**
+		 * The session ended
+		 *
+		 * @param  sessionId  Session id
+		 * @param  seq        Record's sequence number
+		 * @param  time       Time the record was appended, in milliseconds
+		 */
+		public void quit
+			(int sessionId,
+			 int seq,
+			 long time);
+
+		/**
+		 * The server opened the journal, starting a new run. Every session
+		 * still open was lost with the previous run, unless a start record
+		 * restores it.
+		 *
+		 * @param  time  Time the record was appended, in milliseconds
+		 */
+		public void run
+			(long time);
+	}
+
+	/**
+	 * Class Game is the state of one session, played forward record by
+	 * record by the same rules as NimModel
+	 */
+	public static class Game
+		{
+		public Ruleset rules;
+		public int[] board;
+		public int epoch;
+		public int version;
+		public int turn;
+		public int winner;
+		public int[] scores;
+		public int[] heaps;
+		public InetSocketAddress[] addresses; // null for a bot
+		public String[] names;
+		public int nextSeq;
+		public int games = 1;
+		public int moves;
+
+		/**
+		 * Make a move, if it is legal
+		 *
+		 * @param  h  Id of the heap removed from
+		 * @param  m  The number of markers removed
+		 *
+		 * @return  true if made, false if not legal
+		 */
+		public boolean take
+			(int h,
+			 int m)
+			{
+			if (h < 0 || h >= heaps.length || !rules.isLegal (heaps[h], m)) {
+				return false;
+			}
+			heaps[h] -= m;
+			++version;
+			++moves;
+			turn = 1 - turn;
+			for (int size : heaps) {
+				if (size >= rules.getMinMove()) {
+					return true;
+				}
+			}
+			winner = rules.isMisere() ? turn : 1 - turn;
+			++scores[winner];
+			return true;
+		}
+
+		/**
+		 * Start a new game
+		 */
+		public void newGame() {
+			heaps = board.clone();
+			turn = 0;
+			++epoch;
+			++games;
+			version = 0;
+			winner = MessageCodec.NO_WINNER;
+		}
+	}
+
+// Hidden constants
+
+	// a mailbox for view proxies that are only written to a snapshot
+	private static final Mailbox NO_MAILBOX = new Mailbox()
+		{
+		public void send (ByteBuffer payload, SocketAddress address) { }
+		public void schedule (TimingWheel.Timeout timeout, long deadline) { }
+		};
+
+// Hidden data members
+
+	private File file;
+	private HashMap<String,Ruleset> rulesets = new HashMap<String,Ruleset>();
+	private long end; // just past the last good batch read
+
+// Exported constructors
+
+	/**
+	 * Construct a new journal reader
+	 *
+	 * @param  file  Journal file
+	 */
+	public JournalReader
+		(File file)
+		{
+		this.file = file;
+	}
+
+// Exported operations
+
+	/**
+	 * Hand every record in the journal to a handler, in order
+	 *
+	 * @param  handler  Handler
+	 *
+	 * @return  The number of records read
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public long read
+		(Handler handler)
+		throws IOException
+		{
+		MappedByteBuffer in;
+		try (FileChannel channel = FileChannel.open
+				(file.toPath(), StandardOpenOption.READ)) {
+			in = channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		long records = 0;
+		end = 0;
+		CRC32 crc = new CRC32();
+		while (in.remaining() >= MoveJournal.BATCH_HEADER) {
+			int at = in.position();
+			int length = in.getInt();
+			int checksum = in.getInt();
+			if (length < 0 || length > in.remaining()) {
+				System.err.println ("Journal ends with a torn batch at " + at);
+				break;
+			}
+			ByteBuffer batch = in.slice();
+			batch.limit (length);
+			crc.reset();
+			crc.update (batch.duplicate());
+			if ((int) crc.getValue() != checksum) {
+				System.err.println ("Journal ends with a torn batch at " + at);
+				break;
+			}
+			in.position (in.position() + length);
+			end = in.position();
+			try {
+				while (batch.hasRemaining()) {
+					readRecord (batch, handler);
+					++records;
+				}
+			} catch (BufferUnderflowException exc) {
+				System.err.println ("Truncated record in batch at " + at);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Returns where the last read stopped
+	 *
+	 * @return  Offset just past the last batch that passed its checksum
+	 */
+	public long getEnd() { return end; }
+
+	/**
+	 * Main program.
+	 *
+	 * @param  args  Command line arguments
+	 *
+	 * @exception  Exception
+	 *     Thrown if an exception occurs
+	 */
+	public static void main
+		(String[] args)
+		throws Exception
+		{
+		if (args.length == 1) {
+			list (new JournalReader (new File (args[0])));
+		} else if (args.length == 3 && args[1].equals ("replay")) {
+			replay (new JournalReader (new File (args[0])),
+				Integer.parseInt (args[2]));
+		} else if (args.length == 3 && args[1].equals ("rebuild")) {
+			rebuild (new JournalReader (new File (args[0])),
+				new File (args[2]));
+		} else {
+			System.err.println ("Usage: java JournalReader <journal> [replay <sessionid> | rebuild <snapshot>]");
+			System.exit (1);
+		}
+	}
+
+// Hidden operations
+
+	/**
+	 * Read one record and hand it to the handler
+	 */
+	private void readRecord
+		(ByteBuffer in,
+		 Handler handler)
+		throws IOException
+		{
+		byte type = in.get();
+		int sessionId = in.getInt();
+		int seq = in.getInt();
+		long time = in.getLong();
+		switch (type) {
+			case MoveJournal.START:
+				Game game = new Game();
+				String spec = MessageCodec.getUTF (in);
+				game.rules = rulesets.get (spec);
+				if (game.rules == null) {
+					game.rules = Ruleset.parse (spec);
+					rulesets.put (spec, game.rules);
+				}
+				game.board = getHeaps (in);
+				game.epoch = in.getInt();
+				game.version = in.getInt();
+				game.turn = in.getInt();
+				game.winner = in.getInt();
+				game.scores = new int[] {in.getInt(), in.getInt()};
+				game.heaps = getHeaps (in);
+				game.addresses = new InetSocketAddress [2];
+				game.names = new String [2];
+				for (int pid = 0; pid < 2; pid++) {
+					game.addresses[pid] = SessionSnapshot.getAddress (in);
+					game.names[pid] = MessageCodec.getUTF (in);
+				}
+				game.nextSeq = seq + 1;
+				int max = 0;
+				for (int size : game.board) {
+					max = Math.max (max, size);
+				}
+				game.rules.prepare (max);
+				handler.start (sessionId, seq, time, game);
+				break;
+			case MoveJournal.TAKE:
+				int h = in.getChar();
+				int m = in.getChar();
+				handler.take (sessionId, seq, time, h, m);
+				break;
+			case MoveJournal.NEW_GAME:
+				handler.newGame (sessionId, seq, time);
+				break;
+			case MoveJournal.QUIT:
+				handler.quit (sessionId, seq, time);
+				break;
+			case MoveJournal.RUN:
+				handler.run (time);
+				break;
+			default:
+				throw new IOException ("Unknown journal record " + type);
+		}
+	}
+
+	/**
+	 * Read a heap count and a char per heap
+	 */
+	private static int[] getHeaps
+		(ByteBuffer in)
+		{
+		int[] heaps = new int [in.getChar()];
+		for (int h = 0; h < heaps.length; h++) {
+			heaps[h] = in.getChar();
+		}
+		return heaps;
+	}
+
+	/**
+	 * Play every session forward, keeping those still open in the given map
+	 */
+	private static void playAll
+		(JournalReader reader,
+		 final Map<Integer,Game> open,
+		 final Map<Integer,Game> all)
+		throws IOException
+		{
+		reader.read (new Handler()
+			{
+			public void start (int sessionId, int seq, long time, Game game) {
+				open.put (sessionId, game);
+				all.put (sessionId, game);
+			}
+			public void take (int sessionId, int seq, long time, int h, int m) {
+				Game game = open.get (sessionId);
+				if (game != null) {
+					game.take (h, m);
+					game.nextSeq = seq + 1;
+				}
+			}
+			public void newGame (int sessionId, int seq, long time) {
+				Game game = open.get (sessionId);
+				if (game != null) {
+					game.newGame();
+					game.nextSeq = seq + 1;
+				}
+			}
+			public void quit (int sessionId, int seq, long time) {
+				open.remove (sessionId);
+			}
+			public void run (long time) {
+				open.clear(); // lost with the run before, if not restored
+			}
+			});
+	}
+
+	/**
+	 * Print a line for each session in the journal
+	 */
+	private static void list
+		(JournalReader reader)
+		throws IOException
+		{
+		Map<Integer,Game> open = new HashMap<Integer,Game>();
+		Map<Integer,Game> all = new LinkedHashMap<Integer,Game>();
+		playAll (reader, open, all);
+		for (Map.Entry<Integer,Game> entry : all.entrySet()) {
+			Game game = entry.getValue();
+			System.out.println ("Session " + entry.getKey() + ": " +
+				game.names[0] + " vs " + game.names[1] + ", " + game.games +
+				" games, " + game.moves + " moves, score " + game.scores[0] +
+				"-" + game.scores[1] +
+				(open.containsKey (entry.getKey()) ? ", open" : ""));
+		}
+	}
+
+	/**
+	 * Print one session's games move by move
+	 */
+	private static void replay
+		(JournalReader reader,
+		 final int session)
+		throws IOException
+		{
+		final Game[] current = new Game [1];
+		reader.read (new Handler()
+			{
+			public void start (int sessionId, int seq, long time, Game game) {
+				if (sessionId != session) {
+					return;
+				}
+				current[0] = game;
+				System.out.printf ("%tF %<tT.%<tL #%d %s vs %s, rules %s, game %d%s%n",
+					time, seq, game.names[0], game.names[1],
+					game.rules.getSpec(), game.epoch, heaps (game));
+			}
+			public void take (int sessionId, int seq, long time, int h, int m) {
+				Game game = current[0];
+				if (sessionId != session || game == null) {
+					return;
+				}
+				String player = game.names[game.turn];
+				if (!game.take (h, m)) {
+					System.out.printf ("%tT.%<tL #%d %s: illegal move, %d from heap %d%n",
+						time, seq, player, m, h);
+					return;
+				}
+				System.out.printf ("%tT.%<tL #%d %s takes %d from heap %d%s%n",
+					time, seq, player, m, h, heaps (game));
+				if (game.winner != MessageCodec.NO_WINNER) {
+					System.out.printf ("%tT.%<tL #%d %s wins, score %d-%d%n",
+						time, seq, game.names[game.winner], game.scores[0],
+						game.scores[1]);
+				}
+			}
+			public void newGame (int sessionId, int seq, long time) {
+				Game game = current[0];
+				if (sessionId != session || game == null) {
+					return;
+				}
+				game.newGame();
+				System.out.printf ("%tT.%<tL #%d game %d%s%n",
+					time, seq, game.epoch, heaps (game));
+			}
+			public void quit (int sessionId, int seq, long time) {
+				if (sessionId == session) {
+					System.out.printf ("%tT.%<tL #%d session ended%n", time, seq);
+					current[0] = null;
+				}
+			}
+			public void run (long time) {
+				if (current[0] != null) {
+					System.out.printf ("%tF %<tT.%<tL server restarted%n", time);
+					current[0] = null;
+				}
+			}
+			});
+	}
+
+	/**
+	 * The heaps of a small board, for printing
+	 */
+	private static String heaps
+		(Game game)
+		{
+		return (game.heaps.length > 16) ? "" :
+			"  " + Arrays.toString (game.heaps);
+	}
+
+	/**
+	 * Write the sessions still open at the end of the journal to a snapshot
+	 */
+	private static void rebuild
+		(JournalReader reader,
+		 File snapshotFile)
+		throws IOException
+		{
+		Map<Integer,Game> open = new HashMap<Integer,Game>();
+		playAll (reader, open, new HashMap<Integer,Game>());
+		SessionManager sessionManager = new SessionManager();
+		for (Map.Entry<Integer,Game> entry : open.entrySet()) {
+			Game game = entry.getValue();
+			ViewProxy[] players = new ViewProxy [2];
+			for (int pid = 0; pid < 2; pid++) {
+				if (game.addresses[pid] != null) {
+					players[pid] = new ViewProxy (NO_MAILBOX, game.addresses[pid]);
+				}
+			}
+			NimModel model = new NimModel (game.board, game.rules);
+			model.restore (game.nextSeq, game.epoch, game.version, game.turn,
+				game.winner, game.scores, game.heaps, players, game.names);
+			sessionManager.restoreSession
+				(entry.getKey(), model, players, NO_MAILBOX);
+		}
+		int written = new SessionSnapshot (snapshotFile, sessionManager).write();
+		System.out.println ("Wrote " + written + " open sessions to " +
+			snapshotFile);
+	}
+}
@@ -0,0 +1,74 @@
+//******************************************************************************
+//
+// File:    LobbySeat.java
+// Package: ---
+// Unit:    Class LobbySeat.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+
+/**
+ * Class LobbySeat is the view listener of a client waiting in a compact
+ * lobby for an opponent. It knows only where the client waits; a quit takes
+ * the client out of the lobby. The game has not started, so moves and new
+ * games are ignored, as are joins and watches, as a waiting session's model
+ * would.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class LobbySeat
+	implements ViewListener
+	{
+
+// Hidden data members
+
+	private SessionManager sessionManager;
+	private int slot;
+	private int sessionId;
+
+// Exported constructors
+
+	/**
+	 * Construct a new lobby seat
+	 *
+	 * @param  sessionManager  Session manager that owns the lobby
+	 * @param  slot            The waiting session's slot in the lobby table
+	 * @param  sessionId       The waiting session's id
+	 */
+	public LobbySeat
+		(SessionManager sessionManager,
+		 int slot,
+		 int sessionId)
+		{
+		this.sessionManager = sessionManager;
+		this.slot = slot;
+		this.sessionId = sessionId;
+	}
+
+// Exported operations
+
+	/**
+	 * Stop waiting
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void quit()
+		throws IOException
+		{
+		sessionManager.leaveLobby (slot, sessionId);
+	}
+
+	// The client has already joined and has no game yet, so these are
+	// ignored.
+
+	public void join(ViewProxy viewProxy, String playerName) { }
+
+	public void watch(ViewProxy viewProxy, int sessionId) { }
+
+	public void removeMarker(int h, int m) { }
+
+	public void newGame() { }
+}
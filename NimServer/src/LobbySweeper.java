@@ -0,0 +1,105 @@
+//******************************************************************************
+//
+// File:    LobbySweeper.java
+// Package: ---
+// Unit:    Class LobbySweeper.java
+//
+//******************************************************************************
+
+/**
+ * Class LobbySweeper keeps the deadlines of the players waiting in one
+ * shard's queue of a compact lobby. It sits on the shard's timing wheel, in
+ * place of a session reaper and a bot seater for every waiting session. Each
+ * time it expires the session manager walks the queue from the front,
+ * seating a bot for, or quitting, each player whose wait is up, and stops at
+ * the first whose wait is not. The queue is in the order the players started
+ * waiting, so the sweeper reschedules itself for that player's deadline, or
+ * is disarmed if the queue is empty.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class LobbySweeper
+	extends TimingWheel.Timeout
+	{
+
+// Hidden data members
+
+	private SessionManager sessionManager;
+	private Mailbox host;
+	private int queue;
+	private boolean armed; // under the session manager's lock
+
+// Exported constructors
+
+	/**
+	 * Construct a new lobby sweeper
+	 *
+	 * @param  sessionManager  Session manager that owns the lobby
+	 * @param  host            Mailbox of the shard whose queue it sweeps
+	 * @param  queue           The queue's sentinel slot in the lobby table
+	 */
+	public LobbySweeper
+		(SessionManager sessionManager,
+		 Mailbox host,
+		 int queue)
+		{
+		this.sessionManager = sessionManager;
+		this.host = host;
+		this.queue = queue;
+	}
+
+// Exported operations
+
+	/**
+	 * Returns the queue this sweeper sweeps
+	 *
+	 * @return  the queue's sentinel slot
+	 */
+	public int getQueue() { return queue; }
+
+	/**
+	 * Schedule the sweeper for the given deadline, unless it is already
+	 * scheduled for an earlier one. Call with the session manager's lock.
+	 *
+	 * @param  deadline  Time to expire it, on the TimingWheel.now() clock
+	 */
+	public void arm
+		(long deadline)
+		{
+		if (!armed) {
+			armed = true;
+			host.schedule (this, deadline);
+		}
+	}
+
+	/**
+	 * Mark the sweeper as not scheduled, its queue being empty. Call with the
+	 * session manager's lock.
+	 */
+	public void disarm() {
+		armed = false;
+	}
+
+	/**
+	 * Sweep the queue
+	 *
+	 * @param  now  Current time in milliseconds
+	 */
+	public void expire
+		(long now)
+		{
+		sessionManager.sweepLobby (this, now);
+	}
+
+	/**
+	 * Reschedule the sweeper from within a sweep
+	 *
+	 * @param  deadline  Time to expire it, on the TimingWheel.now() clock
+	 */
+	public void rearm
+		(long deadline)
+		{
+		host.schedule (this, deadline);
+	}
+}
@@ -0,0 +1,230 @@
+//******************************************************************************
+//
+// File:    LobbyTable.java
+// Package: ---
+// Unit:    Class LobbyTable.java
+//
+//******************************************************************************
+
+import java.util.Arrays;
+
+/**
+ * Class LobbyTable holds the sessions with a player waiting for an opponent,
+ * for a session manager with a compact lobby. A waiting session's game has
+ * not started, so its heaps, turn and scores are the board's opening values
+ * and need not be kept; what is kept is the session id, the waiting client's
+ * view proxy and name, and when it started waiting. Each goes in a large
+ * array indexed by the session's slot, so a waiting session costs a few dozen
+ * bytes rather than a Session and a NimModel, and its model is made only
+ * once it is paired.
+ * <P>
+ * Only waiting sessions are kept here. A full session's Session and
+ * NimModel take about 1750 bytes, and its heaps, turn and scores under a
+ * hundred of them: on a board that fits a PackedState they are one packed
+ * word. Most of the rest is what a game in play needs, such as its
+ * Broadcast's encoding buffer and the slots its model publishes changes
+ * from, so keeping the game state in arrays here would save little.
+ * <P>
+ * Free slots are chained into a free list. Occupied slots are chained into
+ * queues, oldest first, each a circular doubly-linked list through the same
+ * arrays with a slot of its own as sentinel, so a slot is added, taken from
+ * the front or removed from the middle in constant time, without knowing
+ * which queue it is in. The table grows by doubling when it runs out of
+ * slots.
+ * <P>
+ * A lobby table is not thread safe; its session manager locks it.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class LobbyTable
+	{
+
+// Exported constants
+
+	/** No slot */
+	public static final int NONE = -1;
+
+// Hidden constants
+
+	private static final int FREE = -1;  // session id of a free slot
+	private static final int QUEUE = -2; // session id of a queue's sentinel
+	private static final int INITIAL_CAPACITY = 1024;
+
+// Hidden data members
+
+	private int[] ids = new int [0];
+	private long[] since = new long [0];
+	private int[] prev = new int [0];
+	private int[] next = new int [0];
+	private ViewProxy[] proxies = new ViewProxy [0];
+	private String[] names = new String [0];
+	private int free = NONE; // first free slot
+	private volatile int size;
+
+// Exported constructors
+
+	/**
+	 * Construct a new, empty lobby table
+	 */
+	public LobbyTable() {
+		allocate (INITIAL_CAPACITY);
+	}
+
+// Exported operations
+
+	/**
+	 * Make a new, empty queue
+	 *
+	 * @return  The queue's sentinel slot
+	 */
+	public int newQueue() {
+		int q = take();
+		ids[q] = QUEUE;
+		prev[q] = q;
+		next[q] = q;
+		return q;
+	}
+
+	/**
+	 * Add a waiting session at the back of a queue
+	 *
+	 * @param  queue  The queue's sentinel slot
+	 * @param  id     The session's id
+	 * @param  proxy  The waiting client's view proxy
+	 * @param  name   The waiting player's name
+	 * @param  time   When the player started waiting
+	 *
+	 * @return  The session's slot
+	 */
+	public int add
+		(int queue,
+		 int id,
+		 ViewProxy proxy,
+		 String name,
+		 long time)
+		{
+		int s = take();
+		ids[s] = id;
+		since[s] = time;
+		proxies[s] = proxy;
+		names[s] = name;
+		int last = prev[queue];
+		prev[s] = last;
+		next[s] = queue;
+		next[last] = s;
+		prev[queue] = s;
+		++size;
+		return s;
+	}
+
+	/**
+	 * Returns the oldest waiting session in a queue
+	 *
+	 * @param  queue  The queue's sentinel slot
+	 *
+	 * @return  The session's slot, or NONE if the queue is empty
+	 */
+	public int first
+		(int queue)
+		{
+		int s = next[queue];
+		return (s == queue) ? NONE : s;
+	}
+
+	/**
+	 * Remove a waiting session from its queue and free its slot
+	 *
+	 * @param  slot  The session's slot
+	 */
+	public void remove
+		(int slot)
+		{
+		next[prev[slot]] = next[slot];
+		prev[next[slot]] = prev[slot];
+		ids[slot] = FREE;
+		proxies[slot] = null;
+		names[slot] = null;
+		next[slot] = free;
+		free = slot;
+		--size;
+	}
+
+	/**
+	 * Returns whether a slot still holds the given session, rather than
+	 * having been freed and perhaps taken by another
+	 *
+	 * @param  slot  The slot
+	 * @param  id    The session's id
+	 *
+	 * @return  true if the slot holds the session, else false
+	 */
+	public boolean holds
+		(int slot,
+		 int id)
+		{
+		return slot < ids.length && ids[slot] == id;
+	}
+
+	/**
+	 * Returns the id of the session in a slot
+	 */
+	public int getId(int slot) { return ids[slot]; }
+
+	/**
+	 * Returns when the player in a slot started waiting
+	 */
+	public long getSince(int slot) { return since[slot]; }
+
+	/**
+	 * Returns the view proxy of the client waiting in a slot
+	 */
+	public ViewProxy getProxy(int slot) { return proxies[slot]; }
+
+	/**
+	 * Returns the name of the player waiting in a slot
+	 */
+	public String getName(int slot) { return names[slot]; }
+
+	/**
+	 * Returns the number of waiting sessions. May be read without the lock.
+	 *
+	 * @return  the number of waiting sessions
+	 */
+	public int size() { return size; }
+
+// Hidden operations
+
+	/**
+	 * Take a slot off the free list, growing the table if it is empty
+	 */
+	private int take() {
+		if (free == NONE) {
+			allocate (ids.length * 2);
+		}
+		int s = free;
+		free = next[s];
+		return s;
+	}
+
+	/**
+	 * Grow the arrays to the given capacity, chaining the new slots onto the
+	 * free list
+	 */
+	private void allocate
+		(int capacity)
+		{
+		int old = ids.length;
+		ids = Arrays.copyOf (ids, capacity);
+		since = Arrays.copyOf (since, capacity);
+		prev = Arrays.copyOf (prev, capacity);
+		next = Arrays.copyOf (next, capacity);
+		proxies = Arrays.copyOf (proxies, capacity);
+		names = Arrays.copyOf (names, capacity);
+		for (int s = capacity - 1; s >= old; s--) {
+			ids[s] = FREE;
+			next[s] = free;
+			free = s;
+		}
+	}
+}
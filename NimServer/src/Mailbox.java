@@ -0,0 +1,51 @@
+//******************************************************************************
+//
+// File:    Mailbox.java
+// Package: ---
+// Unit:    Interface Mailbox.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Interface for the server's outbound datagram transport. View proxies send
+ * through a mailbox so they do not care whether the server is running the
+ * blocking socket loop or the non-blocking channel loop. A mailbox also runs
+ * timeouts on the event loop that serves it.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public interface Mailbox
+	{
+
+	/**
+	 * Send a datagram. The bytes between the payload's position and limit are
+	 * sent; the payload's position is left unchanged, so the caller may reuse
+	 * the buffer as soon as this method returns.
+	 *
+	 * @param  payload  Datagram contents
+	 * @param  address  Destination address
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void send
+		(ByteBuffer payload,
+		 SocketAddress address)
+		throws IOException;
+
+	/**
+	 * Schedule a timeout on the timing wheel of the event loop that serves
+	 * this mailbox. May be called from any thread.
+	 *
+	 * @param  timeout   Timeout to schedule
+	 * @param  deadline  Time to expire it, on the TimingWheel.now() clock
+	 */
+	public void schedule
+		(TimingWheel.Timeout timeout,
+		 long deadline);
+}
@@ -26,14 +26,23 @@
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.SocketAddress;
-import java.util.HashMap;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 
 /**
  * Class MailboxManager provides the server program's mailbox manager in the
  * Network Go Game. The mailbox manager keeps track of all view proxy objects,
  * reads all incoming datagrams, and forwards each datagram to the appropriate
- * view proxy.
+ * view proxy. Between datagrams it advances a timing wheel that reaps idle
+ * clients and sessions.
+ * <P>
+ * A staged mailbox manager splits this work over three threads joined by
+ * packet rings: a receive stage reads datagrams off the socket, the caller
+ * of receiveMessage() decodes them and runs the game logic, and a send
+ * stage puts the replies on the socket, so receiving overlaps with sending
+ * and neither waits for the game logic.
  *
  * @author  Alan Kaminsky
  * @version 28-Sep-2013
@@ -43,14 +52,23 @@ public class MailboxManager
 
 // Hidden data members.
 
+	private static final int TICK_MILLIS = 20;
+	private static final int WHEEL_SLOTS = 4096;
+	private static final int RING_SIZE = 1024;
+
 	private DatagramSocket mailbox;
+	private Mailbox sender;
+	private TimingWheel timers =
+		new TimingWheel (WHEEL_SLOTS, TICK_MILLIS, TimingWheel.now());
 
-	private HashMap<SocketAddress,ViewProxy> proxyMap =
-		new HashMap<SocketAddress,ViewProxy>();
+	private ClientTable proxyMap = new ClientTable();
 
-	private byte[] payload = new byte [128]; /* CAREFUL OF BUFFER LENGTH */
+	private byte[] payload = new byte [MessageCodec.MAX_DATAGRAM];
+	private DatagramPacket packet = new DatagramPacket (payload, payload.length);
+	private ByteBuffer buffer = ByteBuffer.wrap (payload);
+	private PacketRing inbound; // or null if not staged
 
-	private SessionManager sessionManager = new SessionManager();
+	private SessionManager sessionManager;
 
 // Exported constructors.
 
@@ -58,17 +76,108 @@ public class MailboxManager
 	 * Construct a new mailbox manager.
 	 *
 	 * @param  mailbox  Mailbox from which to read datagrams.
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred.
 	 */
 	public MailboxManager
 		(DatagramSocket mailbox)
+		throws IOException
+		{
+		this (mailbox, new SessionManager());
+		}
+
+	/**
+	 * Construct a new mailbox manager.
+	 *
+	 * @param  mailbox         Mailbox from which to read datagrams.
+	 * @param  sessionManager  Session manager for new clients.
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred.
+	 */
+	public MailboxManager
+		(DatagramSocket mailbox,
+		 SessionManager sessionManager)
+		throws IOException
 		{
 		this.mailbox = mailbox;
+		this.sessionManager = sessionManager;
+		this.sender = new DatagramMailbox (mailbox, timers);
+		ServerMetrics.addClientTable (proxyMap);
+		mailbox.setSoTimeout (TICK_MILLIS);
+		}
+
+	/**
+	 * Construct a new staged mailbox manager, and start its receive and send
+	 * stages. The thread that calls receiveMessage() is its logic stage.
+	 *
+	 * @param  mailbox         Mailbox from which to read datagrams.
+	 * @param  sessionManager  Session manager for new clients.
+	 * @param  wait            How stages wait for each other: PacketRing.SPIN,
+	 *     PacketRing.YIELD or PacketRing.PARK.
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred.
+	 */
+	public MailboxManager
+		(final DatagramSocket mailbox,
+		 SessionManager sessionManager,
+		 int wait)
+		throws IOException
+		{
+		this.mailbox = mailbox;
+		this.sessionManager = sessionManager;
+		this.inbound = new PacketRing (RING_SIZE, wait);
+		final DatagramMailbox sender =
+			new DatagramMailbox (mailbox, timers, new PacketRing (RING_SIZE, wait));
+		this.sender = sender;
+		ServerMetrics.addClientTable (proxyMap);
+		mailbox.setSoTimeout (0);
+
+		startStage ("NimServer receive", new Runnable()
+			{
+			public void run()
+				{
+				try
+					{
+					for (;;)
+						{
+						int slot = inbound.claim();
+						DatagramPacket received = inbound.packet (slot);
+						received.setLength (MessageCodec.MAX_DATAGRAM);
+						mailbox.receive (received);
+						inbound.publish();
+						}
+					}
+				catch (IOException exc)
+					{
+					throw new RuntimeException (exc);
+					}
+				}
+			});
+		startStage ("NimServer send", new Runnable()
+			{
+			public void run()
+				{
+				sender.sendQueued();
+				}
+			});
 		}
 
 // Exported operations.
 
 	/**
-	 * Receive and process the next datagram.
+	 * Returns the mailbox this manager's view proxies send through
+	 *
+	 * @return  the mailbox
+	 */
+	public Mailbox getMailbox() { return sender; }
+
+	/**
+	 * Receive and process the next datagram, or return after one tick of the
+	 * timing wheel if none arrives. A staged manager takes the datagram from
+	 * its receive stage.
 	 *
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred.
@@ -76,20 +185,111 @@ public class MailboxManager
 	public void receiveMessage()
 		throws IOException
 		{
-		DatagramPacket packet = new DatagramPacket (payload, payload.length);
-		mailbox.receive (packet);
-		SocketAddress clientAddress = packet.getSocketAddress();
-		ViewProxy proxy = proxyMap.get (clientAddress);
+		if (inbound != null)
+			{
+			int slot = inbound.poll (TICK_MILLIS * 1000000L);
+			if (slot != PacketRing.NONE)
+				{
+				dispatch (inbound.packet (slot), inbound.buffer (slot));
+				inbound.release();
+				}
+			timers.advance (TimingWheel.now());
+			return;
+			}
+		packet.setLength (payload.length);
+		try {
+			mailbox.receive (packet);
+		} catch (SocketTimeoutException exc) {
+			timers.advance (TimingWheel.now());
+			return;
+		}
+		dispatch (packet, buffer);
+		timers.advance (TimingWheel.now());
+		}
+
+// Hidden operations.
+
+	/**
+	 * Forward a datagram to the view proxy for its sender, making one for a
+	 * new client.
+	 *
+	 * @param  packet  The datagram.
+	 * @param  buffer  Buffer wrapping the datagram's backing array.
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred.
+	 */
+	private void dispatch
+		(DatagramPacket packet,
+		 ByteBuffer buffer)
+		throws IOException
+		{
+		long start = System.nanoTime();
+		PipelineEvents.Dispatch event = new PipelineEvents.Dispatch();
+		event.begin();
+		buffer.clear().limit (packet.getLength());
+		byte opcode = packet.getLength() > 0 ? buffer.get (0) : 0;
+		InetAddress clientHost = packet.getAddress();
+		int clientPort = packet.getPort();
+		ViewProxy proxy = proxyMap.get (clientHost, clientPort);
 		if (proxy == null)
 			{
-			proxy = new ViewProxy (mailbox, clientAddress);
-			proxy.setViewListener (sessionManager);
+			InetSocketAddress clientAddress =
+				new InetSocketAddress (clientHost, clientPort);
+			proxy = sessionManager.claimRestored (clientAddress);
+			if (proxy == null)
+				{
+				proxy = new ViewProxy (sender, clientAddress);
+				proxy.setViewListener (sessionManager);
+				}
 			proxyMap.put (clientAddress, proxy);
+			timers.schedule
+				(new ClientReaper (sender, proxyMap, clientAddress, proxy),
+				 proxy.getLastActivity() + ViewProxy.IDLE_TIMEOUT);
+			}
+		if (proxy.process (buffer)) // Returns true to discard view proxy
+			{
+			proxyMap.remove (clientHost, clientPort);
 			}
-		if (proxy.process (packet)) // Returns true to discard view proxy
+		ServerMetrics.datagramDispatched (System.nanoTime() - start);
+		event.end();
+		if (event.shouldCommit())
 			{
-			proxyMap.remove (clientAddress);
+			event.opcode = (char) opcode;
+			event.sessionId = proxy.getSessionId();
+			event.bytes = packet.getLength();
+			event.commit();
 			}
 		}
 
+	/**
+	 * Start a stage on a thread of its own. A stage that fails stops the
+	 * server, as a shard does.
+	 *
+	 * @param  name   The thread's name
+	 * @param  stage  The stage
+	 */
+	private static void startStage
+		(String name,
+		 final Runnable stage)
+		{
+		Thread thread = new Thread (name)
+			{
+			public void run()
+				{
+				try
+					{
+					stage.run();
+					}
+				catch (Throwable exc)
+					{
+					exc.printStackTrace (System.err);
+					System.exit (1);
+					}
+				}
+			};
+		thread.setDaemon (true);
+		thread.start();
+		}
+
 	}
\ No newline at end of file
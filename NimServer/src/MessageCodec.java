@@ -0,0 +1,559 @@
+//******************************************************************************
+//
+// File:    MessageCodec.java
+// Package: ---
+// Unit:    Class MessageCodec.java
+//
+//******************************************************************************
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class MessageCodec reads and writes Nim protocol messages directly in byte
+ * buffers. The wire format is the one DataOutputStream produced: a one-byte
+ * opcode, single-byte arguments, and names in modified UTF-8 with a two-byte
+ * length. Callers keep one buffer and reuse it for every message, so encoding
+ * and decoding allocate nothing apart from the String for a decoded name.
+ * Names are limited to MAX_NAME bytes, and a longer one is refused both
+ * ways, so a name message always fits a datagram with room to spare.
+ * <P>
+ * Heap ids and marker counts that do not fit in a signed byte, on large
+ * boards, go out in the wide forms of the take and heap messages, as unsigned
+ * shorts. The putX methods pick the form, so callers need not care.
+ * <P>
+ * The same file is kept in the client and the server.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class MessageCodec
+	{
+
+// Exported constants
+
+	/** Largest datagram either side sends or expects to receive */
+	public static final int MAX_DATAGRAM = 512;
+
+	// Client to server
+	public static final byte JOIN = 'J';
+	public static final byte TAKE = 'T';
+	public static final byte TAKE_WIDE = 't';
+	public static final byte NEW_GAME = 'N';
+	public static final byte QUIT = 'Q';
+	public static final byte WATCH = 'V';
+
+	// Server to client
+	public static final byte ID = 'I';
+	public static final byte NAME = 'N';
+	public static final byte SCORE = 'S';
+	public static final byte RECORD = 'P';
+	public static final byte HEAP = 'H';
+	public static final byte HEAP_WIDE = 'h';
+	public static final byte TURN = 'T';
+	public static final byte WINNER = 'W';
+	public static final byte GAME_QUIT = 'Q';
+	public static final byte COMPOSITE = 'C';
+	public static final byte STATE = 'G';
+	public static final byte STATE_RANGE = 'g';
+
+	/** Winner field of a state message while nobody has won */
+	public static final int NO_WINNER = -1;
+
+	/** Largest heap id or marker count a take or heap message sends as a byte */
+	public static final int MAX_NARROW = 127;
+
+	/** Largest heap id, marker count, heap total or score any message carries */
+	public static final int MAX_WIDE = 65535;
+
+	/** Bytes a state message takes in front of its heap counts */
+	public static final int STATE_HEADER = 12;
+
+	/** Bytes a state range message takes in front of its heap counts */
+	public static final int STATE_RANGE_HEADER = 19;
+
+	/** Most messages one composite frame can carry */
+	public static final int MAX_COMPOSITE = 255;
+
+	/** Longest player name, in bytes of modified UTF-8 */
+	public static final int MAX_NAME = 64;
+
+// Hidden constructors
+
+	private MessageCodec() {}
+
+// Exported operations
+
+	/**
+	 * Write a join message
+	 *
+	 * @param  out         Buffer to write into
+	 * @param  playerName  Name of the player joining
+	 *
+	 * @exception  UTFDataFormatException
+	 *     Thrown if the name is longer than MAX_NAME bytes
+	 */
+	public static void putJoin
+		(ByteBuffer out,
+		 String playerName)
+		throws UTFDataFormatException
+		{
+		checkName (playerName);
+		out.put (JOIN);
+		putUTF (out, playerName);
+	}
+
+	/**
+	 * Write a take (remove markers) message
+	 *
+	 * @param  out  Buffer to write into
+	 * @param  h    Id of the heap to remove from
+	 * @param  m    The number of markers to remove
+	 */
+	public static void putTake
+		(ByteBuffer out,
+		 int h,
+		 int m)
+		{
+		if (h <= MAX_NARROW && m <= MAX_NARROW) {
+			out.put (TAKE).put ((byte) h).put ((byte) m);
+		} else {
+			out.put (TAKE_WIDE).putShort ((short) h).putShort ((short) m);
+		}
+	}
+
+	/**
+	 * Write a watch message, asking to follow a session as a spectator
+	 *
+	 * @param  out        Buffer to write into
+	 * @param  sessionId  Id of the session to watch
+	 */
+	public static void putWatch
+		(ByteBuffer out,
+		 int sessionId)
+		{
+		out.put (WATCH).putInt (sessionId);
+	}
+
+	/**
+	 * Write a player id message
+	 *
+	 * @param  out  Buffer to write into
+	 * @param  pid  The player's id
+	 */
+	public static void putId
+		(ByteBuffer out,
+		 int pid)
+		{
+		out.put (ID).put ((byte) pid);
+	}
+
+	/**
+	 * Write a player name message
+	 *
+	 * @param  out         Buffer to write into
+	 * @param  pid         The player's id
+	 * @param  playerName  The player's name
+	 *
+	 * @exception  UTFDataFormatException
+	 *     Thrown if the name is longer than MAX_NAME bytes
+	 */
+	public static void putName
+		(ByteBuffer out,
+		 int pid,
+		 String playerName)
+		throws UTFDataFormatException
+		{
+		checkName (playerName);
+		out.put (NAME).put ((byte) pid);
+		putUTF (out, playerName);
+	}
+
+	/**
+	 * Write a player record message
+	 *
+	 * @param  out     Buffer to write into
+	 * @param  pid     The player's id
+	 * @param  wins    Games the player has won
+	 * @param  losses  Games the player has lost
+	 */
+	public static void putRecord
+		(ByteBuffer out,
+		 int pid,
+		 int wins,
+		 int losses)
+		{
+		out.put (RECORD).put ((byte) pid).putInt (wins).putInt (losses);
+	}
+
+	/**
+	 * Write a score message
+	 *
+	 * @param  out  Buffer to write into
+	 * @param  pid  Id of the player who scored
+	 * @param  s    The player's score
+	 */
+	public static void putScore
+		(ByteBuffer out,
+		 int pid,
+		 int s)
+		{
+		out.put (SCORE).put ((byte) pid).put ((byte) s);
+	}
+
+	/**
+	 * Write a heap message
+	 *
+	 * @param  out  Buffer to write into
+	 * @param  h    Id of the heap removed from
+	 * @param  m    The number of markers removed
+	 */
+	public static void putHeap
+		(ByteBuffer out,
+		 int h,
+		 int m)
+		{
+		if (h <= MAX_NARROW && m <= MAX_NARROW) {
+			out.put (HEAP).put ((byte) h).put ((byte) m);
+		} else {
+			out.put (HEAP_WIDE).putShort ((short) h).putShort ((short) m);
+		}
+	}
+
+	/**
+	 * Write a turn message
+	 *
+	 * @param  out  Buffer to write into
+	 * @param  pid  Id of the player whose turn it is
+	 */
+	public static void putTurn
+		(ByteBuffer out,
+		 int pid)
+		{
+		out.put (TURN).put ((byte) pid);
+	}
+
+	/**
+	 * Write a winner message
+	 *
+	 * @param  out  Buffer to write into
+	 * @param  pid  Id of the winner
+	 */
+	public static void putWinner
+		(ByteBuffer out,
+		 int pid)
+		{
+		out.put (WINNER).put ((byte) pid);
+	}
+
+	/**
+	 * Write a game state message: the whole game in one message, so a client
+	 * can apply it no matter which earlier messages it missed. The epoch counts
+	 * games and the version counts moves within a game; a client ignores any
+	 * state older than the last one it applied.
+	 *
+	 * @param  out      Buffer to write into
+	 * @param  epoch    Number of the game, starting at 1
+	 * @param  version  Number of moves made in this game
+	 * @param  turn     Id of the player whose turn it is
+	 * @param  winner   Id of the winner, or NO_WINNER
+	 * @param  scores   Both players' scores
+	 * @param  heaps    Number of markers left in each heap
+	 */
+	public static void putState
+		(ByteBuffer out,
+		 int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps)
+		{
+		out.put (STATE).putInt (epoch).putShort ((short) version);
+		out.put ((byte) turn).put ((byte) winner);
+		out.put ((byte) scores[0]).put ((byte) scores[1]);
+		out.put ((byte) heaps.length);
+		for (int i = 0; i < heaps.length; i++) {
+			out.put ((byte) heaps[i]);
+		}
+	}
+
+	/**
+	 * Returns whether a whole game state fits a state message. Larger boards
+	 * and scores need state range messages.
+	 *
+	 * @param  scores  Both players' scores
+	 * @param  heaps   Number of markers left in each heap
+	 *
+	 * @return  true if putState() can encode the state, else false
+	 */
+	public static boolean fitsState
+		(int[] scores,
+		 int[] heaps)
+		{
+		if (heaps.length > 255 || scores[0] > 255 || scores[1] > 255) {
+			return false;
+		}
+		for (int i = 0; i < heaps.length; i++) {
+			if (heaps[i] > 255) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write a state range message: the game state with the counts of a run
+	 * of heaps only, in wide fields. A large board takes several of these,
+	 * and a move on one needs only the heap that changed.
+	 *
+	 * @param  out      Buffer to write into
+	 * @param  epoch    Number of the game, starting at 1
+	 * @param  version  Number of moves made in this game
+	 * @param  turn     Id of the player whose turn it is
+	 * @param  winner   Id of the winner, or NO_WINNER
+	 * @param  scores   Both players' scores
+	 * @param  heaps    Number of markers left in each heap
+	 * @param  first    Id of the first heap to include
+	 * @param  count    Number of heaps to include
+	 */
+	public static void putStateRange
+		(ByteBuffer out,
+		 int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 int first,
+		 int count)
+		{
+		out.put (STATE_RANGE).putInt (epoch).putShort ((short) version);
+		out.put ((byte) turn).put ((byte) winner);
+		out.putShort ((short) scores[0]).putShort ((short) scores[1]);
+		out.putShort ((short) heaps.length);
+		out.putShort ((short) first).putShort ((short) count);
+		for (int i = first; i < first + count; i++) {
+			out.putShort ((short) heaps[i]);
+		}
+	}
+
+	/**
+	 * Write a message made of only an opcode, such as new game or quit
+	 *
+	 * @param  out     Buffer to write into
+	 * @param  opcode  The message's opcode
+	 */
+	public static void putOpcode
+		(ByteBuffer out,
+		 byte opcode)
+		{
+		out.put (opcode);
+	}
+
+	/**
+	 * Start a composite frame: a 'C' opcode and a message count, followed by
+	 * that many ordinary messages back to back. The count is written as zero
+	 * and filled in by endComposite().
+	 *
+	 * @param  out  Buffer to write into
+	 *
+	 * @return  Position of the count byte, to pass to endComposite()
+	 */
+	public static int beginComposite
+		(ByteBuffer out)
+		{
+		out.put (COMPOSITE);
+		int countPosition = out.position();
+		out.put ((byte) 0);
+		return countPosition;
+	}
+
+	/**
+	 * Finish a composite frame by filling in its message count
+	 *
+	 * @param  out            Buffer holding the frame
+	 * @param  countPosition  Value returned by beginComposite()
+	 * @param  count          Number of messages written after the header
+	 */
+	public static void endComposite
+		(ByteBuffer out,
+		 int countPosition,
+		 int count)
+		{
+		out.put (countPosition, (byte) count);
+	}
+
+	/**
+	 * Write a string in modified UTF-8, as DataOutput.writeUTF does
+	 *
+	 * @param  out  Buffer to write into
+	 * @param  s    String to write
+	 *
+	 * @exception  UTFDataFormatException
+	 *     Thrown if the encoded string is longer than 65535 bytes
+	 */
+	public static void putUTF
+		(ByteBuffer out,
+		 String s)
+		throws UTFDataFormatException
+		{
+		int n = s.length();
+		int length = utfLength (s);
+		if (length > 65535) {
+			throw new UTFDataFormatException
+				("Encoded string too long: " + length + " bytes");
+		}
+
+		out.putShort ((short) length);
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt (i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				out.put ((byte) c);
+			} else if (c <= 0x07FF) {
+				out.put ((byte) (0xC0 | ((c >> 6) & 0x1F)));
+				out.put ((byte) (0x80 | (c & 0x3F)));
+			} else {
+				out.put ((byte) (0xE0 | ((c >> 12) & 0x0F)));
+				out.put ((byte) (0x80 | ((c >> 6) & 0x3F)));
+				out.put ((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	/**
+	 * Returns whether a player name is short enough to send
+	 *
+	 * @param  playerName  The player's name
+	 *
+	 * @return  true if it takes at most MAX_NAME bytes, else false
+	 */
+	public static boolean fitsName
+		(String playerName)
+		{
+		return utfLength (playerName) <= MAX_NAME;
+	}
+
+	/**
+	 * Read a player name, refusing one longer than MAX_NAME bytes before
+	 * decoding it
+	 *
+	 * @param  in  Buffer to read from
+	 *
+	 * @return  The name
+	 *
+	 * @exception  UTFDataFormatException
+	 *     Thrown if the name is too long or is not valid modified UTF-8
+	 */
+	public static String getName
+		(ByteBuffer in)
+		throws UTFDataFormatException
+		{
+		if (in.remaining() >= 2 &&
+				(in.getShort (in.position()) & 0xFFFF) > MAX_NAME) {
+			throw new UTFDataFormatException ("Name too long");
+		}
+		return getUTF (in);
+	}
+
+	/**
+	 * Read a string in modified UTF-8, as DataInput.readUTF does
+	 *
+	 * @param  in  Buffer to read from
+	 *
+	 * @return  The decoded string
+	 *
+	 * @exception  UTFDataFormatException
+	 *     Thrown if the bytes are not valid modified UTF-8
+	 */
+	public static String getUTF
+		(ByteBuffer in)
+		throws UTFDataFormatException
+		{
+		int length = in.getShort() & 0xFFFF;
+		if (length > in.remaining()) {
+			throw new UTFDataFormatException ("Truncated string");
+		}
+		char[] chars = new char [length];
+		int count = 0;
+		int end = in.position() + length;
+		while (in.position() < end) {
+			int a = in.get() & 0xFF;
+			if (a < 0x80) {
+				chars[count++] = (char) a;
+			} else if ((a & 0xE0) == 0xC0) {
+				int b = continuation (in, end);
+				chars[count++] = (char) (((a & 0x1F) << 6) | b);
+			} else if ((a & 0xF0) == 0xE0) {
+				int b = continuation (in, end);
+				int c = continuation (in, end);
+				chars[count++] = (char) (((a & 0x0F) << 12) | (b << 6) | c);
+			} else {
+				throw new UTFDataFormatException ("Malformed string");
+			}
+		}
+		return new String (chars, 0, count);
+	}
+
+// Hidden operations
+
+	/**
+	 * Throw if a player name is longer than MAX_NAME bytes
+	 */
+	private static void checkName
+		(String playerName)
+		throws UTFDataFormatException
+		{
+		if (!fitsName (playerName)) {
+			throw new UTFDataFormatException
+				("Name too long: " + utfLength (playerName) + " bytes");
+		}
+	}
+
+	/**
+	 * Returns the number of bytes a string takes in modified UTF-8, not
+	 * counting the length in front
+	 */
+	private static int utfLength
+		(String s)
+		{
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt (i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				length += 1;
+			} else if (c <= 0x07FF) {
+				length += 2;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Read one continuation byte of a multi-byte character
+	 *
+	 * @param  in   Buffer to read from
+	 * @param  end  Position just past the end of the string
+	 *
+	 * @return  The low six bits of the continuation byte
+	 *
+	 * @exception  UTFDataFormatException
+	 *     Thrown if the byte is missing or is not a continuation byte
+	 */
+	private static int continuation
+		(ByteBuffer in,
+		 int end)
+		throws UTFDataFormatException
+		{
+		if (in.position() >= end) {
+			throw new UTFDataFormatException ("Malformed string");
+		}
+		int b = in.get() & 0xFF;
+		if ((b & 0xC0) != 0x80) {
+			throw new UTFDataFormatException ("Malformed string");
+		}
+		return b & 0x3F;
+	}
+}
@@ -17,6 +17,25 @@ import java.io.IOException;
  */
 public interface ModelListener {
 
+	/**
+	 * Start batching notifications. Every notification until the matching
+	 * endUpdate() is delivered together, in order, as one update.
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void beginUpdate()
+		throws IOException;
+
+	/**
+	 * Deliver the notifications batched since beginUpdate()
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void endUpdate()
+		throws IOException;
+
 	/**
 	 * Disables the heaps on initial join and
 	 * reports id has been set
@@ -36,6 +55,19 @@ public interface ModelListener {
 	public void nameSet
 		(int pid, String playerName)
 		throws IOException;
+
+	/**
+	 * Report a player's win/loss record from earlier games
+	 *
+	 * @param  pid     The player's id
+	 * @param  wins    Games the player has won
+	 * @param  losses  Games the player has lost
+	 */
+	public void recordSet
+		(int pid,
+		 int wins,
+		 int losses)
+		throws IOException;
 	
 	/**
 	 * Set initial player scores
@@ -78,6 +110,31 @@ public interface ModelListener {
 	public void winnerSet
 		(int pid)
 		throws IOException;
+
+	/**
+	 * Report the game state. Sent after every change and periodically, so a
+	 * client that missed or reordered messages still catches up. On a large
+	 * board only the heaps in the given range are reported.
+	 *
+	 * @param  epoch    Number of the game, starting at 1
+	 * @param  version  Number of moves made in this game
+	 * @param  turn     Id of the player whose turn it is
+	 * @param  winner   Id of the winner, or MessageCodec.NO_WINNER
+	 * @param  scores   Both players' scores
+	 * @param  heaps    Number of markers left in each heap
+	 * @param  first    Id of the first heap to report
+	 * @param  count    Number of heaps to report
+	 */
+	public void stateSet
+		(int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 int first,
+		 int count)
+		throws IOException;
 	
 	/**
 	 * Removes the winner text from the UI
@@ -0,0 +1,428 @@
+//******************************************************************************
+//
+// File:    MoveJournal.java
+// Package: ---
+// Unit:    Class MoveJournal.java
+//
+//******************************************************************************
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Class MoveJournal is a write-ahead journal of everything that changes a
+ * game: each session's start, every move accepted, every new game and the
+ * quit. Records are keyed by session id and a sequence number the session
+ * counts up, and JournalReader replays them.
+ * <P>
+ * Models append records under their own locks, so each session's records are
+ * in order, but appending only copies the record into a buffer in memory. A
+ * writer thread takes the whole buffer at once, swapping in a second one,
+ * writes it as one batch and forces it to disk: a group commit. While one
+ * batch is being synced the next fills up, so the more sessions are busy the
+ * more records each sync covers, and no game thread ever waits on the disk.
+ * The journal therefore runs behind play by at most one sync.
+ * <P>
+ * File layout: a sequence of batches, each an int length and an int CRC-32 of
+ * the records that follow. A batch torn by a crash fails its checksum; when
+ * the journal is next opened it is read through and cut back to the last good
+ * batch, so the next run's batches follow straight on. The highest session id
+ * found is kept, so that session ids are never reused within a journal. Each
+ * record is a byte type, int session id, int sequence number and long time in
+ * milliseconds, then:
+ * <UL>
+ * <LI>RUN: nothing more, with session id and sequence number 0. Written each
+ *     time the journal is opened. Sessions still open at that point were lost
+ *     with the server's previous run, unless a START restores them.
+ * <LI>START: UTF rules, char board heap count and a char per heap, int epoch,
+ *     int version, int turn, int winner, two int scores, char heap count and
+ *     a char per heap, then each player as SessionSnapshot writes it. Written
+ *     when a session fills, and again when one is restored from a snapshot,
+ *     which rolls back any later records with the same sequence numbers.
+ * <LI>TAKE: char heap, char markers taken.
+ * <LI>NEW_GAME, QUIT: nothing more.
+ * </UL>
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class MoveJournal
+	{
+
+// Exported constants
+
+	/** Record types */
+	public static final byte RUN = 'R';
+	public static final byte START = 'J';
+	public static final byte TAKE = 'T';
+	public static final byte NEW_GAME = 'N';
+	public static final byte QUIT = 'Q';
+
+	/** Bytes in front of each batch */
+	public static final int BATCH_HEADER = 8;
+
+	/** Bytes in front of each record's payload */
+	public static final int RECORD_HEADER = 17;
+
+// Hidden constants
+
+	private static final int INITIAL_BUFFER = 1 << 16;
+	private static final int MAX_BUFFER = 1 << 26;
+
+// Hidden data members
+
+	private FileChannel channel;
+	private ByteBuffer active = ByteBuffer.allocate (INITIAL_BUFFER);
+	private ByteBuffer standby = ByteBuffer.allocate (INITIAL_BUFFER);
+	private ByteBuffer header = ByteBuffer.allocate (BATCH_HEADER);
+	private CRC32 crc = new CRC32();   // writer thread only
+	private boolean closed;            // guarded by this
+	private boolean overflowReported;  // guarded by this
+	private Thread writer;
+	private int nextSessionId;         // past any session id in the file
+
+// Hidden helper classes
+
+	/**
+	 * Class Recovery notes the highest session id in a journal being opened
+	 */
+	private static class Recovery
+		implements JournalReader.Handler
+		{
+		public int nextSessionId;
+
+		public void start (int sessionId, int seq, long time, JournalReader.Game game) {
+			saw (sessionId);
+		}
+		public void take (int sessionId, int seq, long time, int h, int m) {
+			saw (sessionId);
+		}
+		public void newGame (int sessionId, int seq, long time) {
+			saw (sessionId);
+		}
+		public void quit (int sessionId, int seq, long time) {
+			saw (sessionId);
+		}
+		public void run (long time) { }
+
+		private void saw
+			(int sessionId)
+			{
+			nextSessionId = Math.max (nextSessionId, sessionId + 1);
+		}
+	}
+
+// Exported constructors
+
+	/**
+	 * Open the journal in the given file, appending to it if it exists, and
+	 * start the writer thread. An existing journal is read through first, and
+	 * a batch torn by a crash is cut off the end.
+	 *
+	 * @param  file  Journal file
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public MoveJournal
+		(File file)
+		throws IOException
+		{
+		long end = 0;
+		if (file.exists()) {
+			JournalReader reader = new JournalReader (file);
+			Recovery recovery = new Recovery();
+			reader.read (recovery);
+			end = reader.getEnd();
+			nextSessionId = recovery.nextSessionId;
+		}
+		channel = FileChannel.open (file.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if (channel.size() > end) {
+			System.err.println ("Journal cut back to its last good batch, " +
+				(channel.size() - end) + " bytes dropped");
+			channel.truncate (end);
+			channel.force (true);
+		}
+		channel.position (end);
+		putHeader (RUN, 0, 0); // the writer picks it up as it starts
+		writer = new Thread ("MoveJournal-writer")
+			{
+			public void run()
+				{
+				writeLoop();
+				}
+			};
+		writer.setDaemon (true);
+		writer.start();
+	}
+
+// Exported operations
+
+	/**
+	 * Returns the lowest session id not yet used in the journal, so that a
+	 * session manager never reuses one
+	 *
+	 * @return  One more than the highest session id in the file when opened
+	 */
+	public int getNextSessionId() { return nextSessionId; }
+
+	/**
+	 * Record a session's start, or its restore from a snapshot
+	 *
+	 * @param  sessionId  Session id
+	 * @param  seq        Session's sequence number for this record
+	 * @param  rules      Rules of the session's games
+	 * @param  board      Number of markers in each heap at the start of a game
+	 * @param  epoch      Number of the game
+	 * @param  version    Number of moves made in this game
+	 * @param  turn       Id of the player whose turn it is
+	 * @param  winner     Id of the winner, or MessageCodec.NO_WINNER
+	 * @param  scores     Both players' scores
+	 * @param  heaps      Number of markers left in each heap
+	 * @param  players    Both players' view proxies, null for a bot
+	 * @param  names      Both players' names
+	 */
+	public synchronized void start
+		(int sessionId,
+		 int seq,
+		 Ruleset rules,
+		 int[] board,
+		 int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 ViewProxy[] players,
+		 String[] names)
+		{
+		for (;;) {
+			int mark = active.position();
+			try {
+				putHeader (START, sessionId, seq);
+				MessageCodec.putUTF (active, rules.getSpec());
+				putHeaps (board);
+				active.putInt (epoch).putInt (version).putInt (turn)
+					.putInt (winner).putInt (scores[0]).putInt (scores[1]);
+				putHeaps (heaps);
+				for (int pid = 0; pid < 2; pid++) {
+					SessionSnapshot.putPlayer (active, players[pid], names[pid]);
+				}
+				appended (mark);
+				return;
+			} catch (BufferOverflowException exc) {
+				active.position (mark);
+				if (!grow()) {
+					return;
+				}
+			} catch (IOException exc) {
+				active.position (mark); // a name too long to encode
+				System.err.println ("Journal record dropped: " + exc.getMessage());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Record a move
+	 *
+	 * @param  sessionId  Session id
+	 * @param  seq        Session's sequence number for this record
+	 * @param  h          Id of the heap removed from
+	 * @param  m          The number of markers removed
+	 */
+	public synchronized void take
+		(int sessionId,
+		 int seq,
+		 int h,
+		 int m)
+		{
+		if (reserve (RECORD_HEADER + 4)) {
+			int mark = active.position();
+			putHeader (TAKE, sessionId, seq);
+			active.putChar ((char) h).putChar ((char) m);
+			appended (mark);
+		}
+	}
+
+	/**
+	 * Record a new game
+	 *
+	 * @param  sessionId  Session id
+	 * @param  seq        Session's sequence number for this record
+	 */
+	public synchronized void newGame
+		(int sessionId,
+		 int seq)
+		{
+		if (reserve (RECORD_HEADER)) {
+			int mark = active.position();
+			putHeader (NEW_GAME, sessionId, seq);
+			appended (mark);
+		}
+	}
+
+	/**
+	 * Record the end of a session
+	 *
+	 * @param  sessionId  Session id
+	 * @param  seq        Session's sequence number for this record
+	 */
+	public synchronized void quit
+		(int sessionId,
+		 int seq)
+		{
+		if (reserve (RECORD_HEADER)) {
+			int mark = active.position();
+			putHeader (QUIT, sessionId, seq);
+			appended (mark);
+		}
+	}
+
+	/**
+	 * Write out every record appended so far and close the journal
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			writer.join();
+			channel.close();
+		} catch (InterruptedException exc) {
+		} catch (IOException exc) {
+			System.err.println (exc.getMessage());
+		}
+	}
+
+// Hidden operations
+
+	/**
+	 * Write the fields every record starts with
+	 */
+	private void putHeader
+		(byte type,
+		 int sessionId,
+		 int seq)
+		{
+		active.put (type).putInt (sessionId).putInt (seq)
+			.putLong (System.currentTimeMillis());
+	}
+
+	/**
+	 * Write a heap count and a char per heap
+	 */
+	private void putHeaps
+		(int[] heaps)
+		{
+		active.putChar ((char) heaps.length);
+		for (int h = 0; h < heaps.length; h++) {
+			active.putChar ((char) heaps[h]);
+		}
+	}
+
+	/**
+	 * Make room for a record of the given size
+	 *
+	 * @return  false if the record has to be dropped
+	 */
+	private boolean reserve
+		(int bytes)
+		{
+		while (active.remaining() < bytes) {
+			if (!grow()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Double the active buffer, since the writer has fallen behind
+	 *
+	 * @return  false if it is already as large as allowed
+	 */
+	private boolean grow() {
+		if (active.capacity() >= MAX_BUFFER) {
+			if (!overflowReported) {
+				overflowReported = true;
+				System.err.println ("Journal behind by " + MAX_BUFFER +
+					" bytes, dropping records");
+			}
+			return false;
+		}
+		ByteBuffer bigger = ByteBuffer.allocate (active.capacity() * 2);
+		active.flip();
+		bigger.put (active);
+		active = bigger;
+		return true;
+	}
+
+	/**
+	 * Wake the writer if the record just appended is the first of a batch
+	 */
+	private void appended
+		(int mark)
+		{
+		if (mark == 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Commit batches until closed and the last batch is out
+	 */
+	private void writeLoop() {
+		for (;;) {
+			ByteBuffer batch;
+			synchronized (this) {
+				while (active.position() == 0 && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException exc) {
+						return;
+					}
+				}
+				if (active.position() == 0) {
+					return; // closed, nothing left
+				}
+				batch = active;
+				active = standby;
+				standby = batch;
+			}
+			batch.flip();
+			try {
+				commit (batch);
+			} catch (IOException exc) {
+				System.err.println ("Journal write failed: " + exc.getMessage());
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Write one batch and force it to disk
+	 */
+	private void commit
+		(ByteBuffer batch)
+		throws IOException
+		{
+		crc.reset();
+		crc.update (batch.duplicate());
+		header.clear();
+		header.putInt (batch.remaining()).putInt ((int) crc.getValue());
+		header.flip();
+		ByteBuffer[] buffers = {header, batch};
+		while (batch.hasRemaining()) {
+			channel.write (buffers);
+		}
+		channel.force (false);
+	}
+}
@@ -7,11 +7,37 @@
 //******************************************************************************
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Class NimModel provides the server-side model object for Nim
+ * Class NimModel provides the server-side model object for Nim. The board,
+ * the number of heaps and the markers in each, is set per model, so a session
+ * can be played on a board of hundreds of heaps. So is the ruleset, which may
+ * be plain Nim or a subtraction game, played normally or misere.
+ * <P>
+ * On every move the model updates the total number of markers left, the
+ * Grundy sum of the heaps (the nim-sum, for plain Nim), and counts of the
+ * heaps that still allow a move and of those with a Grundy value of two or
+ * more, looking heap values up in the ruleset's table. Validating a move,
+ * spotting the end of a game and telling whether the player to move can force
+ * a win therefore take constant time however large the board.
+ * <P>
+ * On a board small enough for a PackedState, such as the original three
+ * heaps, the whole state is kept packed in one atomic long instead. Moves,
+ * new games, turns and the quit are decided on it by compare-and-set, so a
+ * move that loses a race, or is stale, is turned away without any lock. A
+ * change that wins is put in the slot its ticket names, and whichever thread
+ * holds the right to publish puts the changes out in ticket order: it
+ * journals each one and reports it to the clients. A thread that finds
+ * another publishing leaves its change for that one to publish, so no thread
+ * waits on another's broadcast. The state last published is read without a
+ * lock, by snapshots, bots, spectators, resyncs and for monitoring. Once a
+ * score or the game count outgrows its field the model stops packing, and
+ * like a model on a big board keeps its state in the fields below, under its
+ * lock.
  *
  * @author  Kyle Blyth
  * @version 02-Dec-2015
@@ -22,24 +48,110 @@ public class NimModel
 
 // Hidden data members
 
-	private static final int NUMHEAPS = 3;
-	private int[] heaps = {0, 0, 0};
+	/** The board of the original game: three heaps of 3, 4 and 5 markers */
+	public static final int[] DEFAULT_BOARD = {3, 4, 5};
+
+	/** The rules of the original game: plain Nim, last move wins */
+	public static final Ruleset DEFAULT_RULES = new Ruleset (null, false);
+
+	private int[] board;
+	private boolean largeBoard; // too big to send whole after every move
+	private int[] heaps;
+	private Ruleset rules;
+	private long markersLeft;  // sum of heaps
+	private int grundySum;     // exclusive or of heaps' Grundy values
+	private int movableHeaps;  // heaps with a legal move left
+	private int bigHeaps;      // heaps with a Grundy value of two or more
 	private int[] playerScores = {0, 0};
+	private String[] names = new String [2];
+	private ViewProxy[] players = new ViewProxy [2]; // null for a bot
+	private volatile int journalSeq; // sequence number of the next journal record
 	private int turn;
+	private int epoch = 1;     // games played in this session, this one included
+	private int version;       // moves made in this game
+	private int winner = MessageCodec.NO_WINNER;
+	private boolean quit;
+	private int sessionId;
+	private volatile long lastActivity = TimingWheel.now();
 	private SessionManager sessionManager;
 	
-	private ArrayList<ModelListener> listeners =
-		new ArrayList<ModelListener>();
+	private CopyOnWriteArrayList<ModelListener> listeners =
+		new CopyOnWriteArrayList<ModelListener>();
+	private Broadcast broadcast = new Broadcast(); // players and spectators
+	
+	// The packed state, or PackedState.WIDE once the fields above hold it
+	private AtomicLong state = new AtomicLong(PackedState.WIDE);
+	private volatile long published = PackedState.WIDE; // last put out
+	private volatile int publishedCount; // changes put out
+	private volatile int publishing; // odd while publishing, for snapshots
+	private AtomicBoolean draining = new AtomicBoolean(); // right to publish
+	private Change[] changes = new Change [SLOTS];
+	private int[] outHeaps;    // for the thread publishing
+	private int[] outScores = new int [2];
+
+	// Kinds of change to the packed state
+	private static final int MOVE = 0;
+	private static final int NEW_GAME = 1;
+	private static final int TURN = 2;
+	private static final int QUIT = 3;
+	private static final int START = 4;
+
+	// Most changes waiting to be published. A session's moves come in on
+	// one shard, so more than one or two are seldom waiting.
+	private static final int SLOTS = 4;
+
+	/**
+	 * A change decided on the packed state, in the slot its ticket names
+	 * until it is published
+	 */
+	private static class Change
+		{
+		volatile int number; // changes made, this one included
+		int kind;
+		int h;
+		int m;
+		long next;           // the state it made
+		PipelineEvents.ModelUpdate event;
+	}
 
 // Exported constructors
 
 	/**
-	 * Construct a new Nim model
+	 * Construct a new Nim model on the default board
 	 */
 	public NimModel() {
-		// initialize heaps
-		for(int i = 0; i < NUMHEAPS; i++) {
-			heaps[i] = 3 + i;
+		this(DEFAULT_BOARD, DEFAULT_RULES);
+	}
+
+	/**
+	 * Construct a new Nim model
+	 *
+	 * @param  board  Number of markers in each heap at the start of a game
+	 * @param  rules  Rules of the game, shared with other models
+	 */
+	public NimModel
+		(int[] board,
+		 Ruleset rules)
+		{
+		this.board = board.clone();
+		this.rules = rules;
+		int max = 0;
+		for(int size : board) {
+			max = Math.max(max, size);
+		}
+		rules.prepare(max);
+		this.heaps = new int [board.length];
+		this.largeBoard = !MessageCodec.fitsState(playerScores, board);
+		resetHeaps();
+		listeners.add (broadcast);
+		for(int i = 0; i < changes.length; i++) {
+			changes[i] = new Change();
+		}
+		outHeaps = new int [board.length];
+		if(PackedState.fits(board)) {
+			published = PackedState.pack(epoch, version, turn, winner,
+				playerScores, heaps, false);
+			state.set(published);
 		}
 	}
 
@@ -55,6 +167,20 @@ public class NimModel
 		{
 		// Record listener.
 		listeners.add (modelListener);
+		lastActivity = TimingWheel.now();
+	}
+
+	/**
+	 * Add a player's client to this Nim model. Every update is encoded once
+	 * for all of the session's clients, players and spectators alike.
+	 *
+	 * @param  proxy  The player's view proxy
+	 */
+	public synchronized void addPlayer
+		(ViewProxy proxy)
+		{
+		broadcast.addPlayer(proxy);
+		lastActivity = TimingWheel.now();
 	}
 	
 	/**
@@ -68,6 +194,99 @@ public class NimModel
 		this.sessionManager = s;
 	}
 
+	/**
+	 * Set the id of the session this model belongs to
+	 * 
+	 * @param  id  The session id
+	 */
+	public synchronized void setSessionId
+		(int id)
+		{
+		this.sessionId = id;
+	}
+	
+	/**
+	 * Returns the id of the session this model belongs to
+	 * 
+	 * @return  sessionId  The session id
+	 */
+	public synchronized int getSessionId() { return sessionId; }
+
+	/**
+	 * Returns when a player last joined, moved or started a new game
+	 * 
+	 * @return  lastActivity  Time on the TimingWheel.now() clock
+	 */
+	public long getLastActivity() { return lastActivity; }
+
+	/**
+	 * Returns the number of markers left on the board
+	 * 
+	 * @return  markersLeft  Sum of the heaps
+	 */
+	public long getMarkersLeft() {
+		long s = published;
+		if(s == PackedState.WIDE) {
+			synchronized(this) {
+				return markersLeft;
+			}
+		}
+		long left = 0;
+		for(int h = 0; h < board.length; h++) {
+			left += PackedState.heap(s, h);
+		}
+		return left;
+	}
+
+	/**
+	 * Returns the rules this model plays by
+	 * 
+	 * @return  rules  The ruleset
+	 */
+	public Ruleset getRules() { return rules; }
+
+	/**
+	 * Returns the Grundy sum of the board. Under normal play the player to
+	 * move can force a win exactly when it is not zero.
+	 * 
+	 * @return  grundySum  Exclusive or of the heaps' Grundy values
+	 */
+	public int getGrundySum() {
+		long s = published;
+		if(s == PackedState.WIDE) {
+			synchronized(this) {
+				return grundySum;
+			}
+		}
+		int sum = 0;
+		for(int h = 0; h < board.length; h++) {
+			sum ^= rules.grundy(PackedState.heap(s, h));
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the number of heaps with a Grundy value of two or more, which
+	 * decides the strategy under misere play
+	 * 
+	 * @return  bigHeaps  The number of such heaps
+	 */
+	public int getBigHeaps() {
+		long s = published;
+		if(s == PackedState.WIDE) {
+			synchronized(this) {
+				return bigHeaps;
+			}
+		}
+		int big = 0;
+		for(int h = 0; h < board.length; h++) {
+			if(rules.grundy(PackedState.heap(s, h)) >= 2) {
+				big++;
+			}
+		}
+		return big;
+	}
+
 	/**
 	 * Join the given session
 	 *
@@ -84,6 +303,22 @@ public class NimModel
 		{
 	}
 
+	/**
+	 * Watch the given session. A player already in a game cannot.
+	 *
+	 * @param  proxy      Reference to view proxy object
+	 * @param  sessionId  Id of the session to watch
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void watch
+		(ViewProxy proxy,
+		 int sessionId)
+		throws IOException
+		{
+	}
+
 	/**
 	 * Remove markers from a heap
 	 *
@@ -93,39 +328,36 @@ public class NimModel
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred
 	 */
-	public synchronized void removeMarker
+	public void removeMarker
 		(int h,
 		 int m)
-		throws IOException 
+		throws IOException
 		{
-		// Update heaps
-		heaps[h] = heaps[h] - m;
-		
-		// switch player turn
-		turn = 1 - turn;
+		take(false, 0, 0, h, m);
+	}
 
-		// Report update to all clients
-		for(int i = 0; i < 2; i++) {
-			listeners.get(i).heapSet (h, m);
-			listeners.get(i).turnSet(turn);
-		}
-		
-		// check for winner
-		int res = 0;
-		
-		for(int i : heaps) {
-			res += i;
-		}
-		
-		if(res == 0) {
-			playerScores[1-turn]++;
-			// Report win to all clients
-			for(int i = 0; i < 2; i++) {
-				listeners.get(i).winnerSet(1 - turn);
-				listeners.get(i).scoreSet(false, 1 - turn, playerScores[1 - turn], "");
-			}
-			return;
-		}
+	/**
+	 * Remove markers from a heap, but only if the game is still at the given
+	 * state. For a player that decided on its move some time before making it.
+	 *
+	 * @param  epoch    Number of the game the move was decided in
+	 * @param  version  Number of moves made when it was decided
+	 * @param  h        Id of the heap removed from
+	 * @param  m        The number of markers removed
+	 * 
+	 * @return  true if the move was made, false if the game had moved on
+	 * 
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public boolean removeMarkerAt
+		(int epoch,
+		 int version,
+		 int h,
+		 int m)
+		throws IOException 
+		{
+		return take(true, epoch, version, h, m);
 	}
 
 	/**
@@ -134,43 +366,50 @@ public class NimModel
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred
 	 */
-	public synchronized void newGame()
+	public void newGame()
 		throws IOException
 		{
-			// set heaps
-			for(int i = 0; i < 3; i++) {
-				heaps[i] = 3 + i;
+		PipelineEvents.ModelUpdate event = new PipelineEvents.ModelUpdate();
+		event.begin();
+		for(;;) {
+			long s = state.get();
+			if(s == PackedState.WIDE) {
+				newGameFields(event);
+				return;
 			}
-			// Report update to all clients.
-			Iterator<ModelListener> iter = listeners.iterator();
-			while (iter.hasNext()) {
-				ModelListener listener = iter.next();
-				turn = 0;
-				listener.turnSet(0);
+			long next = restarted(s);
+			if(next == PackedState.WIDE) {
+				widen(); // too many games to count in a packed state
+			} else if(change(s, next, NEW_GAME, 0, 0, event)) {
+				lastActivity = TimingWheel.now();
+				return;
 			}
 		}
+	}
 
 	/**
 	 * Quit the session
-	 *
-	 * @exception  IOException
-	 *     Thrown if an I/O error occurred
 	 */
-	public synchronized void quit() {
-		// tell clients to quit
-		Iterator<ModelListener> iter = listeners.iterator();
-		while (iter.hasNext()) {
-			ModelListener listener = iter.next();
-			try {
-				listener.gameQuit();
-			} catch (IOException exc) {
-				// Client failed, stop reporting to it.
-				iter.remove();
+	public void quit() {
+		PipelineEvents.ModelUpdate event = new PipelineEvents.ModelUpdate();
+		event.begin();
+		try {
+			for(;;) {
+				long s = state.get();
+				if(s == PackedState.WIDE) {
+					quitFields(event);
+					return;
+				}
+				// the other player's client sends its own quit on the way out
+				if(PackedState.isQuit(s) ||
+						change(s, PackedState.withQuit(s), QUIT, 0, 0, event)) {
+					return;
+				}
 			}
+		} catch (IOException exc) {
+			// a client's failed send, from publishing a change before this one
+			System.err.println ("Update failed: " + exc.getMessage());
 		}
-		
-		// quit this session
-		sessionManager.removeSession(this);
 	}
 
 	/**
@@ -188,8 +427,27 @@ public class NimModel
 		throws IOException 
 		{
 		// tell client to set name
+		names[playerId] = playerName;
 		proxy.nameSet(playerId, playerName);
 	}
+
+	/**
+	 * Set a player's win/loss record
+	 * 
+	 * @param  proxy     Proxy of the client we're notifying
+	 * @param  playerId  The ID of the player
+	 * @param  wins      Games the player has won
+	 * @param  losses    Games the player has lost
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized void setRecord
+		(ViewProxy proxy, int playerId, int wins, int losses) 
+		throws IOException 
+		{
+		proxy.recordSet(playerId, wins, losses);
+	}
 	
 	/**
 	 * Set a player ID
@@ -205,10 +463,187 @@ public class NimModel
 		(ViewProxy proxy, int playerId, String playerName) 
 		throws IOException 
 		{
+		players[playerId] = proxy;
 		setName(proxy, playerId, playerName);
 		proxy.idSet(playerId);
 	}
 
+	/**
+	 * Add a spectator. The spectator is sent both names and the whole state
+	 * in one datagram, then every update from now on. A session already over just tells the
+	 * spectator so.
+	 * 
+	 * @param  proxy  The spectator's view proxy
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void addSpectator
+		(ViewProxy proxy)
+		throws IOException
+		{
+		// added before the state is read, so no change published after the
+		// state sent is missed; an older one sent after is ignored
+		broadcast.addSpectator(proxy);
+		if(!sendState(proxy, -1)) {
+			broadcast.removeSpectator(proxy);
+			proxy.gameQuit();
+		}
+	}
+
+	/**
+	 * Remove a spectator
+	 * 
+	 * @param  proxy  The spectator's view proxy
+	 */
+	public synchronized void removeSpectator
+		(ViewProxy proxy)
+		{
+		broadcast.removeSpectator(proxy);
+	}
+
+	/**
+	 * Write this session's state to a snapshot, in the layout SessionSnapshot
+	 * reads back. A player seated without setId() is written as a bot. A
+	 * packed state is read without the lock.
+	 *
+	 * @param  out  Buffer to write into
+	 * 
+	 * @return  true if written, false if the session is over or not yet full
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 * @exception  java.nio.BufferOverflowException
+	 *     Thrown if the buffer is too small; the caller grows it and retries
+	 */
+	public boolean snapshot
+		(ByteBuffer out)
+		throws IOException
+		{
+		// the state and the journal sequence number it goes with, read
+		// again if a change was published meanwhile
+		long s;
+		int seq;
+		for(;;) {
+			int before = publishing;
+			s = published;
+			seq = journalSeq;
+			if((before & 1) == 0 && before == publishing) {
+				break;
+			}
+			Thread.yield();
+		}
+		if(s == PackedState.WIDE) {
+			return snapshotFields(out);
+		}
+		// names are set before the first state is published, so reading
+		// it made them visible
+		if(PackedState.isQuit(s) || names[0] == null || names[1] == null) {
+			return false;
+		}
+		out.putInt(sessionId).putInt(seq).putInt(PackedState.epoch(s))
+			.putInt(PackedState.version(s)).putInt(PackedState.turn(s))
+			.putInt(PackedState.winner(s)).putInt(PackedState.score(s, 0))
+			.putInt(PackedState.score(s, 1)).putInt(board.length);
+		for(int h = 0; h < board.length; h++) {
+			out.putChar((char) PackedState.heap(s, h));
+		}
+		for(int pid = 0; pid < 2; pid++) {
+			SessionSnapshot.putPlayer(out, players[pid], names[pid]);
+		}
+		return true;
+	}
+
+	/**
+	 * Put this model in the state read from a snapshot. Called before any
+	 * listener is added.
+	 * 
+	 * @param  journalSeq  Sequence number of the next journal record
+	 * @param  epoch       Number of the game
+	 * @param  version     Number of moves made in this game
+	 * @param  turn        Id of the player whose turn it is
+	 * @param  winner      Id of the winner, or MessageCodec.NO_WINNER
+	 * @param  scores      Both players' scores
+	 * @param  heaps       Number of markers left in each heap
+	 * @param  players     Both players' view proxies, null for a bot
+	 * @param  names       Both players' names
+	 */
+	public synchronized void restore
+		(int journalSeq,
+		 int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 ViewProxy[] players,
+		 String[] names)
+		{
+		this.journalSeq = journalSeq;
+		this.epoch = epoch;
+		this.version = version;
+		this.turn = turn;
+		this.winner = winner;
+		this.playerScores = scores.clone();
+		this.players = players.clone();
+		this.names = names.clone();
+		int max = 0;
+		for(int size : heaps) {
+			max = Math.max(max, size);
+		}
+		rules.prepare(max);
+		this.heaps = heaps.clone();
+		this.largeBoard = !MessageCodec.fitsState(playerScores, heaps);
+		countHeaps();
+
+		// pack it if the board and every count fit
+		published = PackedState.WIDE;
+		if(heaps.length == board.length && PackedState.fits(board)) {
+			published = PackedState.pack(epoch, version, turn, winner,
+				playerScores, heaps, false);
+		}
+		state.set(published);
+	}
+
+	/**
+	 * Record the session's start in the journal, if one is kept. Called once
+	 * both players are seated, and again when the session is restored.
+	 */
+	public void journalStart() {
+		try {
+			for(;;) {
+				long s = state.get();
+				if(s == PackedState.WIDE) {
+					journalStartFields();
+					return;
+				}
+				// in turn with the changes, so the journal sees them in order
+				if(change(s, s, START, 0, 0, null)) {
+					return;
+				}
+			}
+		} catch (IOException exc) {
+			// a client's failed send, from publishing a change before this one
+			System.err.println ("Update failed: " + exc.getMessage());
+		}
+	}
+
+	/**
+	 * Send a client everything it needs to pick up its game again: both
+	 * names, its id and the whole state
+	 * 
+	 * @param  proxy  Proxy of the returning client
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void resync
+		(ViewProxy proxy)
+		throws IOException
+		{
+		sendState(proxy, (players[0] == proxy) ? 0 : 1);
+	}
+
 	/**
 	 * Set the current turn
 	 * 
@@ -217,15 +652,800 @@ public class NimModel
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred
 	 */
-	public synchronized void setTurn
+	public void setTurn
 		(int playerId) 
 		throws IOException 
 		{
-		// tell clients the turn
-		Iterator<ModelListener> iter = listeners.iterator();
-		while (iter.hasNext()) {
-			ModelListener listener = iter.next();
-			listener.turnSet(playerId);
+		// tell clients the turn, along with the rest of the state
+		for(;;) {
+			long s = state.get();
+			if(s == PackedState.WIDE) {
+				setTurnFields(playerId);
+				return;
+			}
+			if(change(s, PackedState.withTurn(s, playerId), TURN, 0, 0, null)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Send the current state to the clients again, in case a datagram
+	 * carrying it was lost
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void refreshState()
+		throws IOException
+		{
+		// a thread already publishing sends the state anyway
+		if(published == PackedState.WIDE || !draining.compareAndSet(false, true)) {
+			if(published == PackedState.WIDE) {
+				refreshStateFields();
+			}
+			return;
+		}
+		IOException failure = null;
+		try {
+			long s = published; // not widened while this thread publishes
+			if(s != PackedState.WIDE && !PackedState.isQuit(s)) {
+				report(s, 0, board.length);
+			}
+		} catch (IOException exc) {
+			failure = exc;
+		} finally {
+			draining.set(false);
+		}
+		// publish any change left while this thread held the right to
+		IOException later = drain();
+		if(failure != null || later != null) {
+			throw (failure != null) ? failure : later;
+		}
+	}
+
+	/**
+	 * Make a move, by compare-and-set if the state is packed
+	 *
+	 * @param  at       Whether to make it only at the given epoch and version
+	 * @param  epoch    Number of the game the move was decided in
+	 * @param  version  Number of moves made when it was decided
+	 * @param  h        Id of the heap removed from
+	 * @param  m        The number of markers removed
+	 *
+	 * @return  false if the game had moved on, true otherwise
+	 */
+	private boolean take
+		(boolean at,
+		 int epoch,
+		 int version,
+		 int h,
+		 int m)
+		throws IOException
+		{
+		PipelineEvents.ModelUpdate event = new PipelineEvents.ModelUpdate();
+		event.begin();
+		for(;;) {
+			long s = state.get();
+			if(s == PackedState.WIDE) {
+				return takeFields(event, at, epoch, version, h, m);
+			}
+			if(PackedState.isQuit(s)) {
+				return !at;
+			}
+			if(at && (epoch != PackedState.epoch(s) ||
+					version != PackedState.version(s))) {
+				return false;
+			}
+			if(h < 0 || h >= board.length ||
+					!rules.isLegal(PackedState.heap(s, h), m)) {
+				System.err.println ("Bad move"); // Stale, forged or against the rules
+				ServerMetrics.badMove();
+				return true;
+			}
+			long next = afterMove(s, h, m);
+			if(next == PackedState.WIDE) {
+				widen(); // a score too high for a packed state
+			} else if(change(s, next, MOVE, h, m, event)) {
+				lastActivity = TimingWheel.now();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * The packed state after a legal move, or PackedState.WIDE if it does
+	 * not fit
+	 */
+	private long afterMove
+		(long s,
+		 int h,
+		 int m)
+		{
+		long next = PackedState.withHeap(s, h, PackedState.heap(s, h) - m);
+		next = PackedState.withVersion(next, PackedState.version(s) + 1);
+		int turn = 1 - PackedState.turn(s);
+		next = PackedState.withTurn(next, turn);
+		for(int i = 0; i < board.length; i++) {
+			if(PackedState.heap(next, i) >= rules.getMinMove()) {
+				return next;
+			}
+		}
+		// the last to move wins, or under misere loses
+		int winner = rules.isMisere() ? turn : 1 - turn;
+		next = PackedState.withWinner(next, winner);
+		return PackedState.withScore(next, winner, PackedState.score(s, winner) + 1);
+	}
+
+	/**
+	 * The packed state at the start of the next game, or PackedState.WIDE if
+	 * it does not fit
+	 */
+	private long restarted
+		(long s)
+		{
+		long next = s;
+		for(int h = 0; h < board.length; h++) {
+			next = PackedState.withHeap(next, h, board[h]);
+		}
+		next = PackedState.withTurn(next, 0);
+		next = PackedState.withWinner(next, MessageCodec.NO_WINNER);
+		next = PackedState.withVersion(next, 0);
+		return PackedState.withEpoch(next, PackedState.epoch(s) + 1);
+	}
+
+	/**
+	 * Make a change to the packed state by compare-and-set, then see it
+	 * published. The change is not made if the state is no longer the one
+	 * given, or if every slot holds a change still to be published.
+	 *
+	 * @param  s      The packed state the change was worked out from
+	 * @param  next   The packed state it makes, ticket aside
+	 * @param  kind   MOVE, NEW_GAME, TURN, QUIT or START
+	 * @param  h      Id of the heap removed from, for a move
+	 * @param  m      The number of markers removed, for a move
+	 * @param  event  Event begun for the change, or null
+	 *
+	 * @return  true if the change was made, false to try again
+	 *
+	 * @exception  IOException
+	 *     Thrown if a client's send failed while publishing
+	 */
+	private boolean change
+		(long s,
+		 long next,
+		 int kind,
+		 int h,
+		 int m,
+		 PipelineEvents.ModelUpdate event)
+		throws IOException
+		{
+		// read after s, so it is never ahead of the changes s counts
+		int count = publishedCount;
+		int mask = PackedState.TICKETS - 1;
+		if(((PackedState.ticket(s) - count) & mask) >= SLOTS) {
+			IOException failure = drain(); // help the changes waiting out
+			if(failure != null) {
+				throw failure;
+			}
+			Thread.yield();
+			return false;
+		}
+		next = PackedState.withNextTicket(next);
+		if(!state.compareAndSet(s, next)) {
+			return false;
+		}
+		count = publishedCount;
+		int number = count + ((PackedState.ticket(next) - count) & mask);
+		Change c = changes[number & (SLOTS - 1)];
+		c.kind = kind;
+		c.h = h;
+		c.m = m;
+		c.next = next;
+		c.event = event;
+		c.number = number;
+		IOException failure = drain();
+		if(failure != null) {
+			throw failure;
+		}
+		return true;
+	}
+
+	/**
+	 * Publish the changes waiting, in order, unless another thread is
+	 * publishing. That thread looks for more changes once it stops, so a
+	 * change left to it is not missed.
+	 *
+	 * @return  The first failure of a client's send, or null
+	 */
+	private IOException drain() {
+		IOException failure = null;
+		do {
+			if(!draining.compareAndSet(false, true)) {
+				break;
+			}
+			try {
+				IOException exc = publishReady();
+				if(failure == null) {
+					failure = exc;
+				}
+			} finally {
+				draining.set(false);
+			}
+		} while(ready());
+		return failure;
+	}
+
+	/**
+	 * Returns whether the next change to publish has been put in its slot
+	 */
+	private boolean ready() {
+		int number = publishedCount + 1;
+		return changes[number & (SLOTS - 1)].number == number;
+	}
+
+	/**
+	 * Publish every change put in its slot, up to the first one not yet put.
+	 * Called by the thread holding the right to publish.
+	 *
+	 * @return  The first failure of a client's send, or null
+	 */
+	private IOException publishReady() {
+		IOException failure = null;
+		while(ready()) {
+			int number = publishedCount + 1;
+			Change c = changes[number & (SLOTS - 1)];
+			try {
+				publish(c);
+			} catch (IOException exc) {
+				if(failure == null) {
+					failure = exc;
+				}
+			} finally {
+				// counted out even if it failed, so the next can follow
+				c.event = null;
+				publishedCount = number;
+			}
+		}
+		return failure;
+	}
+
+	/**
+	 * Publish a change made to the packed state: journal it, make it the
+	 * state readers see and report it to the clients
+	 *
+	 * @param  c  The change
+	 */
+	private void publish
+		(Change c)
+		throws IOException
+		{
+		long s = c.next;
+		int winner = PackedState.winner(s);
+
+		// what a snapshot reads changes together
+		publishing++;
+		try {
+			record(c);
+			published = s;
+		} finally {
+			publishing++;
+		}
+
+		switch(c.kind) {
+			case MOVE:
+				ServerMetrics.moveMade();
+				if(winner != MessageCodec.NO_WINNER) {
+					gameWon(winner);
+				}
+				if(largeBoard) {
+					report(s, c.h, 1);
+				} else {
+					report(s, 0, board.length);
+				}
+				updated(c.event, MessageCodec.TAKE);
+				break;
+			case NEW_GAME:
+				report(s, 0, board.length);
+				updated(c.event, MessageCodec.NEW_GAME);
+				break;
+			case TURN:
+				report(s, 0, board.length);
+				break;
+			case QUIT:
+				quitted(c.event);
+				break;
+		}
+	}
+
+	/**
+	 * Journal a change made to the packed state, if a journal is kept
+	 */
+	private void record
+		(Change c)
+		{
+		MoveJournal journal = journal();
+		if(journal == null) {
+			return;
+		}
+		long s = c.next;
+		switch(c.kind) {
+			case MOVE:
+				journal.take(sessionId, journalSeq++, c.h, c.m);
+				break;
+			case NEW_GAME:
+				journal.newGame(sessionId, journalSeq++);
+				break;
+			case QUIT:
+				journal.quit(sessionId, journalSeq++);
+				break;
+			case START:
+				decode(s);
+				journal.start(sessionId, journalSeq++, rules, board,
+					PackedState.epoch(s), PackedState.version(s),
+					PackedState.turn(s), PackedState.winner(s), outScores,
+					outHeaps, players, names);
+				break;
+		}
+	}
+
+	/**
+	 * Stop packing the state, for good. Every change already made is
+	 * published first, so the fields take up the state where the last one
+	 * left it, and from then on they are the state.
+	 */
+	private void widen()
+		throws IOException
+		{
+		// nothing else is published meanwhile, packed or not
+		while(!draining.compareAndSet(false, true)) {
+			Thread.yield();
+		}
+		IOException failure = null;
+		try {
+			for(;;) {
+				IOException exc = publishReady();
+				if(failure == null) {
+					failure = exc;
+				}
+				long s = state.get();
+				if(s == PackedState.WIDE) {
+					break;
+				}
+				int mask = PackedState.TICKETS - 1;
+				if(((PackedState.ticket(s) - publishedCount) & mask) != 0) {
+					Thread.yield(); // a change made but not yet in its slot
+					continue;
+				}
+				synchronized(this) {
+					if(state.compareAndSet(s, PackedState.WIDE)) {
+						load(s);
+						published = PackedState.WIDE;
+						break;
+					}
+				}
+			}
+		} finally {
+			draining.set(false);
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Make a move on the state held in the fields
+	 */
+	private synchronized boolean takeFields
+		(PipelineEvents.ModelUpdate event,
+		 boolean at,
+		 int epoch,
+		 int version,
+		 int h,
+		 int m)
+		throws IOException
+		{
+		if(quit) {
+			return !at;
+		}
+		if(at && (epoch != this.epoch || version != this.version)) {
+			return false;
+		}
+		if(h < 0 || h >= heaps.length || !rules.isLegal(heaps[h], m)) {
+			System.err.println ("Bad move"); // Stale, forged or against the rules
+			ServerMetrics.badMove();
+			return true;
+		}
+		lastActivity = TimingWheel.now();
+
+		// Update heaps and running totals
+		removeHeap(heaps[h]);
+		heaps[h] = heaps[h] - m;
+		addHeap(heaps[h]);
+		markersLeft -= m;
+		this.version++;
+		ServerMetrics.moveMade();
+		MoveJournal journal = journal();
+		if(journal != null) {
+			journal.take(sessionId, journalSeq++, h, m);
+		}
+
+		// switch player turn
+		turn = 1 - turn;
+
+		// check for winner: the last to move wins, or under misere loses
+		if(movableHeaps == 0) {
+			winner = rules.isMisere() ? turn : 1 - turn;
+			playerScores[winner]++;
+			gameWon(winner);
+		}
+
+		// Report the new state, so a lost or repeated datagram cannot leave
+		// a client's heaps wrong. A large board needs only the heap moved.
+		if(largeBoard) {
+			reportState(h, 1);
+		} else {
+			reportState(0, heaps.length);
+		}
+		updated(event, MessageCodec.TAKE);
+		return true;
+	}
+
+	/**
+	 * Start a new game on the state held in the fields
+	 */
+	private synchronized void newGameFields
+		(PipelineEvents.ModelUpdate event)
+		throws IOException
+		{
+		lastActivity = TimingWheel.now();
+
+		// set heaps
+		resetHeaps();
+		turn = 0;
+		epoch++;
+		version = 0;
+		winner = MessageCodec.NO_WINNER;
+		MoveJournal journal = journal();
+		if(journal != null) {
+			journal.newGame(sessionId, journalSeq++);
+		}
+		// Report update to all clients.
+		reportState(0, heaps.length);
+		updated(event, MessageCodec.NEW_GAME);
+	}
+
+	/**
+	 * Quit the session held in the fields
+	 */
+	private synchronized void quitFields
+		(PipelineEvents.ModelUpdate event)
+		{
+		if(quit) {
+			return;
+		}
+		quit = true;
+		MoveJournal journal = journal();
+		if(journal != null) {
+			journal.quit(sessionId, journalSeq++);
+		}
+		quitted(event);
+	}
+
+	/**
+	 * Write this session's state to a snapshot from the fields
+	 */
+	private synchronized boolean snapshotFields
+		(ByteBuffer out)
+		throws IOException
+		{
+		if(quit || names[0] == null || names[1] == null) {
+			return false;
+		}
+		out.putInt(sessionId).putInt(journalSeq).putInt(epoch).putInt(version)
+			.putInt(turn).putInt(winner).putInt(playerScores[0])
+			.putInt(playerScores[1]).putInt(heaps.length);
+		for(int h = 0; h < heaps.length; h++) {
+			out.putChar((char) heaps[h]);
+		}
+		for(int pid = 0; pid < 2; pid++) {
+			SessionSnapshot.putPlayer(out, players[pid], names[pid]);
+		}
+		return true;
+	}
+
+	/**
+	 * Record the session's start in the journal from the fields
+	 */
+	private synchronized void journalStartFields() {
+		MoveJournal journal = journal();
+		if(journal != null) {
+			journal.start(sessionId, journalSeq++, rules, board, epoch, version,
+				turn, winner, playerScores, heaps, players, names);
+		}
+	}
+
+	/**
+	 * Set the current turn in the fields
+	 */
+	private synchronized void setTurnFields
+		(int playerId)
+		throws IOException
+		{
+		turn = playerId;
+		reportState(0, heaps.length);
+	}
+
+	/**
+	 * Send the state held in the fields to the clients again
+	 */
+	private synchronized void refreshStateFields()
+		throws IOException
+		{
+		if(!quit) {
+			reportState(0, heaps.length);
+		}
+	}
+
+	/**
+	 * Send one client both names and the whole state, in one datagram, with
+	 * its id if it is a player
+	 *
+	 * @param  proxy  The client's view proxy
+	 * @param  pid    The player's id, or -1 for a spectator
+	 *
+	 * @return  false, and nothing sent, if a spectator came to a session
+	 *     already over
+	 */
+	private boolean sendState
+		(ViewProxy proxy,
+		 int pid)
+		throws IOException
+		{
+		long s = published;
+		if(s == PackedState.WIDE) {
+			return sendStateFields(proxy, pid);
+		}
+		if(pid < 0 && PackedState.isQuit(s)) {
+			return false;
+		}
+		int[] heaps = new int [board.length];
+		for(int h = 0; h < heaps.length; h++) {
+			heaps[h] = PackedState.heap(s, h);
+		}
+		int[] scores = {PackedState.score(s, 0), PackedState.score(s, 1)};
+		proxy.beginUpdate();
+		try {
+			proxy.nameSet(0, names[0]);
+			proxy.nameSet(1, names[1]);
+			if(pid >= 0) {
+				proxy.idSet(pid);
+			}
+			proxy.stateSet(PackedState.epoch(s), PackedState.version(s),
+				PackedState.turn(s), PackedState.winner(s), scores, heaps,
+				0, heaps.length);
+		} finally {
+			proxy.endUpdate();
+		}
+		return true;
+	}
+
+	/**
+	 * Send one client both names and the whole state from the fields
+	 */
+	private synchronized boolean sendStateFields
+		(ViewProxy proxy,
+		 int pid)
+		throws IOException
+		{
+		if(pid < 0 && quit) {
+			return false;
+		}
+		proxy.beginUpdate();
+		try {
+			proxy.nameSet(0, names[0]);
+			proxy.nameSet(1, names[1]);
+			if(pid >= 0) {
+				proxy.idSet(pid);
+			}
+			proxy.stateSet
+				(epoch, version, turn, winner, playerScores, heaps, 0, heaps.length);
+		} finally {
+			proxy.endUpdate();
+		}
+		return true;
+	}
+
+	/**
+	 * Count a finished game
+	 *
+	 * @param  winner  Id of the winner
+	 */
+	private void gameWon
+		(int winner)
+		{
+		ServerMetrics.gameWon();
+		if(sessionManager != null && names[0] != null && names[1] != null) {
+			sessionManager.recordResult(names[winner], names[1 - winner]);
+		}
+	}
+
+	/**
+	 * Tell the clients the session is over, and remove it
+	 *
+	 * @param  event  Event begun for the quit
+	 */
+	private void quitted
+		(PipelineEvents.ModelUpdate event)
+		{
+		// tell clients to quit
+		for(ModelListener listener : listeners) {
+			try {
+				listener.gameQuit();
+			} catch (IOException exc) {
+				// Client failed, stop reporting to it.
+				listeners.remove(listener);
+			}
+		}
+
+		updated(event, MessageCodec.QUIT);
+
+		// quit this session
+		sessionManager.removeSession(this);
+	}
+
+	/**
+	 * Load a packed state into the fields
+	 */
+	private void load
+		(long s)
+		{
+		for(int h = 0; h < heaps.length; h++) {
+			heaps[h] = PackedState.heap(s, h);
+		}
+		turn = PackedState.turn(s);
+		winner = PackedState.winner(s);
+		version = PackedState.version(s);
+		epoch = PackedState.epoch(s);
+		playerScores[0] = PackedState.score(s, 0);
+		playerScores[1] = PackedState.score(s, 1);
+		quit = PackedState.isQuit(s);
+		countHeaps();
+	}
+
+	/**
+	 * Unpack the heaps and scores of a packed state, for the thread
+	 * publishing
+	 */
+	private void decode
+		(long s)
+		{
+		for(int h = 0; h < outHeaps.length; h++) {
+			outHeaps[h] = PackedState.heap(s, h);
+		}
+		outScores[0] = PackedState.score(s, 0);
+		outScores[1] = PackedState.score(s, 1);
+	}
+
+	/**
+	 * Send a packed state to every client. Called by the thread holding the
+	 * right to publish.
+	 *
+	 * @param  s      The packed state
+	 * @param  first  Id of the first heap to report
+	 * @param  count  Number of heaps to report
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void report
+		(long s,
+		 int first,
+		 int count)
+		throws IOException
+		{
+		decode(s);
+		for(ModelListener listener : listeners) {
+			listener.stateSet(PackedState.epoch(s), PackedState.version(s),
+				PackedState.turn(s), PackedState.winner(s), outScores, outHeaps,
+				first, count);
+		}
+	}
+
+	/**
+	 * Returns the session manager's journal, or null if none is kept
+	 */
+	private MoveJournal journal() {
+		return (sessionManager == null) ? null : sessionManager.getJournal();
+	}
+
+	/**
+	 * Commit a model update event, if it took long enough to be recorded
+	 */
+	private void updated(PipelineEvents.ModelUpdate event, byte opcode) {
+		event.end();
+		if(event.shouldCommit()) {
+			event.opcode = (char) opcode;
+			event.sessionId = sessionId;
+			event.listeners = listeners.size() - 1 + broadcast.size();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Put every heap back to its starting size
+	 */
+	private void resetHeaps() {
+		if(heaps.length != board.length) {
+			// a game restored from a snapshot taken on another board
+			heaps = new int [board.length];
+			largeBoard = !MessageCodec.fitsState(playerScores, board);
+		}
+		for(int i = 0; i < board.length; i++) {
+			heaps[i] = board[i];
+		}
+		countHeaps();
+	}
+
+	/**
+	 * Count the heaps into the running totals afresh
+	 */
+	private void countHeaps() {
+		markersLeft = 0;
+		grundySum = 0;
+		movableHeaps = 0;
+		bigHeaps = 0;
+		for(int size : heaps) {
+			markersLeft += size;
+			addHeap(size);
+		}
+	}
+
+	/**
+	 * Count a heap of the given size into the running totals
+	 */
+	private void addHeap(int size) {
+		int value = rules.grundy(size);
+		grundySum ^= value;
+		if(size >= rules.getMinMove()) {
+			movableHeaps++;
+		}
+		if(value >= 2) {
+			bigHeaps++;
+		}
+	}
+
+	/**
+	 * Take a heap of the given size out of the running totals
+	 */
+	private void removeHeap(int size) {
+		int value = rules.grundy(size);
+		grundySum ^= value;
+		if(size >= rules.getMinMove()) {
+			movableHeaps--;
+		}
+		if(value >= 2) {
+			bigHeaps--;
+		}
+	}
+
+	/**
+	 * Send the game state to every client
+	 *
+	 * @param  first  Id of the first heap to report
+	 * @param  count  Number of heaps to report
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void reportState
+		(int first,
+		 int count)
+		throws IOException
+		{
+		for(ModelListener listener : listeners) {
+			listener.stateSet
+				(epoch, version, turn, winner, playerScores, heaps, first, count);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -6,8 +6,12 @@
 //
 //******************************************************************************
 
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.DatagramSocket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
 
 /**
  * Class NimServer is the server main program for Nim
@@ -31,33 +35,245 @@ public class NimServer
         {
     	String host = "";
     	int port = 0;
+    	boolean nio = false;
+    	int shards = 1;
+    	int[] board = NimModel.DEFAULT_BOARD;
+    	long botWait = -1;
+    	Ruleset rules = NimModel.DEFAULT_RULES;
+    	String statsFile = null;
+    	String snapshotFile = null;
+    	String journalFile = null;
+    	boolean compactLobby = false;
+    	int pipelineWait = -1; // or -1 for no pipeline
     	
     	// read in parameters
-        if (args.length != 2) usage();
+        if (args.length < 2) usage();
         try {
         	host = args[0];
         	port = Integer.parseInt (args[1]);
+        	int i = 2;
+        	if (i < args.length && args[i].equals ("nio")) {
+        		nio = true;
+        		++i;
+        		if (i < args.length && Character.isDigit (args[i].charAt (0))) {
+        			shards = Integer.parseInt (args[i++]);
+        			if (shards < 1) usage();
+        		}
+        	}
+        	for (; i < args.length; i += 2) {
+        		if (i + 1 == args.length) usage();
+        		if (args[i].equals ("board")) {
+        			board = parseBoard (args[i + 1]);
+        		} else if (args[i].equals ("rules")) {
+        			rules = Ruleset.parse (args[i + 1]);
+        		} else if (args[i].equals ("bot")) {
+        			botWait = Long.parseLong (args[i + 1]) * 1000L;
+        			if (botWait < 0) usage();
+        		} else if (args[i].equals ("stats")) {
+        			statsFile = args[i + 1];
+        		} else if (args[i].equals ("snapshot")) {
+        			snapshotFile = args[i + 1];
+        		} else if (args[i].equals ("journal")) {
+        			journalFile = args[i + 1];
+        		} else if (args[i].equals ("lobby")) {
+        			if (!args[i + 1].equals ("compact")) usage();
+        			compactLobby = true;
+        		} else if (args[i].equals ("pipeline")) {
+        			pipelineWait = PacketRing.parseWait (args[i + 1]);
+        		} else {
+        			usage();
+        		}
+        	}
+        	if (nio && pipelineWait >= 0) usage();
         } catch(Exception e) {
         	System.err.println(e.getMessage());
         	System.exit(1);
         }
 
-        DatagramSocket mailbox =
-            new DatagramSocket
-                (new InetSocketAddress (host, port));
+        SessionManager sessionManager = new SessionManager (board, rules);
+        sessionManager.setBotWait (botWait);
+        sessionManager.setCompactLobby (compactLobby);
+        if (statsFile != null) {
+            final StatsStore stats = new StatsStore (new File (statsFile));
+            sessionManager.setStatsStore (stats);
+            Runtime.getRuntime().addShutdownHook (new Thread()
+                {
+                public void run()
+                    {
+                    stats.close();
+                    }
+                });
+        }
+        if (journalFile != null) {
+            final MoveJournal journal = new MoveJournal (new File (journalFile));
+            sessionManager.setJournal (journal);
+            Runtime.getRuntime().addShutdownHook (new Thread()
+                {
+                public void run()
+                    {
+                    journal.close();
+                    }
+                });
+        }
+        ServerMetrics.register (sessionManager);
+        SessionSnapshot snapshot = null;
+        if (snapshotFile != null) {
+            snapshot = new SessionSnapshot (new File (snapshotFile), sessionManager);
+        }
+        if (nio) {
+            runShards
+                (new InetSocketAddress (host, port), shards, sessionManager,
+                 snapshot);
+        } else {
+            DatagramSocket mailbox =
+                new DatagramSocket
+                    (new InetSocketAddress (host, port));
 
-        MailboxManager manager = new MailboxManager (mailbox);
+            MailboxManager manager;
+            if (pipelineWait < 0) {
+                manager = new MailboxManager (mailbox, sessionManager);
+            } else {
+                manager = new MailboxManager
+                    (mailbox, sessionManager, pipelineWait);
+                Thread.currentThread().setName ("NimServer logic");
+            }
+            if (snapshot != null) {
+                restore (snapshot, new Mailbox[] {manager.getMailbox()});
+            }
 
-        while(true) {
-            manager.receiveMessage();
+            while(true) {
+                manager.receiveMessage();
+            }
         }
 	}
 
+    /**
+     * Run the given number of channel mailbox manager shards, all bound to the
+     * same address, each on its own thread, sharing one session manager
+     *
+     * @param  address         Address to bind every shard's channel to
+     * @param  shards          Number of shards
+     * @param  sessionManager  Session manager for every shard
+     * @param  snapshot        Session snapshot to restore from, or null
+     *
+     * @throws  Exception  thrown if an exception occurs
+     */
+    private static void runShards
+        (InetSocketAddress address,
+         int shards,
+         SessionManager sessionManager,
+         SessionSnapshot snapshot)
+        throws Exception
+        {
+        final ChannelMailboxManager[] managers =
+            new ChannelMailboxManager [shards];
+        for (int i = 0; i < shards; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            if (shards > 1) {
+                if (!channel.supportedOptions().contains
+                        (StandardSocketOptions.SO_REUSEPORT)) {
+                    System.err.println
+                        ("SO_REUSEPORT not supported, cannot run shards");
+                    System.exit (1);
+                }
+                channel.setOption (StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind (address);
+            managers[i] = new ChannelMailboxManager (channel, sessionManager);
+        }
+        if (snapshot != null) {
+            restore (snapshot, managers);
+        }
+
+        for (int i = 1; i < shards; i++) {
+            final ChannelMailboxManager manager = managers[i];
+            Thread thread = new Thread ("NimServer shard " + i) {
+                public void run() {
+                    try {
+                        manager.run();
+                    } catch (Exception exc) {
+                        exc.printStackTrace (System.err);
+                        System.exit (1);
+                    }
+                }
+            };
+            thread.start();
+        }
+        managers[0].run();
+    }
+
+    /**
+     * Parse a board: either heap sizes separated by commas, such as 3,4,5, or
+     * <heaps>x<markers> for that many heaps of the same size, such as 500x2000
+     *
+     * @param  spec  Board given on the command line
+     *
+     * @return  Number of markers in each heap
+     */
+    private static int[] parseBoard
+        (String spec)
+        {
+        int[] board;
+        int x = spec.indexOf ('x');
+        if (x >= 0) {
+            board = new int [Integer.parseInt (spec.substring (0, x))];
+            Arrays.fill (board, Integer.parseInt (spec.substring (x + 1)));
+        } else {
+            String[] sizes = spec.split (",");
+            board = new int [sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                board[i] = Integer.parseInt (sizes[i]);
+            }
+        }
+        if (board.length < 1 || board.length > MessageCodec.MAX_WIDE) usage();
+        for (int size : board) {
+            if (size < 1 || size > MessageCodec.MAX_WIDE) usage();
+        }
+        return board;
+    }
+
+    /**
+     * Restore the sessions in a snapshot, then take a snapshot now and then
+     * and a last one when the server is stopped
+     *
+     * @param  snapshot  Session snapshot
+     * @param  hosts     Mailboxes of the shards to host restored sessions
+     *
+     * @throws  Exception  thrown if an exception occurs
+     */
+    private static void restore
+        (final SessionSnapshot snapshot,
+         Mailbox[] hosts)
+        throws Exception
+        {
+        long start = System.nanoTime();
+        int restored = snapshot.restore (hosts);
+        if (restored > 0) {
+            System.out.println ("Restored " + restored + " sessions in " +
+                (System.nanoTime() - start) / 1000000L + " ms");
+        }
+        snapshot.start();
+        Runtime.getRuntime().addShutdownHook (new Thread()
+            {
+            public void run()
+                {
+                snapshot.close();
+                }
+            });
+    }
+
     /**
      * Print a usage message and exit
      */
     private static void usage() {
-        System.err.println ("Usage: java NimServer <host> <port>");
+        System.err.println ("Usage: java NimServer <host> <port> [nio [<shards>]] [board <board>] [rules <rules>] [bot <seconds>] [stats <file>] [snapshot <file>] [journal <file>] [lobby compact] [pipeline <wait>]");
+        System.err.println ("<board> is heap sizes such as 3,4,5, or <heaps>x<markers>");
+        System.err.println ("<rules> is nim or a subtraction set such as 1,2,3, optionally preceded by misere:");
+        System.err.println ("bot seats a computer opponent after <seconds> without one");
+        System.err.println ("stats keeps players' win/loss records in <file>");
+        System.err.println ("snapshot saves games in progress to <file> and restores them on restart");
+        System.err.println ("journal writes every move to <file>; read it with java JournalReader");
+        System.err.println ("pipeline, without nio, runs receive, game logic and send on threads of their own; <wait> is spin, yield or park");
         System.exit (1);
     }
 }
\ No newline at end of file
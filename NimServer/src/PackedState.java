@@ -0,0 +1,310 @@
+//******************************************************************************
+//
+// File:    PackedState.java
+// Package: ---
+// Unit:    Class PackedState.java
+//
+//******************************************************************************
+
+/**
+ * Class PackedState packs the whole state of a game on a small board into
+ * one long, so that a NimModel can keep it in an AtomicLong, make moves by
+ * compare-and-set and let anyone read it without taking a lock.
+ * <P>
+ * A board fits if it has at most HEAPS heaps of at most MAX_HEAP markers,
+ * which takes in the original three heaps of 3, 4 and 5. Layout, from the
+ * low bit: 6 bits for each of heaps 0, 1 and 2, a bit for the turn, 2 bits
+ * for the winner (0 for none, otherwise the winner's id plus one), 8 bits
+ * of version, 9 of epoch, 10 for each score, a bit for quit and 4 bits of
+ * ticket. The ticket counts the changes made to the state, modulo TICKETS,
+ * so that each change is told apart from the one before even if it leaves
+ * the rest of the state as it was. The top bit is never set in a packed
+ * state: WIDE, which has only that bit set, stands for a state too big to
+ * pack, and every operation here that would overflow a field returns WIDE
+ * instead.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class PackedState
+	{
+
+// Exported constants
+
+	/** Most heaps a packed state holds */
+	public static final int HEAPS = 3;
+
+	/** Most markers a heap in a packed state holds */
+	public static final int MAX_HEAP = 63;
+
+	/** Tickets in use, counting changes round from 0 to TICKETS - 1 */
+	public static final int TICKETS = 16;
+
+	/** Not a packed state: the state is kept some other way */
+	public static final long WIDE = Long.MIN_VALUE;
+
+// Hidden constants
+
+	private static final int HEAP_BITS = 6;
+	private static final int TURN_SHIFT = 18;
+	private static final int WINNER_SHIFT = 19;
+	private static final int WINNER_BITS = 2;
+	private static final int VERSION_SHIFT = 21;
+	private static final int VERSION_BITS = 8;
+	private static final int EPOCH_SHIFT = 29;
+	private static final int EPOCH_BITS = 9;
+	private static final int SCORE_SHIFT = 38;
+	private static final int SCORE_BITS = 10;
+	private static final int QUIT_SHIFT = 58;
+	private static final int TICKET_SHIFT = 59;
+	private static final int TICKET_BITS = 4;
+
+// Exported operations
+
+	/**
+	 * Whether a board can be packed
+	 *
+	 * @param  heaps  Number of markers in each heap
+	 *
+	 * @return  true if it has few enough heaps, none too large
+	 */
+	public static boolean fits
+		(int[] heaps)
+		{
+		if (heaps.length > HEAPS) {
+			return false;
+		}
+		for (int h = 0; h < heaps.length; h++) {
+			if (heaps[h] > MAX_HEAP) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Pack a state
+	 *
+	 * @param  epoch    Number of the game
+	 * @param  version  Number of moves made in this game
+	 * @param  turn     Id of the player whose turn it is
+	 * @param  winner   Id of the winner, or MessageCodec.NO_WINNER
+	 * @param  scores   Both players' scores
+	 * @param  heaps    Number of markers left in each heap
+	 * @param  quit     Whether the session is over
+	 *
+	 * @return  The packed state, or WIDE if it does not fit
+	 */
+	public static long pack
+		(int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 boolean quit)
+		{
+		if (!fits (heaps)) {
+			return WIDE;
+		}
+		long s = 0L;
+		for (int h = 0; h < heaps.length; h++) {
+			s = withHeap (s, h, heaps[h]);
+		}
+		s = withTurn (s, turn);
+		s = withWinner (s, winner);
+		s = withVersion (s, version);
+		s = withEpoch (s, epoch);
+		s = withScore (s, 0, scores[0]);
+		s = withScore (s, 1, scores[1]);
+		return quit ? withQuit (s) : s;
+	}
+
+	/**
+	 * Returns the number of markers left in a heap
+	 */
+	public static int heap
+		(long s,
+		 int h)
+		{
+		return get (s, h * HEAP_BITS, HEAP_BITS);
+	}
+
+	/**
+	 * Returns the state with a heap set to the given number of markers
+	 */
+	public static long withHeap
+		(long s,
+		 int h,
+		 int markers)
+		{
+		return with (s, h * HEAP_BITS, HEAP_BITS, markers);
+	}
+
+	/**
+	 * Returns the id of the player whose turn it is
+	 */
+	public static int turn
+		(long s)
+		{
+		return get (s, TURN_SHIFT, 1);
+	}
+
+	/**
+	 * Returns the state with the turn set
+	 */
+	public static long withTurn
+		(long s,
+		 int turn)
+		{
+		return with (s, TURN_SHIFT, 1, turn);
+	}
+
+	/**
+	 * Returns the id of the winner, or MessageCodec.NO_WINNER
+	 */
+	public static int winner
+		(long s)
+		{
+		return get (s, WINNER_SHIFT, WINNER_BITS) - 1;
+	}
+
+	/**
+	 * Returns the state with the winner set
+	 */
+	public static long withWinner
+		(long s,
+		 int winner)
+		{
+		return with (s, WINNER_SHIFT, WINNER_BITS, winner + 1);
+	}
+
+	/**
+	 * Returns the number of moves made in this game
+	 */
+	public static int version
+		(long s)
+		{
+		return get (s, VERSION_SHIFT, VERSION_BITS);
+	}
+
+	/**
+	 * Returns the state with the version set
+	 */
+	public static long withVersion
+		(long s,
+		 int version)
+		{
+		return with (s, VERSION_SHIFT, VERSION_BITS, version);
+	}
+
+	/**
+	 * Returns the number of the game
+	 */
+	public static int epoch
+		(long s)
+		{
+		return get (s, EPOCH_SHIFT, EPOCH_BITS);
+	}
+
+	/**
+	 * Returns the state with the epoch set
+	 */
+	public static long withEpoch
+		(long s,
+		 int epoch)
+		{
+		return with (s, EPOCH_SHIFT, EPOCH_BITS, epoch);
+	}
+
+	/**
+	 * Returns a player's score
+	 */
+	public static int score
+		(long s,
+		 int pid)
+		{
+		return get (s, SCORE_SHIFT + pid * SCORE_BITS, SCORE_BITS);
+	}
+
+	/**
+	 * Returns the state with a player's score set
+	 */
+	public static long withScore
+		(long s,
+		 int pid,
+		 int score)
+		{
+		return with (s, SCORE_SHIFT + pid * SCORE_BITS, SCORE_BITS, score);
+	}
+
+	/**
+	 * Returns whether the session is over
+	 */
+	public static boolean isQuit
+		(long s)
+		{
+		return get (s, QUIT_SHIFT, 1) != 0;
+	}
+
+	/**
+	 * Returns the state with the session over
+	 */
+	public static long withQuit
+		(long s)
+		{
+		return with (s, QUIT_SHIFT, 1, 1);
+	}
+
+	/**
+	 * Returns the ticket of the last change made
+	 */
+	public static int ticket
+		(long s)
+		{
+		return get (s, TICKET_SHIFT, TICKET_BITS);
+	}
+
+	/**
+	 * Returns the state with the ticket moved on to the next change's
+	 */
+	public static long withNextTicket
+		(long s)
+		{
+		return with (s, TICKET_SHIFT, TICKET_BITS, (ticket (s) + 1) % TICKETS);
+	}
+
+// Hidden operations
+
+	/**
+	 * Read a field
+	 */
+	private static int get
+		(long s,
+		 int shift,
+		 int bits)
+		{
+		return (int) ((s >>> shift) & ((1L << bits) - 1));
+	}
+
+	/**
+	 * Write a field, or return WIDE if the value does not fit or the state
+	 * is already WIDE
+	 */
+	private static long with
+		(long s,
+		 int shift,
+		 int bits,
+		 int value)
+		{
+		long mask = (1L << bits) - 1;
+		if (s == WIDE || value < 0 || value > mask) {
+			return WIDE;
+		}
+		return (s & ~(mask << shift)) | ((long) value << shift);
+	}
+
+// Hidden constructors
+
+	private PackedState() {}
+}
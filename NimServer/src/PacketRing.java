@@ -0,0 +1,256 @@
+//******************************************************************************
+//
+// File:    PacketRing.java
+// Package: ---
+// Unit:    Class PacketRing.java
+//
+//******************************************************************************
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class PacketRing is a bounded ring of datagram packets passed from one
+ * stage of a staged mailbox manager to the next. Every slot's packet and
+ * its backing array are allocated up front, and a datagram is received
+ * straight into, or copied once into, its slot, so nothing is allocated
+ * per datagram.
+ * <P>
+ * A ring has exactly one producer thread, which claims a slot, fills it and
+ * publishes it, and one consumer thread, which polls a slot, uses it and
+ * releases it. Each side owns one counter and reads the other's only when
+ * its cached copy says the ring is full or empty, so no locks are taken.
+ * <P>
+ * A side that must wait does so by one of three strategies: SPIN, which
+ * busy-waits for the lowest latency at the cost of a whole core; YIELD,
+ * which gives the core up between checks; or PARK, which sleeps until the
+ * other side wakes it, for the least CPU at the cost of a wake-up.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class PacketRing
+	{
+
+// Exported constants
+
+	/** Wait by busy-spinning */
+	public static final int SPIN = 0;
+
+	/** Wait by yielding the processor between checks */
+	public static final int YIELD = 1;
+
+	/** Wait by parking until woken */
+	public static final int PARK = 2;
+
+	/** No slot: a poll timed out */
+	public static final int NONE = -1;
+
+// Hidden constants
+
+	// Longest a parked side sleeps before checking again, in case a wake-up
+	// was missed
+	private static final long MAX_PARK_NANOS = 1000000L;
+
+// Hidden data members
+
+	private DatagramPacket[] packets;
+	private ByteBuffer[] buffers;
+	private int mask;
+	private int wait;
+
+	private volatile long head; // next slot to consume, written by consumer
+	private volatile long tail; // next slot to fill, written by producer
+	private long cachedHead;    // producer's last look at head
+	private long cachedTail;    // consumer's last look at tail
+
+	private volatile Thread parkedProducer;
+	private volatile Thread parkedConsumer;
+
+// Exported constructors
+
+	/**
+	 * Construct a new packet ring
+	 *
+	 * @param  size  Number of slots, a power of two
+	 * @param  wait  SPIN, YIELD or PARK
+	 */
+	public PacketRing
+		(int size,
+		 int wait)
+		{
+		if (Integer.bitCount (size) != 1) {
+			throw new IllegalArgumentException
+				("Ring size " + size + " is not a power of two");
+		}
+		packets = new DatagramPacket [size];
+		buffers = new ByteBuffer [size];
+		for (int i = 0; i < size; i++) {
+			byte[] data = new byte [MessageCodec.MAX_DATAGRAM];
+			packets[i] = new DatagramPacket (data, data.length);
+			buffers[i] = ByteBuffer.wrap (data);
+		}
+		this.mask = size - 1;
+		this.wait = wait;
+	}
+
+// Exported operations
+
+	/**
+	 * Parse a wait strategy
+	 *
+	 * @param  name  spin, yield or park
+	 *
+	 * @return  SPIN, YIELD or PARK
+	 *
+	 * @exception  IllegalArgumentException
+	 *     Thrown if the name is none of these
+	 */
+	public static int parseWait
+		(String name)
+		{
+		if (name.equals ("spin")) {
+			return SPIN;
+		} else if (name.equals ("yield")) {
+			return YIELD;
+		} else if (name.equals ("park")) {
+			return PARK;
+		}
+		throw new IllegalArgumentException ("Unknown wait strategy " + name);
+	}
+
+	/**
+	 * Returns a slot's packet
+	 *
+	 * @param  slot  The slot
+	 *
+	 * @return  the packet
+	 */
+	public DatagramPacket packet
+		(int slot)
+		{
+		return packets[slot];
+	}
+
+	/**
+	 * Returns a buffer wrapping a slot's packet's backing array
+	 *
+	 * @param  slot  The slot
+	 *
+	 * @return  the buffer
+	 */
+	public ByteBuffer buffer
+		(int slot)
+		{
+		return buffers[slot];
+	}
+
+	/**
+	 * Claim the next slot to fill, waiting while the ring is full. For the
+	 * producer only.
+	 *
+	 * @return  The slot
+	 */
+	public int claim() {
+		long t = tail;
+		while (t - cachedHead == packets.length) {
+			cachedHead = head;
+			if (t - cachedHead < packets.length) {
+				break;
+			}
+			if (wait == PARK) {
+				parkedProducer = Thread.currentThread();
+				if (t - head == packets.length) {
+					LockSupport.parkNanos (this, MAX_PARK_NANOS);
+				}
+				parkedProducer = null;
+			} else {
+				pause();
+			}
+		}
+		return (int) t & mask;
+	}
+
+	/**
+	 * Publish the slot claimed, waking the consumer if it is parked. For the
+	 * producer only.
+	 */
+	public void publish() {
+		tail = tail + 1;
+		Thread consumer = parkedConsumer;
+		if (consumer != null) {
+			LockSupport.unpark (consumer);
+		}
+	}
+
+	/**
+	 * Take the next slot to use, waiting while the ring is empty. For the
+	 * consumer only.
+	 *
+	 * @param  timeout  Longest to wait in nanoseconds, or -1 for no limit
+	 *
+	 * @return  The slot, or NONE if the wait timed out
+	 */
+	public int poll
+		(long timeout)
+		{
+		long h = head;
+		if (h != cachedTail) {
+			return (int) h & mask;
+		}
+		long deadline = System.nanoTime() + timeout;
+		while (h == (cachedTail = tail)) {
+			long left = MAX_PARK_NANOS;
+			if (timeout >= 0) {
+				left = Math.min (left, deadline - System.nanoTime());
+				if (left <= 0) {
+					return NONE;
+				}
+			}
+			if (wait == PARK) {
+				parkedConsumer = Thread.currentThread();
+				if (h == tail) {
+					LockSupport.parkNanos (this, left);
+				}
+				parkedConsumer = null;
+			} else {
+				pause();
+			}
+		}
+		return (int) h & mask;
+	}
+
+	/**
+	 * Release the slot taken, waking the producer if it is parked. For the
+	 * consumer only.
+	 */
+	public void release() {
+		head = head + 1;
+		Thread producer = parkedProducer;
+		if (producer != null) {
+			LockSupport.unpark (producer);
+		}
+	}
+
+	/**
+	 * Returns the number of slots filled and not yet released. May be read
+	 * from any thread, for monitoring.
+	 *
+	 * @return  the number of slots in use
+	 */
+	public int size() { return (int) (tail - head); }
+
+// Hidden operations
+
+	/**
+	 * Wait a moment by spinning or yielding
+	 */
+	private void pause() {
+		if (wait == SPIN) {
+			Thread.onSpinWait();
+		} else {
+			Thread.yield();
+		}
+	}
+}
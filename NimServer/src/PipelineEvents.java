@@ -0,0 +1,161 @@
+//******************************************************************************
+//
+// File:    PipelineEvents.java
+// Package: ---
+// Unit:    Class PipelineEvents.java
+//
+//******************************************************************************
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Class PipelineEvents holds the Java Flight Recorder events that trace a
+ * datagram through the server: the channel read, the dispatch to the
+ * client's view proxy, decoding each message, the model update, and the
+ * send to each listening client. The events of one datagram nest on the
+ * thread that handled it, so a slow move opened in Mission Control shows
+ * which stage the time went to. Time inside a dispatch but outside the
+ * stages within it was spent waiting for a lock, which JFR's own monitor
+ * events show in detail.
+ * <P>
+ * Each event is committed only if it lasts at least its threshold, so a
+ * continuous recording costs next to nothing while the server is fast.
+ * Lower the thresholds in a recording's settings to see every datagram.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class PipelineEvents
+	{
+
+// Exported constants
+
+	/** Session id of a client not yet in a session */
+	public static final int NO_SESSION = -1;
+
+// Exported helper classes
+
+	/**
+	 * Reading one datagram from the channel
+	 */
+	@Name ("nim.Receive")
+	@Label ("Receive")
+	@Category ({"Nim", "Server"})
+	@Description ("Non-blocking read of one datagram from the channel")
+	@StackTrace (false)
+	@Threshold ("1 ms")
+	public static class Receive
+		extends Event
+		{
+		@Label ("Size")
+		@DataAmount
+		public int bytes;
+	}
+
+	/**
+	 * Handling one datagram, from finding its view proxy to the end of
+	 * processing
+	 */
+	@Name ("nim.Dispatch")
+	@Label ("Dispatch")
+	@Category ({"Nim", "Server"})
+	@Description ("Client lookup and processing of one datagram")
+	@StackTrace (false)
+	@Threshold ("10 ms")
+	public static class Dispatch
+		extends Event
+		{
+		@Label ("Opcode")
+		public char opcode;
+
+		@Label ("Session Id")
+		public int sessionId;
+
+		@Label ("Size")
+		@DataAmount
+		public int bytes;
+
+		@Label ("Forwarded")
+		@Description ("Handed to the shard that owns the client")
+		public boolean forwarded;
+	}
+
+	/**
+	 * Decoding one message
+	 */
+	@Name ("nim.Decode")
+	@Label ("Decode")
+	@Category ({"Nim", "Server"})
+	@Description ("Parsing one message, up to handing it to the model")
+	@StackTrace (false)
+	@Threshold ("1 ms")
+	public static class Decode
+		extends Event
+		{
+		@Label ("Opcode")
+		public char opcode;
+
+		@Label ("Session Id")
+		public int sessionId;
+	}
+
+	/**
+	 * Applying a move or new game to a model, reporting the new state
+	 * included
+	 */
+	@Name ("nim.ModelUpdate")
+	@Label ("Model Update")
+	@Category ({"Nim", "Server"})
+	@Description ("A move or new game applied to a session's model")
+	@StackTrace (false)
+	@Threshold ("1 ms")
+	public static class ModelUpdate
+		extends Event
+		{
+		@Label ("Opcode")
+		public char opcode;
+
+		@Label ("Session Id")
+		public int sessionId;
+
+		@Label ("Listeners")
+		public int listeners;
+	}
+
+	/**
+	 * Sending one datagram to one client
+	 */
+	@Name ("nim.Send")
+	@Label ("Send")
+	@Category ({"Nim", "Server"})
+	@Description ("One outbound datagram handed to the mailbox")
+	@StackTrace (false)
+	@Threshold ("1 ms")
+	public static class Send
+		extends Event
+		{
+		@Label ("Opcode")
+		public char opcode;
+
+		@Label ("Session Id")
+		public int sessionId;
+
+		@Label ("Size")
+		@DataAmount
+		public int bytes;
+
+		@Label ("Reliable")
+		public boolean reliable;
+	}
+
+// Hidden constructors
+
+	private PipelineEvents() {}
+}
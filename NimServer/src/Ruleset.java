@@ -0,0 +1,319 @@
+//******************************************************************************
+//
+// File:    Ruleset.java
+// Package: ---
+// Unit:    Class Ruleset.java
+//
+//******************************************************************************
+
+import java.util.Arrays;
+
+/**
+ * Class Ruleset describes an impartial game played on Nim heaps: plain Nim,
+ * where a move takes any number of markers from one heap, or a subtraction
+ * game, where the number taken must be in a fixed subtraction set. Either may
+ * be played misere, where whoever makes the last move loses instead of wins.
+ * <P>
+ * A ruleset holds a memoized table of Sprague-Grundy values, one int per heap
+ * size. A position's value is the exclusive or of its heaps' table entries,
+ * and a model that keeps that sum up to date can validate a move, detect the
+ * end of a game and evaluate a position by table lookup. The table is filled
+ * once, up to the largest heap on the board, and shared read-only by every
+ * session playing the ruleset.
+ * <P>
+ * The value of heap n depends on the values of n - s for each s in the
+ * subtraction set, down to n minus the smallest member, so the table is
+ * filled in one pass from small heaps up. At most the smallest member's worth
+ * of entries could be filled at once, too few to share out between threads.
+ * For plain Nim the value of n is n.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class Ruleset
+	{
+
+// Exported constants
+
+	/** Returned by bestMove() when there is no move */
+	public static final long NO_MOVE = -1L;
+
+// Hidden data members
+
+	private int[] subtraction;  // sorted, or null for any number
+	private boolean[] allowed;  // allowed[m] if m is in the set
+	private boolean misere;
+	private int minMove;
+	private volatile int[] grundy = new int [1];
+
+// Exported constructors
+
+	/**
+	 * Construct a new ruleset
+	 *
+	 * @param  subtraction  Numbers of markers a move may take, or null for
+	 *                      any number (plain Nim)
+	 * @param  misere       True if the last player to move loses
+	 */
+	public Ruleset
+		(int[] subtraction,
+		 boolean misere)
+		{
+		this.misere = misere;
+		if (subtraction == null) {
+			minMove = 1;
+			return;
+		}
+		this.subtraction = subtraction.clone();
+		Arrays.sort (this.subtraction);
+		if (this.subtraction.length == 0 || this.subtraction[0] < 1) {
+			throw new IllegalArgumentException
+				("Subtraction set must be positive numbers");
+		}
+		minMove = this.subtraction[0];
+		allowed = new boolean [this.subtraction[this.subtraction.length - 1] + 1];
+		for (int s : this.subtraction) {
+			allowed[s] = true;
+		}
+	}
+
+// Exported operations
+
+	/**
+	 * Parse a ruleset: "nim" or a subtraction set such as "1,2,3", either one
+	 * optionally preceded by "misere:"
+	 *
+	 * @param  spec  Ruleset given on the command line
+	 *
+	 * @return  The ruleset
+	 *
+	 * @exception  IllegalArgumentException
+	 *     Thrown if the ruleset cannot be parsed
+	 */
+	public static Ruleset parse
+		(String spec)
+		{
+		boolean misere = spec.startsWith ("misere:");
+		if (misere) {
+			spec = spec.substring ("misere:".length());
+		}
+		if (spec.equals ("nim")) {
+			return new Ruleset (null, misere);
+		}
+		String[] parts = spec.split (",");
+		int[] set = new int [parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			set[i] = Integer.parseInt (parts[i]);
+		}
+		return new Ruleset (set, misere);
+	}
+
+	/**
+	 * Fill the Grundy table up to the given heap size, if it does not already
+	 * reach that far
+	 *
+	 * @param  maxHeap  Largest heap size a position may have
+	 */
+	public synchronized void prepare
+		(int maxHeap)
+		{
+		int[] old = grundy;
+		if (maxHeap < old.length) {
+			return;
+		}
+		int[] table = Arrays.copyOf (old, maxHeap + 1);
+		fill (table, old.length, table.length);
+		grundy = table;
+	}
+
+	/**
+	 * Returns whether the last player to move loses
+	 *
+	 * @return  true for misere play, else false
+	 */
+	public boolean isMisere() { return misere; }
+
+	/**
+	 * Returns the fewest markers a move may take
+	 *
+	 * @return  1 for plain Nim, else the smallest member of the set
+	 */
+	public int getMinMove() { return minMove; }
+
+	/**
+	 * Returns whether taking markers from a heap is a legal move
+	 *
+	 * @param  heap  Number of markers in the heap
+	 * @param  m     Number of markers to take
+	 *
+	 * @return  true if the move is legal, else false
+	 */
+	public boolean isLegal
+		(int heap,
+		 int m)
+		{
+		if (m < 1 || m > heap) {
+			return false;
+		}
+		return allowed == null || (m < allowed.length && allowed[m]);
+	}
+
+	/**
+	 * Returns the Grundy value of a heap. The table must have been prepared
+	 * up to the heap's size.
+	 *
+	 * @param  heap  Number of markers in the heap
+	 *
+	 * @return  The heap's Grundy value
+	 */
+	public int grundy
+		(int heap)
+		{
+		return grundy[heap];
+	}
+
+	/**
+	 * Find the best move from a position. Under normal play, a move to a
+	 * Grundy sum of zero wins whenever the sum is not already zero. Under
+	 * misere play the same holds until at most one heap has a Grundy value
+	 * of two or more; from then on the aim is to leave an odd number of heaps
+	 * of value one. That rule is exact for plain Nim and for any heaps whose
+	 * misere play is tame. From a lost position the smallest legal move is
+	 * taken. Runs in time linear in the number of heaps plus the size of the
+	 * subtraction set, and allocates nothing.
+	 *
+	 * @param  heaps      Number of markers in each heap
+	 * @param  grundySum  Exclusive or of the heaps' Grundy values
+	 * @param  bigHeaps   Number of heaps with a Grundy value of two or more
+	 *
+	 * @return  Heap id in the upper half and number of markers to take in the
+	 *     lower half, or NO_MOVE if no move is legal
+	 */
+	public long bestMove
+		(int[] heaps,
+		 int grundySum,
+		 int bigHeaps)
+		{
+		int[] table = grundy;
+		for (int i = 0; i < heaps.length; i++) {
+			int value = table[heaps[i]];
+			int target;
+			if (!misere || bigHeaps >= 2) {
+				target = value ^ grundySum;
+			} else if (bigHeaps == 1) {
+				if (value < 2) {
+					continue;
+				}
+				// leave an odd number of heaps of value one
+				int ones = (grundySum ^ value) & 1;
+				target = 1 - ones;
+			} else {
+				if (grundySum != 0) {
+					break; // odd number of ones: lost
+				}
+				target = 0;
+			}
+			if (target < value) {
+				int m = moveTo (table, heaps[i], target);
+				if (m > 0) {
+					return ((long) i << 32) | m;
+				}
+			}
+		}
+		for (int i = 0; i < heaps.length; i++) {
+			if (heaps[i] >= minMove) {
+				return ((long) i << 32) | minMove;
+			}
+		}
+		return NO_MOVE;
+	}
+
+	/**
+	 * Returns this ruleset in the form parse() reads
+	 *
+	 * @return  Ruleset such as "nim" or "misere:1,2,3"
+	 */
+	public String getSpec() {
+		StringBuilder spec = new StringBuilder (misere ? "misere:" : "");
+		if (subtraction == null) {
+			return spec.append ("nim").toString();
+		}
+		for (int i = 0; i < subtraction.length; i++) {
+			spec.append (i == 0 ? "" : ",").append (subtraction[i]);
+		}
+		return spec.toString();
+	}
+
+	/**
+	 * Returns a description of this ruleset
+	 *
+	 * @return  Description
+	 */
+	public String toString() {
+		String rules = (subtraction == null) ? "nim" :
+			"subtraction " + Arrays.toString (subtraction);
+		return misere ? "misere " + rules : rules;
+	}
+
+// Hidden operations
+
+	/**
+	 * Find a move from a heap to a given Grundy value
+	 *
+	 * @return  Number of markers to take, or 0 if there is no such move
+	 */
+	private int moveTo
+		(int[] table,
+		 int heap,
+		 int target)
+		{
+		if (subtraction == null) {
+			return heap - target;
+		}
+		for (int s : subtraction) {
+			if (s > heap) {
+				break;
+			}
+			if (table[heap - s] == target) {
+				return s;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Fill table entries from up to to, in order, given the entries below
+	 */
+	private void fill
+		(int[] table,
+		 int from,
+		 int to)
+		{
+		if (subtraction == null) {
+			for (int n = from; n < to; n++) {
+				table[n] = n;
+			}
+			return;
+		}
+
+		// The mex of at most |S| values is at most |S|.
+		boolean[] seen = new boolean [subtraction.length + 1];
+		for (int n = from; n < to; n++) {
+			Arrays.fill (seen, false);
+			for (int s : subtraction) {
+				if (s > n) {
+					break;
+				}
+				int value = table[n - s];
+				if (value < seen.length) {
+					seen[value] = true;
+				}
+			}
+			int mex = 0;
+			while (seen[mex]) {
+				++mex;
+			}
+			table[n] = mex;
+		}
+	}
+}
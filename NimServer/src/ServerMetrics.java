@@ -0,0 +1,253 @@
+//******************************************************************************
+//
+// File:    ServerMetrics.java
+// Package: ---
+// Unit:    Class ServerMetrics.java
+//
+//******************************************************************************
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Class ServerMetrics collects the Nim server's counters and timings and
+ * publishes them through JMX. The server's classes record into it through
+ * static methods, from any thread; every recording is lock-free and
+ * allocation-free, so the metrics are always on.
+ * <P>
+ * Gauges (sessions, waiting players, connected clients) are not recorded at
+ * all, but read from the session manager and client tables when asked for.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class ServerMetrics
+	implements ServerMetricsMXBean
+	{
+
+// Exported constants
+
+	/** Name the metrics are published under */
+	public static final String OBJECT_NAME = "Nim:type=ServerMetrics";
+
+// Exported helper classes
+
+	/**
+	 * Class Timing is a summary of a histogram of durations, in nanoseconds
+	 */
+	public static class Timing
+		{
+		private long count, p50, p90, p99, p999, max;
+
+		@ConstructorProperties ({"count", "p50", "p90", "p99", "p999", "max"})
+		public Timing
+			(long count,
+			 long p50,
+			 long p90,
+			 long p99,
+			 long p999,
+			 long max)
+			{
+			this.count = count;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+		}
+
+		public long getCount() { return count; }
+		public long getP50() { return p50; }
+		public long getP90() { return p90; }
+		public long getP99() { return p99; }
+		public long getP999() { return p999; }
+		public long getMax() { return max; }
+
+		public String toString() {
+			return "n " + count + "  p50 " + p50 + "  p90 " + p90 +
+				"  p99 " + p99 + "  p99.9 " + p999 + "  max " + max + " ns";
+		}
+	}
+
+// Hidden constants
+
+	// the opcodes a client sends, and the slot each is counted in
+	private static final byte[] OPCODES =
+		{MessageCodec.JOIN, MessageCodec.TAKE, MessageCodec.TAKE_WIDE,
+		 MessageCodec.NEW_GAME, MessageCodec.QUIT, MessageCodec.WATCH};
+	private static final int[] SLOT = new int [256];
+
+	static {
+		for (int i = 0; i < SLOT.length; i++) {
+			SLOT[i] = -1;
+		}
+		for (int i = 0; i < OPCODES.length; i++) {
+			SLOT[OPCODES[i] & 0xFF] = i;
+		}
+	}
+
+// Hidden data members
+
+	private static ConcurrentHistogram[] processing =
+		new ConcurrentHistogram [OPCODES.length];
+	private static ConcurrentHistogram dispatch = new ConcurrentHistogram();
+
+	static {
+		for (int i = 0; i < processing.length; i++) {
+			processing[i] = new ConcurrentHistogram();
+		}
+	}
+
+	private static LongAdder datagramsReceived = new LongAdder();
+	private static LongAdder datagramsSent = new LongAdder();
+	private static LongAdder sendFailures = new LongAdder();
+	private static LongAdder badMessages = new LongAdder();
+	private static LongAdder badMoves = new LongAdder();
+	private static LongAdder movesMade = new LongAdder();
+	private static LongAdder gamesWon = new LongAdder();
+
+	private static CopyOnWriteArrayList<ClientTable> clientTables =
+		new CopyOnWriteArrayList<ClientTable>();
+
+	private SessionManager sessionManager;
+
+// Hidden constructors
+
+	private ServerMetrics
+		(SessionManager sessionManager)
+		{
+		this.sessionManager = sessionManager;
+	}
+
+// Exported operations
+
+	/**
+	 * Publish the metrics through the platform MBean server
+	 *
+	 * @param  sessionManager  Session manager to read session gauges from
+	 */
+	public static void register
+		(SessionManager sessionManager)
+		{
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean
+				(new ServerMetrics (sessionManager),
+				 new ObjectName (OBJECT_NAME));
+		} catch (JMException exc) {
+			System.err.println ("Metrics not published: " + exc.getMessage());
+		}
+	}
+
+	/**
+	 * Count a mailbox manager's client table into the connected clients
+	 *
+	 * @param  table  Client table
+	 */
+	public static void addClientTable
+		(ClientTable table)
+		{
+		clientTables.add (table);
+	}
+
+	/**
+	 * Record a message processed
+	 *
+	 * @param  opcode  The message's opcode
+	 * @param  nanos   Time taken to process it
+	 */
+	public static void messageProcessed
+		(byte opcode,
+		 long nanos)
+		{
+		int slot = SLOT[opcode & 0xFF];
+		if (slot >= 0) {
+			processing[slot].record (nanos);
+		}
+	}
+
+	/**
+	 * Record a datagram received and dispatched
+	 *
+	 * @param  nanos  Time taken to dispatch it
+	 */
+	public static void datagramDispatched
+		(long nanos)
+		{
+		datagramsReceived.increment();
+		dispatch.record (nanos);
+	}
+
+	/** Record a datagram sent */
+	public static void datagramSent() { datagramsSent.increment(); }
+
+	/** Record a datagram that could not be sent */
+	public static void sendFailed() { sendFailures.increment(); }
+
+	/** Record an empty, truncated or unknown message */
+	public static void badMessage() { badMessages.increment(); }
+
+	/** Record a move refused */
+	public static void badMove() { badMoves.increment(); }
+
+	/** Record a move made */
+	public static void moveMade() { movesMade.increment(); }
+
+	/** Record a game won */
+	public static void gameWon() { gamesWon.increment(); }
+
+	public Map<String,Long> getMessageCounts() {
+		Map<String,Long> counts = new LinkedHashMap<String,Long>();
+		for (int i = 0; i < OPCODES.length; i++) {
+			counts.put (String.valueOf ((char) OPCODES[i]),
+				processing[i].getCount());
+		}
+		return counts;
+	}
+
+	public Map<String,Timing> getProcessingTimes() {
+		Map<String,Timing> times = new LinkedHashMap<String,Timing>();
+		for (int i = 0; i < OPCODES.length; i++) {
+			times.put (String.valueOf ((char) OPCODES[i]),
+				timing (processing[i]));
+		}
+		return times;
+	}
+
+	public Timing getDispatchTime() { return timing (dispatch); }
+	public long getDatagramsReceived() { return datagramsReceived.sum(); }
+	public long getDatagramsSent() { return datagramsSent.sum(); }
+	public long getSendFailures() { return sendFailures.sum(); }
+	public long getBadMessages() { return badMessages.sum(); }
+	public long getBadMoves() { return badMoves.sum(); }
+	public long getMovesMade() { return movesMade.sum(); }
+	public long getGamesWon() { return gamesWon.sum(); }
+	public int getActiveSessions() { return sessionManager.getSessionCount(); }
+	public int getWaitingPlayers() { return sessionManager.getWaitingCount(); }
+
+	public int getConnectedClients() {
+		int clients = 0;
+		for (ClientTable table : clientTables) {
+			clients += table.size();
+		}
+		return clients;
+	}
+
+// Hidden operations
+
+	/**
+	 * Summarize a histogram
+	 */
+	private static Timing timing
+		(ConcurrentHistogram histogram)
+		{
+		long[] p = histogram.percentiles (0.50, 0.90, 0.99, 0.999);
+		return new Timing
+			(histogram.getCount(), p[0], p[1], p[2], p[3], histogram.getMax());
+	}
+}
@@ -0,0 +1,113 @@
+//******************************************************************************
+//
+// File:    ServerMetricsMXBean.java
+// Package: ---
+// Unit:    Interface ServerMetricsMXBean.java
+//
+//******************************************************************************
+
+import java.util.Map;
+
+/**
+ * Interface ServerMetricsMXBean is what the Nim server publishes through JMX,
+ * under the name Nim:type=ServerMetrics. Counts and timings run from server
+ * start; times are in nanoseconds.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public interface ServerMetricsMXBean
+	{
+
+	/**
+	 * Returns the number of messages processed, by opcode
+	 *
+	 * @return  Counts keyed by opcode letter
+	 */
+	public Map<String,Long> getMessageCounts();
+
+	/**
+	 * Returns how long messages took to process, by opcode
+	 *
+	 * @return  Timings keyed by opcode letter
+	 */
+	public Map<String,ServerMetrics.Timing> getProcessingTimes();
+
+	/**
+	 * Returns how long datagrams took from the socket to the end of
+	 * processing, client lookup included
+	 *
+	 * @return  Timing
+	 */
+	public ServerMetrics.Timing getDispatchTime();
+
+	/**
+	 * Returns the number of datagrams received
+	 *
+	 * @return  Count
+	 */
+	public long getDatagramsReceived();
+
+	/**
+	 * Returns the number of datagrams sent
+	 *
+	 * @return  Count
+	 */
+	public long getDatagramsSent();
+
+	/**
+	 * Returns the number of datagrams that could not be sent
+	 *
+	 * @return  Count
+	 */
+	public long getSendFailures();
+
+	/**
+	 * Returns the number of empty, truncated or unknown messages
+	 *
+	 * @return  Count
+	 */
+	public long getBadMessages();
+
+	/**
+	 * Returns the number of moves refused as stale or against the rules
+	 *
+	 * @return  Count
+	 */
+	public long getBadMoves();
+
+	/**
+	 * Returns the number of moves made
+	 *
+	 * @return  Count
+	 */
+	public long getMovesMade();
+
+	/**
+	 * Returns the number of games won
+	 *
+	 * @return  Count
+	 */
+	public long getGamesWon();
+
+	/**
+	 * Returns the number of sessions, waiting or full
+	 *
+	 * @return  Count
+	 */
+	public int getActiveSessions();
+
+	/**
+	 * Returns the number of players waiting for an opponent
+	 *
+	 * @return  Count
+	 */
+	public int getWaitingPlayers();
+
+	/**
+	 * Returns the number of clients in the mailbox managers' client tables
+	 *
+	 * @return  Count, approximate while clients come and go
+	 */
+	public int getConnectedClients();
+}
@@ -8,15 +8,30 @@
 
 /**
  * Class Session models a session on the Nim server. Each session knows whether
- * it is full or not, and contains a model associated with itself.
+ * it is full or not, and contains a model associated with itself. Until it is
+ * full, a session also remembers the player waiting in it for an opponent.
  * 
  * @author  Kyle Blyth
  * @version 01-Dec-2015
  */
 public class Session {
+	
+	/** Milliseconds without a move, new game or join before a session ends */
+	public static final long IDLE_TIMEOUT = 15 * 60 * 1000L;
+	
+	private int id;
 	private boolean isFull; // if the session has two players or not
+	private volatile boolean isClosed; // if the session has been removed
 	private NimModel model;
 	
+	// the player waiting for an opponent, until the session is full
+	private ViewProxy waitingProxy;
+	private String waitingName;
+	
+	// the players of a session restored from a snapshot, whose clients
+	// may not have come back yet
+	private ViewProxy[] restoredPlayers;
+	
     /**
      * Returns whether or not this session contains two players
      * 
@@ -24,6 +39,13 @@ public class Session {
      */
 	public boolean isFull() { return isFull; }
 	
+	/**
+	 * Returns this session's id
+	 * 
+	 * @return  id  the id the session manager gave this session
+	 */
+	public int getId() { return id; }
+	
 	/**
 	 * Returns the model this session is using
 	 * 
@@ -32,16 +54,77 @@ public class Session {
 	public NimModel getModel() { return model; }
 	
 	/**
-	 * Marks this session as full
+	 * Returns whether or not this session has been removed
+	 * 
+	 * @return  isClosed  true if session was removed, else false
+	 */
+	public boolean isClosed() { return isClosed; }
+	
+	/**
+	 * Returns the proxy of the player waiting in this session
+	 * 
+	 * @return  waitingProxy  the waiting player's proxy, or null once full
+	 */
+	public ViewProxy getWaitingProxy() { return waitingProxy; }
+	
+	/**
+	 * Returns the name of the player waiting in this session
+	 * 
+	 * @return  waitingName  the waiting player's name, or null once full
+	 */
+	public String getWaitingName() { return waitingName; }
+	
+	/**
+	 * Records the player waiting in this session for an opponent
+	 * 
+	 * @param  proxy  the waiting player's proxy
+	 * @param  name   the waiting player's name
+	 */
+	public void setWaitingPlayer(ViewProxy proxy, String name) {
+		waitingProxy = proxy;
+		waitingName = name;
+	}
+	
+	/**
+	 * Marks this session as full, forgetting the waiting player
+	 */
+	public void setFull() {
+		isFull = true;
+		waitingProxy = null;
+		waitingName = null;
+	}
+	
+	/**
+	 * Marks this session as removed
 	 */
-	public void setFull() { isFull = true; }
+	public void setClosed() { isClosed = true; }
+	
+	/**
+	 * Returns the players of this session, if it was restored from a
+	 * snapshot
+	 * 
+	 * @return  restoredPlayers  both players' proxies, null for a bot, or
+	 *     null if the session was not restored
+	 */
+	public ViewProxy[] getRestoredPlayers() { return restoredPlayers; }
+	
+	/**
+	 * Records the players of a session restored from a snapshot
+	 * 
+	 * @param  players  both players' proxies, null for a bot
+	 */
+	public void setRestoredPlayers(ViewProxy[] players) {
+		restoredPlayers = players;
+	}
 	
 	/**
 	 * Constructor
 	 * 
+	 * @param  id     the session's id
 	 * @param  model  the model associated with this session
 	 */
-	public Session(NimModel model) {
+	public Session(int id, NimModel model) {
+		this.id = id;
 		this.model = model;
 	}
 }
@@ -7,10 +7,50 @@
 //******************************************************************************
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Class SessionManager maintains all sessions for the Nim server
+ * Class SessionManager maintains all sessions for the Nim server. On a
+ * sharded server it is shared by every shard; when it pairs two players it
+ * moves the second player onto the first player's mailbox, so both players of
+ * a game are served by the same shard from then on.
+ * <P>
+ * Sessions with a player waiting for an opponent are kept in a queue per
+ * mailbox (per shard). A joining player takes the oldest waiting session on
+ * its own shard if there is one, and otherwise from any other shard, so
+ * pairing costs the same however many games are running.
+ * <P>
+ * Every session has a stable id, and the session registry is keyed by it, so
+ * a session is found and removed in constant time. Removal does not take the
+ * join lock.
+ * <P>
+ * If a bot wait is set, a player still waiting for an opponent after that
+ * long is given a BotPlayer instead.
+ * <P>
+ * If a stats store is set, each player is told both players' win/loss
+ * records when a game is paired, and every game won is recorded in it. If a
+ * move journal is set, each session's start is journaled once it is full,
+ * and its models journal the rest.
+ * <P>
+ * Sessions restored from a snapshot are registered as full sessions, and
+ * their players' view proxies are held here by address until each client's
+ * next datagram arrives. Whichever mailbox manager receives it claims the
+ * proxy, and the client is sent its whole game again.
+ * <P>
+ * A client may watch any full session as a spectator instead of joining
+ * one. Spectators stay on their own shards; the session's model encodes each
+ * update once for them and the players together.
+ * <P>
+ * With a compact lobby, a player waiting for an opponent is kept in a
+ * LobbyTable row rather than a session of its own, and the session and its
+ * model are made only when it is paired or seated with a bot. Each shard's
+ * waiting players are queued in the table, and one LobbySweeper per shard
+ * keeps their bot and idle deadlines.
  *
  * @author  Kyle Blyth
  * @version 01-Dec-2015
@@ -21,19 +61,59 @@ public class SessionManager
 
 // Hidden data members
 
-	private ArrayList<Session> sessions =
-		new ArrayList<Session>();
+	private ConcurrentHashMap<Integer,Session> sessions =
+		new ConcurrentHashMap<Integer,Session>();
 	
-	int oldPlayerId;
-	String oldPlayerName;
-	ViewProxy oldProxy;
+	private AtomicInteger nextSessionId = new AtomicInteger();
+	
+	private HashMap<Mailbox,ArrayDeque<Session>> waiting =
+		new HashMap<Mailbox,ArrayDeque<Session>>();
+	
+	private int[] board;
+	private Ruleset rules;
+	private long botWait = -1; // milliseconds, or -1 for no bots
+	private volatile StatsStore stats; // or null to keep no records
+	private volatile MoveJournal journal; // or null to keep no journal
+	
+	// the compact lobby, or null to wait in sessions
+	private LobbyTable lobby;
+	private HashMap<Mailbox,LobbySweeper> sweepers =
+		new HashMap<Mailbox,LobbySweeper>();
+	
+	private ConcurrentHashMap<InetSocketAddress,ViewProxy> restored =
+		new ConcurrentHashMap<InetSocketAddress,ViewProxy>();
 
 // Exported constructors
 
 	/**
-	 * Construct a new session manager
+	 * Construct a new session manager whose games use the default board and
+	 * rules
 	 */
-	public SessionManager() {}
+	public SessionManager() {
+		this(NimModel.DEFAULT_BOARD, NimModel.DEFAULT_RULES);
+	}
+
+	/**
+	 * Construct a new session manager. The ruleset is shared by every
+	 * session, so its Grundy table is built only once.
+	 * 
+	 * @param  board  Number of markers in each heap at the start of a game
+	 * @param  rules  Rules every game is played by
+	 */
+	public SessionManager
+		(int[] board,
+		 Ruleset rules)
+		{
+		this.board = board.clone();
+		this.rules = rules;
+		
+		// build the table now rather than on the first join
+		int max = 0;
+		for(int size : board) {
+			max = Math.max(max, size);
+		}
+		rules.prepare(max);
+	}
 
 // Exported operations
 
@@ -50,43 +130,61 @@ public class SessionManager
 		(ViewProxy proxy, 
 		 String playerName)
 		throws IOException {
-		NimModel model = null;
-		int playerId = 0;
+		if(lobby != null) {
+			joinLobby(proxy, playerName);
+			return;
+		}
+		Session session = pollWaiting (proxy.getMailbox());
 		
-		// if a session is not full, populate it
-		for(Session s : sessions)
-			{
-				if(!s.isFull()) {
-					model = s.getModel();
-					s.setFull();
-					playerId = 1;
-					break;
-				}
+		// nobody is waiting, open a new session and wait in it
+		if(session == null) {
+			int sessionId = nextSessionId.getAndIncrement();
+			session = open(sessionId, proxy.getMailbox());
+			NimModel model = session.getModel();
+			session.setWaitingPlayer(proxy, playerName);
+			proxy.setSessionId(sessionId);
+			waitingQueue(proxy.getMailbox()).addLast(session);
+			if(botWait >= 0) {
+				proxy.getMailbox().schedule
+					(new BotSeater(this, session),
+					 TimingWheel.now() + botWait);
 			}
+			
+			model.addPlayer (proxy);
+			proxy.setViewListener (model);
+			model.setId(proxy, 0, playerName);
+			return;
+		}
 		
-		// all sessions are full or there are no sessions, make a new one
-		if(model == null) {
-			model = new NimModel();
-			model.setSessionManager(this);
-			Session session = new Session(model);
-			sessions.add (session);
-		}
-		model.addModelListener (proxy);
-		proxy.setViewListener (model);
-		
-		// tell model to send name command
-		model.setId(proxy, playerId, playerName);
-		if(playerId == 1) {
-			// send old client's name to new player
-			model.setName(proxy, oldPlayerId, oldPlayerName);
-			// send old client new player's name
-			model.setName(oldProxy, playerId, playerName);
-			model.setTurn(0);
-		} else {
-			oldPlayerId = playerId;
-			oldPlayerName = playerName;
-			oldProxy = proxy;
+		// pair with the waiting player
+		pair(session, session.getWaitingProxy(), session.getWaitingName(),
+			proxy, playerName, false);
+	}
+
+	/**
+	 * Watch the given session as a spectator. A client asking to watch a
+	 * session that is not being played is told it is over.
+	 *
+	 * @param  proxy      Reference to view proxy object
+	 * @param  sessionId  Id of the session to watch
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void watch
+		(ViewProxy proxy,
+		 int sessionId)
+		throws IOException
+		{
+		Session session = sessions.get (sessionId);
+		if(session == null || !session.isFull() || session.isClosed()) {
+			proxy.gameQuit();
+			return;
 		}
+		NimModel model = session.getModel();
+		proxy.setSessionId(sessionId);
+		proxy.setViewListener (new Spectator(this, model, proxy));
+		model.addSpectator(proxy);
 	}
 
 	/**
@@ -161,21 +259,648 @@ public class SessionManager
 		(int playerId) 
 		throws IOException {}
 	
+	/**
+	 * Seat a bot opposite the player waiting in a session, unless the session
+	 * has been filled or removed meanwhile
+	 * 
+	 * @param  session  Session waiting for an opponent
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized void seatBot
+		(Session session)
+		throws IOException
+		{
+		if(session.isFull() || session.isClosed()) {
+			return;
+		}
+		// the session stays in its waiting queue until polled past
+		seat(session, session.getWaitingProxy(), session.getWaitingName(),
+			false);
+	}
+
+	/**
+	 * Set how long a player waits for a human opponent before a bot is
+	 * seated. Applies to players who start waiting from now on, or with a
+	 * compact lobby to every waiting player.
+	 * 
+	 * @param  millis  Wait in milliseconds, or -1 for no bots
+	 */
+	public synchronized void setBotWait
+		(long millis)
+		{
+		this.botWait = millis;
+	}
+
+	/**
+	 * Keep players waiting for an opponent in a compact lobby, or in sessions
+	 * of their own. Set before any player joins.
+	 * 
+	 * @param  compact  true for a compact lobby, else false
+	 */
+	public synchronized void setCompactLobby
+		(boolean compact)
+		{
+		this.lobby = compact ? new LobbyTable() : null;
+	}
+
+	/**
+	 * Take a player out of the compact lobby, and tell the client it is over.
+	 * Does nothing if the player is no longer waiting there.
+	 * 
+	 * @param  slot       The waiting session's slot in the lobby table
+	 * @param  sessionId  The waiting session's id
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized void leaveLobby
+		(int slot,
+		 int sessionId)
+		throws IOException
+		{
+		if(lobby == null || !lobby.holds(slot, sessionId)) {
+			return;
+		}
+		ViewProxy proxy = lobby.getProxy(slot);
+		lobby.remove(slot);
+		proxy.gameQuit();
+	}
+
+	/**
+	 * Seat a bot for, or quit, each player at the front of a shard's lobby
+	 * queue whose wait is up, then reschedule the sweeper for the next
+	 * deadline
+	 * 
+	 * @param  sweeper  The shard's lobby sweeper
+	 * @param  now      Current time in milliseconds
+	 */
+	public synchronized void sweepLobby
+		(LobbySweeper sweeper,
+		 long now)
+		{
+		int slot;
+		while((slot = lobby.first(sweeper.getQueue())) != LobbyTable.NONE) {
+			long since = lobby.getSince(slot);
+			if(now < deadline(since)) {
+				sweeper.rearm(deadline(since));
+				return;
+			}
+			int sessionId = lobby.getId(slot);
+			ViewProxy proxy = lobby.getProxy(slot);
+			String playerName = lobby.getName(slot);
+			lobby.remove(slot);
+			try {
+				if(botWait >= 0 && now >= since + botWait) {
+					seat(open(sessionId, proxy.getMailbox()), proxy, playerName,
+						true);
+				} else {
+					proxy.gameQuit(); // idle too long
+				}
+			} catch (IOException exc) {
+				System.err.println ("Lobby timeout for session " + sessionId +
+					" failed: " + exc.getMessage());
+			}
+		}
+		sweeper.disarm();
+	}
+
+	/**
+	 * Register a session restored from a snapshot. Its model must already
+	 * hold the restored state. The players' view proxies wait to be claimed
+	 * by their clients; a bot is seated for a player with no proxy.
+	 * 
+	 * @param  sessionId  The session's id when the snapshot was taken
+	 * @param  model      The session's model
+	 * @param  players    Both players' view proxies, null for a bot
+	 * @param  host       Mailbox of the shard to host the session
+	 */
+	public synchronized void restoreSession
+		(int sessionId,
+		 NimModel model,
+		 ViewProxy[] players,
+		 Mailbox host)
+		{
+		Session session = new Session(sessionId, model);
+		session.setFull();
+		session.setRestoredPlayers(players);
+		model.setSessionManager(this);
+		model.setSessionId(sessionId);
+		for(int pid = 0; pid < players.length; pid++) {
+			ViewProxy proxy = players[pid];
+			if(proxy == null) {
+				model.addModelListener (new BotPlayer(host, model, pid));
+			} else {
+				proxy.setSessionId(sessionId);
+				proxy.setViewListener (model);
+				model.addPlayer (proxy);
+				restored.put
+					((InetSocketAddress) proxy.getClientAddress(), proxy);
+			}
+		}
+		sessions.put (sessionId, session);
+		model.journalStart();
+		if(nextSessionId.get() <= sessionId) {
+			nextSessionId.set(sessionId + 1);
+		}
+		
+		host.schedule
+			(new SessionReaper(host, session),
+			 model.getLastActivity() + Session.IDLE_TIMEOUT);
+		// spread the first repeats of the state out over an interval
+		host.schedule
+			(new StateRefresher(host, session),
+			 TimingWheel.now() + 1 + sessionId % StateRefresher.INTERVAL);
+	}
+
+	/**
+	 * Claim the view proxy of a client whose session was restored, and send
+	 * the client its game
+	 * 
+	 * @param  address  The client's address
+	 * 
+	 * @return  The client's view proxy, or null if the client was not in a
+	 *     restored session that is still open
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public ViewProxy claimRestored
+		(InetSocketAddress address)
+		throws IOException
+		{
+		if(restored.isEmpty()) {
+			return null;
+		}
+		ViewProxy proxy = restored.remove (address);
+		if(proxy == null) {
+			return null;
+		}
+		Session session = sessions.get (proxy.getSessionId());
+		if(session == null || session.isClosed()) {
+			return null;
+		}
+		session.getModel().resync(proxy);
+		return proxy;
+	}
+
+	/**
+	 * Returns every session, waiting or full. The view is weakly consistent,
+	 * so may be walked while sessions come and go.
+	 * 
+	 * @return  the sessions
+	 */
+	public Collection<Session> getSessions() { return sessions.values(); }
+
+	/**
+	 * Returns the number of markers in each heap at the start of a game
+	 * 
+	 * @return  the board, not to be changed
+	 */
+	public int[] getBoard() { return board; }
+
+	/**
+	 * Returns the rules every game is played by
+	 * 
+	 * @return  the rules
+	 */
+	public Ruleset getRules() { return rules; }
+
+	/**
+	 * Journal every session's moves in the given journal. Session ids carry
+	 * on past those already in it.
+	 * 
+	 * @param  journal  Move journal, or null to keep no journal
+	 */
+	public void setJournal
+		(MoveJournal journal)
+		{
+		this.journal = journal;
+		if(journal != null && nextSessionId.get() < journal.getNextSessionId()) {
+			nextSessionId.set(journal.getNextSessionId());
+		}
+	}
+
+	/**
+	 * Returns the move journal
+	 * 
+	 * @return  the journal, or null if none is kept
+	 */
+	public MoveJournal getJournal() { return journal; }
+
+	/**
+	 * Keep players' win/loss records in the given store
+	 * 
+	 * @param  stats  Stats store, or null to keep no records
+	 */
+	public void setStatsStore
+		(StatsStore stats)
+		{
+		this.stats = stats;
+	}
+
+	/**
+	 * Record a finished game in the stats store, if there is one
+	 * 
+	 * @param  winner  Name of the winning player
+	 * @param  loser   Name of the losing player
+	 */
+	public void recordResult
+		(String winner,
+		 String loser)
+		{
+		StatsStore s = stats;
+		if(s != null) {
+			s.recordResult(winner, loser);
+		}
+	}
+
+	/**
+	 * Look up a session by id
+	 * 
+	 * @param  sessionId  The session's id
+	 * 
+	 * @return  The session, or null if there is no such session
+	 */
+	public Session getSession
+		(int sessionId)
+		{
+		return sessions.get (sessionId);
+	}
+	
+	/**
+	 * Returns the number of sessions, waiting or full
+	 * 
+	 * @return  the number of sessions
+	 */
+	public int getSessionCount() { return sessions.size() + lobbySize(); }
+	
+	/**
+	 * Returns the number of players waiting for an opponent. Counts by
+	 * looking through every session, so is meant for monitoring, not for
+	 * the game itself.
+	 * 
+	 * @return  the number of waiting players
+	 */
+	public int getWaitingCount() {
+		int count = lobbySize();
+		for(Session s : sessions.values()) {
+			if(!s.isFull() && !s.isClosed()) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
 	/**
 	 * Remove a session
 	 * @param  m  The model of the session to remove
 	 */
-	public synchronized void removeSession
+	public void removeSession
 		(NimModel m) 
 		{
-		int i = -1;
+		Session s = sessions.remove (m.getSessionId());
+		if(s == null) {
+			System.err.println ("No session " + m.getSessionId() + " to remove");
+			return;
+		}
+		// a waiting session is dropped lazily from its queue
+		s.setClosed();
+		
+		// forget the players of a restored session who never came back
+		ViewProxy[] players = s.getRestoredPlayers();
+		if(players != null) {
+			for(ViewProxy proxy : players) {
+				if(proxy != null) {
+					restored.remove
+						((InetSocketAddress) proxy.getClientAddress(), proxy);
+				}
+			}
+		}
+	}
+
+// Hidden operations
+
+	/**
+	 * Open a new session and start its idle timeout
+	 * 
+	 * @param  sessionId  The session's id
+	 * @param  host       Mailbox of the shard to host the session
+	 * 
+	 * @return  The session
+	 */
+	private Session open
+		(int sessionId,
+		 Mailbox host)
+		{
+		NimModel model = new NimModel(board, rules);
+		model.setSessionManager(this);
+		model.setSessionId(sessionId);
+		Session session = new Session(sessionId, model);
+		sessions.put (sessionId, session);
+		host.schedule
+			(new SessionReaper(host, session),
+			 model.getLastActivity() + Session.IDLE_TIMEOUT);
+		return session;
+	}
+
+	/**
+	 * Pair a joining player with the player waiting in a session, and start
+	 * the game
+	 * 
+	 * @param  session        The session
+	 * @param  oldProxy       Proxy of the waiting player
+	 * @param  oldPlayerName  Name of the waiting player
+	 * @param  proxy          Proxy of the joining player
+	 * @param  playerName     Name of the joining player
+	 * @param  fromLobby      Whether the waiting player waited in the compact
+	 *     lobby, and so is not yet in the session's model
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void pair
+		(Session session,
+		 ViewProxy oldProxy,
+		 String oldPlayerName,
+		 ViewProxy proxy,
+		 String playerName,
+		 boolean fromLobby)
+		throws IOException
+		{
+		NimModel model = session.getModel();
+		session.setFull();
+		if(fromLobby) {
+			model.addPlayer (oldProxy);
+			oldProxy.setViewListener (model);
+		}
+		
+		// serve both players from the waiting player's shard, before
+		// anything is sent, so all of this client's messages share a queue
+		proxy.setMailbox(oldProxy.getMailbox());
+		proxy.setSessionId(session.getId());
+		model.addPlayer (proxy);
+		proxy.setViewListener (model);
 		
-		for(Session s : sessions) {
-			if(s.getModel() == m)
-			    i = sessions.indexOf(s);
+		// each player gets the names and first state in one datagram
+		proxy.beginUpdate();
+		oldProxy.beginUpdate();
+		try {
+			if(fromLobby) {
+				model.setId(oldProxy, 0, oldPlayerName);
+			}
+			// tell model to send name command
+			model.setId(proxy, 1, playerName);
+			// send old client's name to new player
+			model.setName(proxy, 0, oldPlayerName);
+			// send old client new player's name
+			model.setName(oldProxy, 1, playerName);
+			sendRecords(model, proxy, oldPlayerName, playerName);
+			sendRecords(model, oldProxy, oldPlayerName, playerName);
+			model.journalStart();
+			model.setTurn(0);
+		} finally {
+			proxy.endUpdate();
+			oldProxy.endUpdate();
+		}
+		
+		// repeat the state now and then, in case a datagram is lost
+		oldProxy.getMailbox().schedule
+			(new StateRefresher(oldProxy.getMailbox(), session),
+			 TimingWheel.now() + StateRefresher.INTERVAL);
+	}
+
+	/**
+	 * Seat a bot opposite the player waiting in a session, and start the
+	 * game
+	 * 
+	 * @param  session     The session
+	 * @param  proxy       Proxy of the waiting player
+	 * @param  playerName  Name of the waiting player
+	 * @param  fromLobby   Whether the player waited in the compact lobby, and
+	 *     so is not yet in the session's model
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void seat
+		(Session session,
+		 ViewProxy proxy,
+		 String playerName,
+		 boolean fromLobby)
+		throws IOException
+		{
+		NimModel model = session.getModel();
+		session.setFull();
+		if(fromLobby) {
+			model.addPlayer (proxy);
+			proxy.setViewListener (model);
 		}
+		
+		BotPlayer bot = new BotPlayer(proxy.getMailbox(), model, 1);
+		model.addModelListener (bot);
+		proxy.beginUpdate();
 		try {
-			sessions.remove(i);
-		} catch(Exception e) { }
+			if(fromLobby) {
+				model.setId(proxy, 0, playerName);
+			}
+			model.setName(proxy, 1, BotPlayer.NAME);
+			sendRecords(model, proxy, playerName, BotPlayer.NAME);
+			model.journalStart();
+			model.setTurn(0);
+		} finally {
+			proxy.endUpdate();
+		}
+		proxy.getMailbox().schedule
+			(new StateRefresher(proxy.getMailbox(), session),
+			 TimingWheel.now() + StateRefresher.INTERVAL);
+	}
+
+	/**
+	 * Wait in the compact lobby, or pair with the oldest player waiting
+	 * there, preferring the joining player's own shard
+	 * 
+	 * @param  proxy       Proxy of the joining player
+	 * @param  playerName  Name of the joining player
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void joinLobby
+		(ViewProxy proxy,
+		 String playerName)
+		throws IOException
+		{
+		LobbySweeper home = sweeper (proxy.getMailbox());
+		int slot = lobby.first(home.getQueue());
+		if(slot == LobbyTable.NONE) {
+			for(LobbySweeper other : sweepers.values()) {
+				slot = lobby.first(other.getQueue());
+				if(slot != LobbyTable.NONE) {
+					break;
+				}
+			}
+		}
+		
+		// nobody is waiting, wait in the lobby
+		if(slot == LobbyTable.NONE) {
+			int sessionId = nextSessionId.getAndIncrement();
+			long now = TimingWheel.now();
+			slot = lobby.add(home.getQueue(), sessionId, proxy, playerName, now);
+			proxy.setSessionId(sessionId);
+			proxy.setViewListener (new LobbySeat(this, slot, sessionId));
+			proxy.nameSet(0, playerName);
+			proxy.idSet(0);
+			home.arm(deadline(now));
+			return;
+		}
+		
+		// pair with the waiting player, in a session opened only now
+		int sessionId = lobby.getId(slot);
+		ViewProxy oldProxy = lobby.getProxy(slot);
+		String oldPlayerName = lobby.getName(slot);
+		lobby.remove(slot);
+		pair(open(sessionId, oldProxy.getMailbox()), oldProxy, oldPlayerName,
+			proxy, playerName, true);
+	}
+
+	/**
+	 * Returns when a player who started waiting in the compact lobby at the
+	 * given time is due a bot, or else to be quit as idle
+	 */
+	private long deadline
+		(long since)
+		{
+		long wait = Session.IDLE_TIMEOUT;
+		if(botWait >= 0) {
+			wait = Math.min(wait, botWait);
+		}
+		return since + wait;
+	}
+
+	/**
+	 * Return the lobby sweeper, and so the lobby queue, for a mailbox,
+	 * creating it the first time
+	 * 
+	 * @param  home  Mailbox of the waiting player
+	 * 
+	 * @return  The mailbox's lobby sweeper
+	 */
+	private LobbySweeper sweeper
+		(Mailbox home)
+		{
+		LobbySweeper sweeper = sweepers.get (home);
+		if(sweeper == null) {
+			sweeper = new LobbySweeper(this, home, lobby.newQueue());
+			sweepers.put (home, sweeper);
+		}
+		return sweeper;
+	}
+
+	/**
+	 * Returns the number of players waiting in the compact lobby, if there
+	 * is one
+	 */
+	private int lobbySize() {
+		LobbyTable l = lobby;
+		return (l == null) ? 0 : l.size();
+	}
+
+	/**
+	 * Tell a client both players' records, if records are kept
+	 * 
+	 * @param  model  The session's model
+	 * @param  proxy  Proxy of the client we're notifying
+	 * @param  name0  Name of player 0
+	 * @param  name1  Name of player 1
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void sendRecords
+		(NimModel model,
+		 ViewProxy proxy,
+		 String name0,
+		 String name1)
+		throws IOException
+		{
+		StatsStore s = stats;
+		if(s == null) {
+			return;
+		}
+		long record0 = s.lookup(name0);
+		long record1 = s.lookup(name1);
+		if(record0 != StatsStore.NO_RECORD) {
+			model.setRecord(proxy, 0, (int) (record0 >>> 32), (int) record0);
+		}
+		if(record1 != StatsStore.NO_RECORD) {
+			model.setRecord(proxy, 1, (int) (record1 >>> 32), (int) record1);
+		}
+	}
+	
+	/**
+	 * Take the oldest open waiting session, preferring the given mailbox's
+	 * queue. Sessions removed or given a bot while waiting are discarded along
+	 * the way.
+	 * 
+	 * @param  home  Mailbox of the joining player
+	 * 
+	 * @return  A session with a player waiting, or null if there is none
+	 */
+	private Session pollWaiting
+		(Mailbox home)
+		{
+		Session session = pollOpen (waiting.get (home));
+		if(session == null) {
+			for(ArrayDeque<Session> queue : waiting.values()) {
+				session = pollOpen (queue);
+				if(session != null) {
+					break;
+				}
+			}
+		}
+		return session;
+	}
+	
+	/**
+	 * Take the oldest session in a queue that has not been removed or given
+	 * a bot
+	 * 
+	 * @param  queue  Waiting queue, may be null
+	 * 
+	 * @return  An open session, or null if the queue has none
+	 */
+	private Session pollOpen
+		(ArrayDeque<Session> queue)
+		{
+		if(queue == null) {
+			return null;
+		}
+		Session session;
+		while((session = queue.pollFirst()) != null) {
+			if(!session.isClosed() && !session.isFull()) {
+				return session;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Return the waiting queue for a mailbox, creating it the first time
+	 * 
+	 * @param  home  Mailbox of the waiting player
+	 * 
+	 * @return  The mailbox's waiting queue
+	 */
+	private ArrayDeque<Session> waitingQueue
+		(Mailbox home)
+		{
+		ArrayDeque<Session> queue = waiting.get (home);
+		if(queue == null) {
+			queue = new ArrayDeque<Session>();
+			waiting.put (home, queue);
+		}
+		return queue;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+//******************************************************************************
+//
+// File:    SessionReaper.java
+// Package: ---
+// Unit:    Class SessionReaper.java
+//
+//******************************************************************************
+
+/**
+ * Class SessionReaper is the idle timeout for one session. It sits on the
+ * timing wheel of the shard hosting the session. A session that has been
+ * removed is dropped; one with no moves, new games or joins for longer than
+ * Session.IDLE_TIMEOUT is quit, which tells its clients and releases its
+ * model. Otherwise the reaper reschedules itself.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class SessionReaper
+	extends TimingWheel.Timeout
+	{
+
+// Hidden data members
+
+	private Mailbox host;
+	private Session session;
+
+// Exported constructors
+
+	/**
+	 * Construct a new session reaper
+	 *
+	 * @param  host     Mailbox of the shard hosting the session
+	 * @param  session  Session to watch
+	 */
+	public SessionReaper
+		(Mailbox host,
+		 Session session)
+		{
+		this.host = host;
+		this.session = session;
+	}
+
+// Exported operations
+
+	/**
+	 * Quit the session if it has been idle too long
+	 *
+	 * @param  now  Current time in milliseconds
+	 */
+	public void expire
+		(long now)
+		{
+		if (session.isClosed()) {
+			return;
+		}
+		NimModel model = session.getModel();
+		long deadline = model.getLastActivity() + Session.IDLE_TIMEOUT;
+		if (now < deadline) {
+			host.schedule (this, deadline);
+			return;
+		}
+		model.quit();
+	}
+}
@@ -0,0 +1,335 @@
+//******************************************************************************
+//
+// File:    SessionSnapshot.java
+// Package: ---
+// Unit:    Class SessionSnapshot.java
+//
+//******************************************************************************
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Class SessionSnapshot writes every full session to a snapshot file now and
+ * then, and restores the sessions from it when the server starts again, so a
+ * restart does not end the games in progress.
+ * <P>
+ * A snapshot is written into a memory-mapped temporary file, forced to disk,
+ * and renamed over the last snapshot, so a crash while writing leaves the
+ * last snapshot whole. Each session is written under its model's lock, one
+ * session at a time, so play goes on while a snapshot is taken.
+ * <P>
+ * Restored sessions are given the next epoch, since the clients may have
+ * seen moves made after the snapshot was taken, and would ignore an older
+ * state of the same game. A client that uses reliable delivery starts its
+ * reliable channel afresh, so has to join again.
+ * <P>
+ * File layout: int magic, int format, int session count, int body length,
+ * long time taken, int CRC-32 of the body, then the body, one record per
+ * session: int session id, int next journal sequence number, int epoch, int
+ * version, int turn, int winner, two int scores, int heap count, a char per
+ * heap, then for each player a byte address length (0 for a bot), the
+ * address, a char port and the UTF name.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class SessionSnapshot
+	{
+
+// Exported constants
+
+	/** Milliseconds between snapshots */
+	public static final long INTERVAL = 5000L;
+
+// Hidden constants
+
+	private static final int MAGIC = 0x4E494D53; // "NIMS"
+	private static final int FORMAT = 2;
+	private static final int HEADER = 28;
+	private static final int INITIAL_SIZE = 1 << 20;
+
+// Hidden data members
+
+	private File file;
+	private SessionManager sessionManager;
+	private long size = INITIAL_SIZE; // mapping size the last snapshot needed
+	private volatile boolean closed;
+
+// Exported constructors
+
+	/**
+	 * Construct a new session snapshot
+	 *
+	 * @param  file            Snapshot file
+	 * @param  sessionManager  Session manager whose sessions are snapshotted
+	 */
+	public SessionSnapshot
+		(File file,
+		 SessionManager sessionManager)
+		{
+		this.file = file;
+		this.sessionManager = sessionManager;
+	}
+
+// Exported operations
+
+	/**
+	 * Write a player to a snapshot
+	 *
+	 * @param  out    Buffer to write into
+	 * @param  proxy  The player's view proxy, or null for a bot
+	 * @param  name   The player's name
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public static void putPlayer
+		(ByteBuffer out,
+		 ViewProxy proxy,
+		 String name)
+		throws IOException
+		{
+		if (proxy == null) {
+			out.put ((byte) 0);
+		} else {
+			InetSocketAddress address =
+				(InetSocketAddress) proxy.getClientAddress();
+			byte[] ip = address.getAddress().getAddress();
+			out.put ((byte) ip.length).put (ip);
+			out.putChar ((char) address.getPort());
+		}
+		MessageCodec.putUTF (out, name);
+	}
+
+	/**
+	 * Read a player's address written by putPlayer()
+	 *
+	 * @param  in  Buffer to read from, positioned at the player
+	 *
+	 * @return  The address, or null for a bot
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public static InetSocketAddress getAddress
+		(ByteBuffer in)
+		throws IOException
+		{
+		int ipLength = in.get();
+		if (ipLength == 0) {
+			return null;
+		}
+		byte[] ip = new byte [ipLength];
+		in.get (ip);
+		return new InetSocketAddress
+			(InetAddress.getByAddress (ip), in.getChar());
+	}
+
+	/**
+	 * Restore the sessions in the snapshot file, if there is one. Sessions
+	 * are shared out among the given mailboxes by session id. A snapshot
+	 * that fails its checksum is ignored.
+	 *
+	 * @param  hosts  Mailboxes of the shards to host the sessions
+	 *
+	 * @return  The number of sessions restored
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public int restore
+		(Mailbox[] hosts)
+		throws IOException
+		{
+		if (!file.exists()) {
+			return 0;
+		}
+		MappedByteBuffer in;
+		try (FileChannel channel = FileChannel.open
+				(file.toPath(), StandardOpenOption.READ)) {
+			in = channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.capacity() < HEADER || in.getInt (0) != MAGIC ||
+				in.getInt (4) != FORMAT) {
+			System.err.println ("Not a session snapshot: " + file);
+			return 0;
+		}
+		int count = in.getInt (8);
+		int length = in.getInt (12);
+		if (length < 0 || length > in.capacity() - HEADER ||
+				in.getInt (24) != checksum (in, HEADER, length)) {
+			System.err.println ("Session snapshot damaged: " + file);
+			return 0;
+		}
+		size = Math.max (INITIAL_SIZE, in.capacity());
+
+		in.position (HEADER).limit (HEADER + length);
+		int[] board = sessionManager.getBoard();
+		Ruleset rules = sessionManager.getRules();
+		int restored = 0;
+		try {
+			for (; restored < count; restored++) {
+				int sessionId = in.getInt();
+				int journalSeq = in.getInt();
+				int epoch = in.getInt();
+				int version = in.getInt();
+				int turn = in.getInt();
+				int winner = in.getInt();
+				int[] scores = {in.getInt(), in.getInt()};
+				int[] heaps = new int [in.getInt()];
+				for (int h = 0; h < heaps.length; h++) {
+					heaps[h] = in.getChar();
+				}
+				Mailbox host = hosts[Math.floorMod (sessionId, hosts.length)];
+				ViewProxy[] players = new ViewProxy [2];
+				String[] names = new String [2];
+				for (int pid = 0; pid < 2; pid++) {
+					InetSocketAddress address = getAddress (in);
+					if (address != null) {
+						players[pid] = new ViewProxy (host, address);
+					}
+					names[pid] = MessageCodec.getUTF (in);
+				}
+
+				// a new epoch, so clients take this state over newer ones
+				NimModel model = new NimModel (board, rules);
+				model.restore (journalSeq, epoch + 1, version, turn, winner,
+					scores, heaps, players, names);
+				sessionManager.restoreSession (sessionId, model, players, host);
+			}
+		} catch (BufferUnderflowException exc) {
+			System.err.println ("Session snapshot truncated: " + file);
+		}
+		return restored;
+	}
+
+	/**
+	 * Start the thread that takes a snapshot every INTERVAL
+	 */
+	public void start() {
+		Thread writer = new Thread ("SessionSnapshot-writer")
+			{
+			public void run()
+				{
+				writeLoop();
+				}
+			};
+		writer.setDaemon (true);
+		writer.start();
+	}
+
+	/**
+	 * Take a last snapshot and stop taking them
+	 */
+	public void close() {
+		closed = true;
+		try {
+			write();
+		} catch (IOException exc) {
+			System.err.println ("Session snapshot failed: " + exc.getMessage());
+		}
+	}
+
+	/**
+	 * Write every full session to the snapshot file
+	 *
+	 * @return  The number of sessions written
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized int write()
+		throws IOException
+		{
+		File temp = new File (file.getPath() + ".tmp");
+		int count = 0;
+		try (FileChannel channel = FileChannel.open (temp.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer out =
+				channel.map (FileChannel.MapMode.READ_WRITE, 0, size);
+			out.position (HEADER);
+			for (Session session : sessionManager.getSessions()) {
+				if (!session.isFull() || session.isClosed()) {
+					continue;
+				}
+				int mark = out.position();
+				for (;;) {
+					try {
+						if (session.getModel().snapshot (out)) {
+							++count;
+						}
+						break;
+					} catch (BufferOverflowException exc) {
+						// map twice as much and write the session again
+						if (2 * size > Integer.MAX_VALUE) {
+							throw new IOException ("Session snapshot too large");
+						}
+						size *= 2;
+						out = channel.map
+							(FileChannel.MapMode.READ_WRITE, 0, size);
+						out.position (mark);
+					}
+				}
+			}
+			int length = out.position() - HEADER;
+			out.putInt (0, MAGIC);
+			out.putInt (4, FORMAT);
+			out.putInt (8, count);
+			out.putInt (12, length);
+			out.putLong (16, System.currentTimeMillis());
+			out.putInt (24, checksum (out, HEADER, length));
+			out.force();
+		}
+		Files.move (temp.toPath(), file.toPath(),
+			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return count;
+	}
+
+// Hidden operations
+
+	/**
+	 * Take a snapshot every INTERVAL until closed
+	 */
+	private void writeLoop() {
+		while (!closed) {
+			try {
+				Thread.sleep (INTERVAL);
+				if (!closed) {
+					write();
+				}
+			} catch (InterruptedException exc) {
+				return;
+			} catch (Exception exc) {
+				System.err.println ("Session snapshot failed: " + exc.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * CRC-32 of part of a buffer
+	 */
+	private static int checksum
+		(ByteBuffer buffer,
+		 int at,
+		 int length)
+		{
+		ByteBuffer view = buffer.duplicate();
+		view.limit (at + length).position (at);
+		CRC32 crc = new CRC32();
+		crc.update (view);
+		return (int) crc.getValue();
+	}
+}
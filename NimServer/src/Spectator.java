@@ -0,0 +1,85 @@
+//******************************************************************************
+//
+// File:    Spectator.java
+// Package: ---
+// Unit:    Class Spectator.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+
+/**
+ * Class Spectator is the view listener of a client watching a session. A
+ * spectator cannot play, so moves and new games are ignored. Watching the
+ * same session again does nothing but keep the client from being reaped;
+ * watching another one moves the spectator over to it.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class Spectator
+	implements ViewListener
+	{
+
+// Hidden data members
+
+	private SessionManager sessionManager;
+	private NimModel model;
+	private ViewProxy proxy;
+
+// Exported constructors
+
+	/**
+	 * Construct a new spectator
+	 *
+	 * @param  sessionManager  Session manager, to watch another session
+	 * @param  model           Model of the session watched
+	 * @param  proxy           The spectator's view proxy
+	 */
+	public Spectator
+		(SessionManager sessionManager,
+		 NimModel model,
+		 ViewProxy proxy)
+		{
+		this.sessionManager = sessionManager;
+		this.model = model;
+		this.proxy = proxy;
+	}
+
+// Exported operations
+
+	/**
+	 * Watch the given session, if it is not the one already watched
+	 *
+	 * @param  viewProxy  The spectator's view proxy
+	 * @param  sessionId  Id of the session to watch
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void watch
+		(ViewProxy viewProxy,
+		 int sessionId)
+		throws IOException
+		{
+		if (sessionId != model.getSessionId()) {
+			model.removeSpectator (proxy);
+			sessionManager.watch (proxy, sessionId);
+		}
+	}
+
+	/**
+	 * Stop watching
+	 */
+	public void quit() {
+		model.removeSpectator (proxy);
+	}
+
+	// A spectator cannot join or play, so these are ignored.
+
+	public void join(ViewProxy viewProxy, String playerName) { }
+
+	public void removeMarker(int h, int m) { }
+
+	public void newGame() { }
+}
@@ -0,0 +1,73 @@
+//******************************************************************************
+//
+// File:    StateRefresher.java
+// Package: ---
+// Unit:    Class StateRefresher.java
+//
+//******************************************************************************
+
+import java.io.IOException;
+
+/**
+ * Class StateRefresher resends a full session's game state at a fixed
+ * interval. It sits on the timing wheel of the shard hosting the session.
+ * Clients apply a state message only if it is newer than the last one they
+ * applied, so the repeats cost nothing when nothing was lost, and repair a
+ * client's view within one interval when something was. A session that has
+ * been removed is dropped.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class StateRefresher
+	extends TimingWheel.Timeout
+	{
+
+// Exported constants
+
+	/** Milliseconds between repeats of the game state */
+	public static final long INTERVAL = 2000L;
+
+// Hidden data members
+
+	private Mailbox host;
+	private Session session;
+
+// Exported constructors
+
+	/**
+	 * Construct a new state refresher
+	 *
+	 * @param  host     Mailbox of the shard hosting the session
+	 * @param  session  Session whose state to repeat
+	 */
+	public StateRefresher
+		(Mailbox host,
+		 Session session)
+		{
+		this.host = host;
+		this.session = session;
+	}
+
+// Exported operations
+
+	/**
+	 * Resend the session's state and reschedule, unless it was removed
+	 *
+	 * @param  now  Current time in milliseconds
+	 */
+	public void expire
+		(long now)
+		{
+		if (session.isClosed()) {
+			return;
+		}
+		try {
+			session.getModel().refreshState();
+		} catch (IOException exc) {
+			System.err.println ("State refresh for session " +
+				session.getId() + " failed: " + exc.getMessage());
+		}
+		host.schedule (this, now + INTERVAL);
+	}
+}
@@ -0,0 +1,425 @@
+//******************************************************************************
+//
+// File:    StatsStore.java
+// Package: ---
+// Unit:    Class StatsStore.java
+//
+//******************************************************************************
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Class StatsStore keeps every player's win/loss record, by player name, in
+ * an append-only log file that is memory-mapped. Each finished game appends
+ * a record per player holding that player's new totals, so the latest record
+ * for a name is the one that counts. An in-memory index maps each name to
+ * the offset of its latest record, so looking a player up is a hash lookup
+ * and two reads from mapped memory.
+ * <P>
+ * Appending only copies into the mapping; a background thread forces it to
+ * disk once a second, so a finished game never waits for an fsync, and a
+ * crash loses at most the last second's results. Records carry a checksum,
+ * and a torn record at the end of the log is dropped when it is reopened.
+ * <P>
+ * When superseded records make up more than half of the log, the background
+ * thread compacts it: it writes the latest records to a new file and syncs
+ * it without holding the store's lock, then under the lock copies over any
+ * records appended meanwhile and renames the new file over the old.
+ * <P>
+ * Record layout: int body length, int CRC-32 of the body, then the body:
+ * short name length, UTF-8 name, int wins, int losses.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class StatsStore
+	{
+
+// Exported constants
+
+	/** Returned by lookup() for a player with no record */
+	public static final long NO_RECORD = -1L;
+
+// Hidden constants
+
+	private static final int HEADER = 8;
+	private static final int INITIAL_SIZE = 1 << 20;
+	private static final long FLUSH_INTERVAL = 1000L;
+	private static final int MIN_COMPACT = 1 << 20;
+	private static final int MAX_NAME = 1024;
+
+// Hidden helper classes
+
+	/**
+	 * A mapping of the log together with the index into it. Replaced as a
+	 * whole, so a lookup never pairs an index with the wrong file.
+	 */
+	private static class Segment
+		{
+		public FileChannel channel;
+		public MappedByteBuffer log;
+		public ConcurrentHashMap<String,Integer> index;
+
+		public Segment
+			(FileChannel channel,
+			 MappedByteBuffer log,
+			 ConcurrentHashMap<String,Integer> index)
+			{
+			this.channel = channel;
+			this.log = log;
+			this.index = index;
+		}
+	}
+
+// Hidden data members
+
+	private File file;
+	private volatile Segment segment;
+	private int end;          // append position, guarded by this
+	private long liveBytes;   // bytes of latest records, guarded by this
+	private volatile boolean dirty;
+	private volatile boolean closed;
+	private CRC32 crc = new CRC32();
+
+// Exported constructors
+
+	/**
+	 * Open the store in the given file, creating it if need be, and start the
+	 * thread that flushes and compacts it
+	 *
+	 * @param  file  Log file
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public StatsStore
+		(File file)
+		throws IOException
+		{
+		this.file = file;
+		FileChannel channel = FileChannel.open (file.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.READ,
+			StandardOpenOption.WRITE);
+		long size = Math.max (channel.size(), INITIAL_SIZE);
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException ("Stats log too large: " + file);
+		}
+		MappedByteBuffer log =
+			channel.map (FileChannel.MapMode.READ_WRITE, 0, size);
+		ConcurrentHashMap<String,Integer> index =
+			new ConcurrentHashMap<String,Integer>();
+		segment = new Segment (channel, log, index);
+		end = scan (log, 0, index);
+
+		Thread flusher = new Thread ("StatsStore-flusher")
+			{
+			public void run()
+				{
+				flushLoop();
+				}
+			};
+		flusher.setDaemon (true);
+		flusher.start();
+	}
+
+// Exported operations
+
+	/**
+	 * Look up a player's record
+	 *
+	 * @param  name  Player name
+	 *
+	 * @return  Wins in the high 32 bits and losses in the low 32, or
+	 *     NO_RECORD if the player has none
+	 */
+	public long lookup
+		(String name)
+		{
+		for (;;) {
+			Segment s = segment;
+			Integer offset = s.index.get (name);
+			if (offset == null) {
+				return NO_RECORD;
+			}
+			int at = offset;
+			if (at + HEADER + 2 > s.log.capacity()) {
+				continue; // appended past this mapping; take the grown one
+			}
+			int counts = at + HEADER + 2 + (s.log.getShort (at + HEADER) & 0xFFFF);
+			if (counts + 8 > s.log.capacity()) {
+				continue;
+			}
+			return ((long) s.log.getInt (counts) << 32) |
+				(s.log.getInt (counts + 4) & 0xFFFFFFFFL);
+		}
+	}
+
+	/**
+	 * Record a finished game
+	 *
+	 * @param  winner  Name of the winning player
+	 * @param  loser   Name of the losing player
+	 */
+	public synchronized void recordResult
+		(String winner,
+		 String loser)
+		{
+		if (closed) {
+			return;
+		}
+		try {
+			long w = lookup (winner);
+			int wWins = (w == NO_RECORD ? 0 : (int) (w >>> 32));
+			int wLosses = (w == NO_RECORD ? 0 : (int) w);
+			if (winner.equals (loser)) {
+				append (winner, wWins + 1, wLosses + 1); // two of a name
+			} else {
+				long l = lookup (loser);
+				append (winner, wWins + 1, wLosses);
+				append (loser, l == NO_RECORD ? 0 : (int) (l >>> 32),
+					(l == NO_RECORD ? 0 : (int) l) + 1);
+			}
+			dirty = true;
+		} catch (IOException exc) {
+			System.err.println ("Stats not recorded: " + exc.getMessage());
+		}
+	}
+
+	/**
+	 * Force the log to disk and stop recording
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			segment.log.force();
+			segment.channel.close();
+		} catch (IOException exc) {
+			System.err.println (exc.getMessage());
+		}
+	}
+
+// Hidden operations
+
+	/**
+	 * Append one record and point the index at it
+	 */
+	private void append
+		(String name,
+		 int wins,
+		 int losses)
+		throws IOException
+		{
+		byte[] bytes = name.getBytes (StandardCharsets.UTF_8);
+		if (bytes.length > MAX_NAME) {
+			return; // not a name anyone would type
+		}
+		int body = 2 + bytes.length + 8;
+		Segment s = segment;
+		if (end + HEADER + body > s.log.capacity()) {
+			s = grow (end + HEADER + body);
+		}
+		MappedByteBuffer log = s.log;
+		int at = end;
+		log.putShort (at + HEADER, (short) bytes.length);
+		slice (log, at + HEADER + 2, bytes.length).put (bytes);
+		log.putInt (at + HEADER + 2 + bytes.length, wins);
+		log.putInt (at + HEADER + 6 + bytes.length, losses);
+		log.putInt (at + 4, checksum (log, at + HEADER, body));
+		log.putInt (at, body); // last, so a torn append reads as the end
+		end = at + HEADER + body;
+
+		Integer old = s.index.put (name, at);
+		if (old != null) {
+			liveBytes -= HEADER + body; // same name, same record size
+		}
+		liveBytes += HEADER + body;
+	}
+
+	/**
+	 * Map a larger part of the file, at least the given size
+	 */
+	private Segment grow
+		(long needed)
+		throws IOException
+		{
+		Segment s = segment;
+		long size = s.log.capacity();
+		while (size < needed) {
+			size *= 2;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException ("Stats log full: " + file);
+		}
+		s = new Segment (s.channel,
+			s.channel.map (FileChannel.MapMode.READ_WRITE, 0, size), s.index);
+		segment = s;
+		return s;
+	}
+
+	/**
+	 * Read the records from the given offset to the first missing or torn
+	 * one, indexing each and counting only the latest record per player as
+	 * live
+	 *
+	 * @return  Offset just past the last good record
+	 */
+	private int scan
+		(ByteBuffer log,
+		 int at,
+		 ConcurrentHashMap<String,Integer> index)
+		{
+		for (;;) {
+			if (at + HEADER > log.capacity()) {
+				return at;
+			}
+			int body = log.getInt (at);
+			if (body < 10 || at + HEADER + body > log.capacity() ||
+					log.getInt (at + 4) != checksum (log, at + HEADER, body)) {
+				return at;
+			}
+			int length = log.getShort (at + HEADER) & 0xFFFF;
+			if (2 + length + 8 != body) {
+				return at;
+			}
+			byte[] bytes = new byte [length];
+			slice (log, at + HEADER + 2, length).get (bytes);
+			Integer old = index.put (new String (bytes, StandardCharsets.UTF_8), at);
+			if (old != null) {
+				liveBytes -= HEADER + log.getInt (old); // superseded here
+			}
+			liveBytes += HEADER + body;
+			at += HEADER + body;
+		}
+	}
+
+	/**
+	 * CRC-32 of part of the log
+	 */
+	private int checksum
+		(ByteBuffer log,
+		 int at,
+		 int length)
+		{
+		crc.reset();
+		crc.update (slice (log, at, length));
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Force the log to disk whenever it has changed, and compact it when it
+	 * is mostly superseded records
+	 */
+	private void flushLoop() {
+		while (!closed) {
+			try {
+				Thread.sleep (FLUSH_INTERVAL);
+				if (dirty) {
+					dirty = false;
+					segment.log.force();
+				}
+				if (needsCompaction()) {
+					compact();
+				}
+			} catch (InterruptedException exc) {
+				return;
+			} catch (Exception exc) {
+				// closed underneath us, or the disk failed; try again later
+				if (!closed) {
+					System.err.println ("Stats flush failed: " + exc.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Whether superseded records make up more than half a sizeable log
+	 */
+	private synchronized boolean needsCompaction() {
+		return !closed && end > MIN_COMPACT && end > 2 * liveBytes;
+	}
+
+	/**
+	 * Rewrite the log with only the latest record for each player
+	 */
+	private void compact()
+		throws IOException
+		{
+		// everything before this offset is copied without the lock
+		int snapshotEnd;
+		Segment old;
+		synchronized (this) {
+			snapshotEnd = end;
+			old = segment;
+		}
+
+		File temp = new File (file.getPath() + ".compact");
+		FileChannel channel = FileChannel.open (temp.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+			StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ConcurrentHashMap<String,Integer> index =
+			new ConcurrentHashMap<String,Integer>();
+		int at = 0;
+		for (Map.Entry<String,Integer> entry : old.index.entrySet()) {
+			int from = entry.getValue();
+			if (from >= snapshotEnd) {
+				continue; // newer than the snapshot; comes over with the tail
+			}
+			int length = HEADER + old.log.getInt (from);
+			channel.write (slice (old.log, from, length), at);
+			index.put (entry.getKey(), at);
+			at += length;
+		}
+		channel.force (true);
+
+		// under the lock, bring over what was appended meanwhile and swap
+		synchronized (this) {
+			if (closed) {
+				channel.close();
+				return;
+			}
+			int tail = end - snapshotEnd;
+			channel.write (slice (segment.log, snapshotEnd, tail), at);
+			long size = Math.max (INITIAL_SIZE, 2L * (at + tail));
+			MappedByteBuffer log =
+				channel.map (FileChannel.MapMode.READ_WRITE, 0, size);
+			liveBytes = 0;
+			for (Integer offset : index.values()) {
+				liveBytes += HEADER + log.getInt (offset);
+			}
+			end = scan (log, at, index);
+			Files.move (temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+			segment.channel.close();
+			segment = new Segment (channel, log, index);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * A view of part of the log
+	 */
+	private static ByteBuffer slice
+		(ByteBuffer log,
+		 int at,
+		 int length)
+		{
+		ByteBuffer view = log.duplicate();
+		view.limit (at + length).position (at);
+		return view;
+	}
+}
@@ -0,0 +1,154 @@
+//******************************************************************************
+//
+// File:    TimingWheel.java
+// Package: ---
+// Unit:    Class TimingWheel.java
+//
+//******************************************************************************
+
+/**
+ * Class TimingWheel is a hashed timing wheel. Timeouts hash into one of a
+ * fixed number of slots by deadline, each slot covering one tick. Every tick
+ * the wheel visits one slot, expires the timeouts that are due, and leaves
+ * the ones due on a later turn of the wheel. Scheduling is O(1), and each
+ * timeout is visited once per turn of the wheel until it fires.
+ * <P>
+ * A timing wheel is not thread safe; it belongs to one event loop, which
+ * calls advance() regularly. Timeouts are intrusive, singly-linked list nodes,
+ * so scheduling allocates nothing.
+ *
+ * @author  Kyle Blyth
+ * @version 17-Oct-2026
+ */
+public class TimingWheel
+	{
+
+// Exported helper classes
+
+	/**
+	 * A timeout that can be scheduled on a timing wheel. A timeout may be on
+	 * at most one wheel at a time, and may reschedule itself from expire().
+	 */
+	public static abstract class Timeout
+		{
+		private long deadline;
+		private Timeout next;
+		private boolean scheduled;
+
+		/**
+		 * Returns whether this timeout is waiting on a wheel
+		 *
+		 * @return  true if scheduled, else false
+		 */
+		public boolean isScheduled() { return scheduled; }
+
+		/**
+		 * Called by the wheel once the deadline has passed
+		 *
+		 * @param  now  Current time in milliseconds
+		 */
+		public abstract void expire
+			(long now);
+	}
+
+// Hidden data members
+
+	private Timeout[] slots;
+	private int mask;
+	private long tickMillis;
+	private long currentTick;
+
+// Exported constructors
+
+	/**
+	 * Construct a new timing wheel
+	 *
+	 * @param  slotCount   Number of slots, rounded up to a power of two
+	 * @param  tickMillis  Time covered by one slot in milliseconds
+	 * @param  now         Current time in milliseconds
+	 */
+	public TimingWheel
+		(int slotCount,
+		 long tickMillis,
+		 long now)
+		{
+		int n = Integer.highestOneBit (Math.max (slotCount - 1, 1)) << 1;
+		this.slots = new Timeout [n];
+		this.mask = n - 1;
+		this.tickMillis = tickMillis;
+		this.currentTick = now / tickMillis;
+	}
+
+// Exported operations
+
+	/**
+	 * Returns the current time on the wheel's clock
+	 *
+	 * @return  Milliseconds from an arbitrary origin
+	 */
+	public static long now() {
+		return System.nanoTime() / 1000000L;
+	}
+
+	/**
+	 * Returns the length of one tick
+	 *
+	 * @return  Tick length in milliseconds
+	 */
+	public long getTickMillis() { return tickMillis; }
+
+	/**
+	 * Schedule a timeout. A deadline in the past fires on the next tick.
+	 *
+	 * @param  timeout   Timeout to schedule, not already scheduled
+	 * @param  deadline  Time to expire it, in milliseconds
+	 */
+	public void schedule
+		(Timeout timeout,
+		 long deadline)
+		{
+		if (timeout.scheduled) {
+			throw new IllegalStateException ("Timeout already scheduled");
+		}
+		timeout.deadline = deadline;
+		timeout.scheduled = true;
+		long tick = Math.max (deadline / tickMillis, currentTick + 1);
+		int slot = (int) (tick & mask);
+		timeout.next = slots[slot];
+		slots[slot] = timeout;
+	}
+
+	/**
+	 * Expire every timeout whose deadline has passed
+	 *
+	 * @param  now  Current time in milliseconds
+	 */
+	public void advance
+		(long now)
+		{
+		long targetTick = now / tickMillis;
+		// After a long stall, one full turn visits every slot.
+		if (targetTick - currentTick > slots.length) {
+			currentTick = targetTick - slots.length;
+		}
+		while (currentTick < targetTick) {
+			++currentTick;
+			int slot = (int) (currentTick & mask);
+			Timeout list = slots[slot];
+			slots[slot] = null;
+			while (list != null) {
+				Timeout timeout = list;
+				list = list.next;
+				timeout.next = null;
+				if (timeout.deadline / tickMillis > currentTick) {
+					// Due on a later turn of the wheel
+					timeout.next = slots[slot];
+					slots[slot] = timeout;
+				} else {
+					timeout.scheduled = false;
+					timeout.expire (now);
+				}
+			}
+		}
+	}
+}
@@ -6,14 +6,12 @@
 //
 //******************************************************************************
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.UTFDataFormatException;
 import java.net.SocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class ViewProxy provides the network proxy for the server-side view object.
@@ -26,11 +24,34 @@ public class ViewProxy
 	implements ModelListener
 	{
 
+// Exported constants
+
+	/** Milliseconds without a datagram after which a client is reaped */
+	public static final long IDLE_TIMEOUT = 10 * 60 * 1000L;
+
+// Hidden constants
+
+	// Longest message of a fixed size, a player record
+	private static final int SMALL_MESSAGE = 10;
+
+	// Longest player name message
+	private static final int NAME_MESSAGE = 4 + MessageCodec.MAX_NAME;
+
 // Hidden data members
 
-	private DatagramSocket mailbox;
+	private volatile Mailbox mailbox;
 	private SocketAddress clientAddress;
 	private ViewListener viewListener;
+	private ByteBuffer out; // allocated by the first message
+	private volatile ReliableChannel reliable;
+	private RetransmitTimer retransmitTimer = new RetransmitTimer();
+
+	private volatile long lastActivity = TimingWheel.now();
+	private volatile int sessionId = PipelineEvents.NO_SESSION;
+
+	private boolean batching;
+	private int batchCountPosition;
+	private int batchCount;
 
 // Exported constructors
 
@@ -41,7 +62,7 @@ public class ViewProxy
 	 * @param  clientAddress  Client's mailbox address
 	 */
 	public ViewProxy
-		(DatagramSocket mailbox,
+		(Mailbox mailbox,
 		 SocketAddress clientAddress)
 		{
 		this.mailbox = mailbox;
@@ -61,6 +82,108 @@ public class ViewProxy
 		this.viewListener = viewListener;
 	}
 
+	/**
+	 * Returns the mailbox this view proxy sends through. In a sharded server
+	 * this is also the shard that processes the client's datagrams.
+	 *
+	 * @return  mailbox  the mailbox for this client
+	 */
+	public Mailbox getMailbox() { return mailbox; }
+
+	/**
+	 * Move this view proxy onto another mailbox
+	 *
+	 * @param  mailbox  The mailbox to send through from now on
+	 */
+	public void setMailbox
+		(Mailbox mailbox)
+		{
+		this.mailbox = mailbox;
+	}
+
+	/**
+	 * Returns the address of the client this view proxy talks to
+	 *
+	 * @return  clientAddress  the client's address
+	 */
+	public SocketAddress getClientAddress() { return clientAddress; }
+
+	/**
+	 * Returns the id of the session this client plays in, for tracing
+	 *
+	 * @return  sessionId  Session id, or PipelineEvents.NO_SESSION
+	 */
+	public int getSessionId() { return sessionId; }
+
+	/**
+	 * Record the id of the session this client plays in
+	 *
+	 * @param  sessionId  Session id
+	 */
+	public void setSessionId
+		(int sessionId)
+		{
+		this.sessionId = sessionId;
+	}
+
+	/**
+	 * Returns when this client last sent a datagram
+	 *
+	 * @return  lastActivity  Time on the TimingWheel.now() clock
+	 */
+	public long getLastActivity() { return lastActivity; }
+
+	/**
+	 * Treat the client as gone, as if it had sent a quit message
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public void reap()
+		throws IOException
+		{
+		ReliableChannel channel = reliable;
+		if (channel != null) {
+			channel.close(); // stop retransmitting to it
+		}
+		viewListener.quit();
+	}
+
+	/**
+	 * Start collecting messages into one composite datagram
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized void beginUpdate()
+		throws IOException
+		{
+		if (out == null) {
+			out = ByteBuffer.allocate
+				(MessageCodec.MAX_DATAGRAM - ReliableChannel.HEADER_SIZE);
+		}
+		out.clear();
+		batchCountPosition = MessageCodec.beginComposite (out);
+		batchCount = 0;
+		batching = true;
+	}
+
+	/**
+	 * Send the messages collected since beginUpdate() as one datagram
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized void endUpdate()
+		throws IOException
+		{
+		batching = false;
+		if (batchCount > 0) {
+			MessageCodec.endComposite (out, batchCountPosition, batchCount);
+			send();
+		}
+	}
+
 	/**
 	 * Report that a player ID has been set
 	 *
@@ -69,18 +192,13 @@ public class ViewProxy
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred
 	 */
-	public void idSet
+	public synchronized void idSet
 		(int id) 
 		throws IOException
 		{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream (baos);
-		out.writeByte ('I');
-		out.writeByte(id);
-		out.close();
-		byte[] payload = baos.toByteArray();
-		mailbox.send
-			(new DatagramPacket (payload, payload.length, clientAddress));
+		startMessage (SMALL_MESSAGE);
+		MessageCodec.putId (out, id);
+		endMessage();
 	}
 
 	/**
@@ -92,19 +210,33 @@ public class ViewProxy
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred
 	 */
-	public void nameSet
+	public synchronized void nameSet
 		(int playerId, 
 		 String playerName) 
 		throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream (baos);
-		out.writeByte ('N');
-		out.writeByte (playerId);
-		out.writeUTF (playerName);
-		out.close();
-		byte[] payload = baos.toByteArray();
-		mailbox.send
-			(new DatagramPacket (payload, payload.length, clientAddress));
+		startMessage (NAME_MESSAGE);
+		MessageCodec.putName (out, playerId, playerName);
+		endMessage();
+	}
+	
+	/**
+	 * Report a player's win/loss record
+	 *
+	 * @param  playerId  Id of the player
+	 * @param  wins      Games the player has won
+	 * @param  losses    Games the player has lost
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized void recordSet
+		(int playerId,
+		 int wins,
+		 int losses)
+		throws IOException {
+		startMessage (SMALL_MESSAGE);
+		MessageCodec.putRecord (out, playerId, wins, losses);
+		endMessage();
 	}
 	
 	/**
@@ -118,22 +250,16 @@ public class ViewProxy
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred
 	 */
-	public void scoreSet
+	public synchronized void scoreSet
 		(boolean isMe,
 		 int i,
 		 int s,
 		 String pName)
 		throws IOException 
 		{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream (baos);
-		out.writeByte ('S');
-		out.writeByte (i);
-		out.writeByte (s);
-		out.close();
-		byte[] payload = baos.toByteArray();
-		mailbox.send
-			(new DatagramPacket (payload, payload.length, clientAddress));
+		startMessage (SMALL_MESSAGE);
+		MessageCodec.putScore (out, i, s);
+		endMessage();
 	}
 	
 	/**
@@ -145,20 +271,14 @@ public class ViewProxy
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred
 	 */
-	public void heapSet
+	public synchronized void heapSet
 		(int h,
 		 int m)
 		throws IOException 
 		{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream (baos);
-		out.writeByte ('H');
-		out.writeByte (h);
-		out.writeByte (m);
-		out.close();
-		byte[] payload = baos.toByteArray();
-		mailbox.send
-			(new DatagramPacket (payload, payload.length, clientAddress));
+		startMessage (SMALL_MESSAGE);
+		MessageCodec.putHeap (out, h, m);
+		endMessage();
 	}
 	
 	/**
@@ -169,18 +289,13 @@ public class ViewProxy
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred.
 	 */
-	public void turnSet
+	public synchronized void turnSet
 		(int pid) 
 		throws IOException
 		{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream (baos);
-		out.writeByte ('T');
-		out.writeByte(pid);
-		out.close();
-		byte[] payload = baos.toByteArray();
-		mailbox.send
-			(new DatagramPacket (payload, payload.length, clientAddress));
+		startMessage (SMALL_MESSAGE);
+		MessageCodec.putTurn (out, pid);
+		endMessage();
 	}
 
 	/**
@@ -191,18 +306,61 @@ public class ViewProxy
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred.
 	 */
-	public void winnerSet
+	public synchronized void winnerSet
 		(int id) 
 		throws IOException 
 		{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream (baos);
-		out.writeByte ('W');
-		out.writeByte(id);
-		out.close();
-		byte[] payload = baos.toByteArray();
-		mailbox.send
-			(new DatagramPacket (payload, payload.length, clientAddress));
+		startMessage (SMALL_MESSAGE);
+		MessageCodec.putWinner (out, id);
+		endMessage();
+	}
+	
+	/**
+	 * Report the game state. A small board goes out whole in one state
+	 * message; otherwise the range is split over as many state range
+	 * messages as it needs.
+	 *
+	 * @param  epoch    Number of the game
+	 * @param  version  Number of moves made in this game
+	 * @param  turn     Id of the player whose turn it is
+	 * @param  winner   Id of the winner, or MessageCodec.NO_WINNER
+	 * @param  scores   Both players' scores
+	 * @param  heaps    Number of markers left in each heap
+	 * @param  first    Id of the first heap to report
+	 * @param  count    Number of heaps to report
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred.
+	 */
+	public synchronized void stateSet
+		(int epoch,
+		 int version,
+		 int turn,
+		 int winner,
+		 int[] scores,
+		 int[] heaps,
+		 int first,
+		 int count)
+		throws IOException
+		{
+		if (first == 0 && count == heaps.length &&
+				MessageCodec.fitsState (scores, heaps)) {
+			startMessage (MessageCodec.STATE_HEADER + heaps.length);
+			MessageCodec.putState
+				(out, epoch, version, turn, winner, scores, heaps);
+			endMessage();
+			return;
+		}
+		int end = first + count;
+		while (first < end) {
+			startMessage (MessageCodec.STATE_RANGE_HEADER + 2);
+			int n = Math.min (end - first,
+				(out.remaining() - MessageCodec.STATE_RANGE_HEADER) / 2);
+			MessageCodec.putStateRange
+				(out, epoch, version, turn, winner, scores, heaps, first, n);
+			endMessage();
+			first += n;
+		}
 	}
 	
 	/**
@@ -211,22 +369,47 @@ public class ViewProxy
 	 * @exception  IOException
 	 *     Thrown if an I/O error occurred.
 	 */
-	public void gameQuit() 
+	public synchronized void gameQuit() 
 		throws IOException 
 		{
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream (baos);
-		out.writeByte ('Q');
-		out.close();
-		byte[] payload = baos.toByteArray();
-		mailbox.send
-			(new DatagramPacket (payload, payload.length, clientAddress));
+		startMessage (SMALL_MESSAGE);
+		MessageCodec.putOpcode (out, MessageCodec.GAME_QUIT);
+		endMessage();
 	}
 	
+	/**
+	 * Send the client a message that is already encoded, adding it to the
+	 * current batch if there is one. The buffer's position is left where it
+	 * was, so one encoded message can be sent on to any number of clients.
+	 *
+	 * @param  message  Message contents, from position to limit; no longer
+	 *     than a datagram less a reliable and a composite header
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	public synchronized void forward
+		(ByteBuffer message)
+		throws IOException
+		{
+		if (!batching) {
+			transmit (message);
+			return;
+		}
+		if (batchCount == MessageCodec.MAX_COMPOSITE ||
+				out.remaining() < message.remaining()) {
+			endUpdate();
+			beginUpdate();
+		}
+		out.put (message.duplicate());
+		batchCount++;
+	}
+
 	/**
 	 * Process a received datagram
 	 *
-	 * @param  datagram  Datagram
+	 * @param  datagram  Datagram contents, from position to limit. An 'R' or
+	 *     'A' frame switches this client to reliable delivery.
 	 *
 	 * @return  True to discard this view proxy, false otherwise
 	 *
@@ -234,41 +417,283 @@ public class ViewProxy
 	 *     Thrown if an I/O error occurred
 	 */
 	public boolean process
-		(DatagramPacket datagram)
+		(ByteBuffer datagram)
+		throws IOException
+		{
+		lastActivity = TimingWheel.now();
+		if (!datagram.hasRemaining()) {
+			System.err.println ("Bad message"); // Empty datagram
+			ServerMetrics.badMessage();
+			return false;
+		}
+		if (!ReliableChannel.isFrame (datagram.get (datagram.position()))) {
+			return processMessage (datagram);
+		}
+
+		// Reliable client: hand over every message now deliverable in order
+		ReliableChannel channel = reliable;
+		if (channel == null) {
+			channel = new ReliableChannel (new ReliableChannel.Output() {
+				public void transmit (ByteBuffer frame) throws IOException {
+					mailbox.send (frame, clientAddress);
+				}
+			});
+			reliable = channel;
+		}
+		boolean discard = false;
+		try {
+			channel.receive (datagram, lastActivity);
+		} catch (BufferUnderflowException exc) {
+			System.err.println ("Bad message"); // Truncated frame
+			ServerMetrics.badMessage();
+		}
+		ByteBuffer message;
+		while ((message = channel.nextMessage()) != null) {
+			discard |= processMessage (message);
+		}
+		resyncIfNeeded();
+		armRetransmitTimer();
+		return discard;
+		}
+
+	/**
+	 * Process one protocol message
+	 *
+	 * @param  message  Message contents, from position to limit
+	 *
+	 * @return  True to discard this view proxy, false otherwise
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private boolean processMessage
+		(ByteBuffer message)
 		throws IOException
 		{
 		boolean discard = false;
-		DataInputStream in =
-			new DataInputStream
-				(new ByteArrayInputStream
-					(datagram.getData(), 0, datagram.getLength()));
 		String playerName;
 		int h, m;
-		byte b = in.readByte();
-		switch (b)
+		long start = System.nanoTime();
+		PipelineEvents.Decode decode = new PipelineEvents.Decode();
+		decode.begin();
+		try {
+			byte b = message.get();
+			switch (b)
+				{
+				case MessageCodec.JOIN:
+					playerName = MessageCodec.getName (message);
+					decoded (decode, b);
+					viewListener.join (ViewProxy.this, playerName);
+					break;
+				case MessageCodec.WATCH:
+					int watched = message.getInt();
+					decoded (decode, b);
+					viewListener.watch (ViewProxy.this, watched);
+					break;
+				case MessageCodec.TAKE:
+					h = message.get();
+					m = message.get();
+					decoded (decode, b);
+					viewListener.removeMarker (h, m);
+					break;
+				case MessageCodec.TAKE_WIDE:
+					h = message.getShort() & 0xFFFF;
+					m = message.getShort() & 0xFFFF;
+					decoded (decode, b);
+					viewListener.removeMarker (h, m);
+					break;
+				case MessageCodec.NEW_GAME:
+					decoded (decode, b);
+					viewListener.newGame();
+					break;
+				case MessageCodec.QUIT:
+					decoded (decode, b);
+					discard = true;
+					viewListener.quit();
+					break;
+				default:
+					System.err.println ("Bad message"); // Shouldn't happen
+					ServerMetrics.badMessage();
+					break;
+				}
+			ServerMetrics.messageProcessed (b, System.nanoTime() - start);
+		} catch (BufferUnderflowException exc) {
+			System.err.println ("Bad message"); // Truncated datagram
+			ServerMetrics.badMessage();
+		} catch (UTFDataFormatException exc) {
+			System.err.println ("Bad message: " + exc.getMessage());
+			ServerMetrics.badMessage();
+		} catch (BufferOverflowException exc) {
+			// A reply too big to encode is this client's problem alone
+			System.err.println ("Reply to " + clientAddress + " too long");
+			ServerMetrics.badMessage();
+		}
+		return discard;
+		}
+
+	/**
+	 * Commit a decode event, if it took long enough to be recorded
+	 *
+	 * @param  event   Event begun before the message was parsed
+	 * @param  opcode  The message's opcode
+	 */
+	private void decoded
+		(PipelineEvents.Decode event,
+		 byte opcode)
+		{
+		event.end();
+		if (event.shouldCommit()) {
+			event.opcode = (char) opcode;
+			event.sessionId = sessionId;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Prepare the outbound buffer for the next message. Outside a batch the
+	 * buffer is cleared; inside a batch the message is appended, and the
+	 * batch is flushed first if the composite frame is full or has no room
+	 * for the message.
+	 *
+	 * @param  size  Most bytes the message can take
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void startMessage
+		(int size)
+		throws IOException
+		{
+		if (!batching) {
+			if (out == null) {
+				out = ByteBuffer.allocate
+					(MessageCodec.MAX_DATAGRAM - ReliableChannel.HEADER_SIZE);
+			}
+			out.clear();
+		} else if (batchCount == MessageCodec.MAX_COMPOSITE ||
+				out.remaining() < size) {
+			endUpdate();
+			beginUpdate();
+		}
+	}
+
+	/**
+	 * Send the message just encoded, or count it toward the current batch
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void endMessage()
+		throws IOException
+		{
+		if (batching) {
+			batchCount++;
+		} else {
+			send();
+		}
+	}
+
+	/**
+	 * Send the message encoded in the outbound buffer to the client
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void send()
+		throws IOException
+		{
+		out.flip();
+		transmit (out);
+	}
+
+	/**
+	 * Send a datagram to the client, through the reliable channel if the
+	 * client uses one. The buffer's position is left where it was.
+	 *
+	 * @param  message  Datagram contents, from position to limit
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void transmit
+		(ByteBuffer message)
+		throws IOException
+		{
+		PipelineEvents.Send event = new PipelineEvents.Send();
+		event.begin();
+		ReliableChannel channel = reliable;
+		if (channel == null) {
+			mailbox.send (message, clientAddress);
+		} else {
+			channel.send (message, TimingWheel.now());
+			armRetransmitTimer();
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.opcode = (char) message.get (message.position());
+			event.sessionId = sessionId;
+			event.bytes = message.remaining();
+			event.reliable = (channel != null);
+			event.commit();
+		}
+	}
+
+	/**
+	 * Send the client a full state if its reliable channel dropped messages
+	 * from its backlog, since a full state supersedes them, or if the client
+	 * restarted its channel and has lost its game; a spectator's next
+	 * broadcast state does. The model locks itself before this proxy, so
+	 * this is called with no monitor held, never from transmit().
+	 *
+	 * @exception  IOException
+	 *     Thrown if an I/O error occurred
+	 */
+	private void resyncIfNeeded()
+		throws IOException
+		{
+		ReliableChannel channel = reliable;
+		if (channel != null && channel.takeResync() &&
+				viewListener instanceof NimModel) {
+			((NimModel) viewListener).resync (this);
+		}
+	}
+
+	/**
+	 * Put the retransmission timer on the wheel if the reliable channel has
+	 * work pending and no timer is already armed
+	 */
+	private void armRetransmitTimer() {
+		long deadline = reliable.arm();
+		if (deadline != ReliableChannel.NONE) {
+			mailbox.schedule (retransmitTimer, deadline);
+		}
+	}
+
+	/**
+	 * Class RetransmitTimer polls a reliable client's channel for
+	 * retransmissions and delayed acks, and resynchronizes the client if the
+	 * channel dropped messages. A channel that drops messages has frames in
+	 * flight, so its timer is always armed; a restart is seen by process().
+	 */
+	private class RetransmitTimer
+		extends TimingWheel.Timeout
+		{
+		public void expire
+			(long now)
 			{
-			case 'J':
-				playerName = in.readUTF();
-				viewListener.join (ViewProxy.this, playerName);
-				break;
-			case 'T':
-				h = in.readByte();
-				m = in.readByte();
-				viewListener.removeMarker (h, m);
-				break;
-			case 'N':
-				viewListener.newGame();
-				break;
-			case 'Q':
-				discard = true;
-				viewListener.quit();
-				break;
-			default:
-				System.err.println ("Bad message"); // Shouldn't happen
-				break;
+			long next = ReliableChannel.NONE;
+			try {
+				resyncIfNeeded();
+				next = reliable.poll (now);
+			} catch (IOException exc) {
+				System.err.println ("Retransmit to " + clientAddress +
+					" failed: " + exc.getMessage());
+			}
+			if (next != ReliableChannel.NONE) {
+				mailbox.schedule (this, next);
 			}
-		return discard;
 		}
+	}
 
 	/**
 	 * Removes the winner text from the UI